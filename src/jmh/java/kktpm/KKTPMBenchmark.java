@@ -0,0 +1,237 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import parsing.KKTPM;
+import parsing.LagrangeMultipliers;
+import parsing.OptimizationProblem;
+import parsing.XMLParser;
+
+/**
+ * Benchmarks the problem-based calculations on every problem bundled with the
+ * tests (src/test/resources/problems, see {@link #main}). Each problem is evaluated at a fixed
+ * set of points drawn at random within the limits given in its XML file (see
+ * {@link ProblemSamples}), using the same seed on every run. The ideal point
+ * is slightly below the smallest objective values of these points.
+ * <p>
+ * Every benchmark is measured both as throughput and as sampled time (which
+ * gives the latency percentiles). Run all of them using "gradle jmh" (which
+ * adds the gc profiler to report the allocation rate), or pass other JMH
+ * options, e.g. gradle jmh -PjmhArgs="KKTPMBenchmark.getKKTPM -p
+ * problemFile=zdt1.xml".
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KKTPMBenchmark {
+
+    private static final String PROBLEMS_DIRECTORY = "src/test/resources/problems";
+    private static final int SAMPLES_COUNT = 64;
+    private static final long SEED = 2018;
+    private static final double RHO = 0.001;
+
+    private static final String PROBLEM_FILE_PARAMETER = "problemFile";
+
+    /**
+     * The problem file (no default: the files of the problems directory are
+     * given by {@link #main}).
+     */
+    @Param
+    public String problemFile;
+
+    private File file;
+    private OptimizationProblem problem;
+    private double[][] points;
+    private double[] z;
+    private int nextPoint;
+    private double[] x;
+    private double[] f;
+    private double[] g;
+    private double[][] jacobianF;
+    private double[][] jacobianG;
+
+    @Setup
+    public void setUp() throws Throwable {
+        file = new File(PROBLEMS_DIRECTORY, problemFile);
+        problem = readProblem();
+        int varCount = problem.getTotalVariablesCount();
+        int objCount = problem.getObjectivesCount();
+        int conCount = problem.getConstraintsCount();
+        x = new double[varCount];
+        f = new double[objCount];
+        g = new double[conCount];
+        jacobianF = new double[objCount][varCount];
+        jacobianG = new double[conCount][varCount];
+        // Draw more points than needed, because KKTPM cannot be calculated
+        // at some of them (singular systems, or NaN values as in zdt4)
+        ProblemSamples samples = new ProblemSamples(file, SEED);
+        double[][] candidates = new double[16 * SAMPLES_COUNT][];
+        for (int p = 0; p < candidates.length; p++) {
+            candidates[p] = samples.next();
+        }
+        z = getIdealPoint(problem, candidates);
+        points = getValidPoints(problem, candidates, z, SAMPLES_COUNT);
+        if (points.length == 0) {
+            throw new IllegalStateException(String.format(
+                    "KKTPM cannot be calculated at any sample of %s.",
+                    problemFile));
+        }
+        nextPoint = 0;
+    }
+
+    /**
+     * Runs the benchmarks on every problem file of the problems directory,
+     * unless the files are given on the command line (e.g. -p
+     * problemFile=zdt1.xml,zdt2.xml).
+     *
+     * @param args the JMH command line
+     * @throws Exception if thrown by the JMH runner
+     */
+    public static void main(String[] args) throws Exception {
+        Main.main(withProblemFiles(args, new File(PROBLEMS_DIRECTORY)));
+    }
+
+    /**
+     * @return the JMH command line, with the problem files of the directory
+     * appended if the command line does not give them
+     */
+    static String[] withProblemFiles(String[] args, File directory) throws
+            CommandLineOptionException,
+            IOException {
+        if (new CommandLineOptions(args).getParameter(
+                PROBLEM_FILE_PARAMETER).hasValue()) {
+            return args;
+        }
+        List<String> files = ProblemSamples.listProblemFiles(directory);
+        if (files.isEmpty()) {
+            throw new IOException(String.format(
+                    "No problems found in %s.", directory));
+        }
+        String[] result = Arrays.copyOf(args, args.length + 2);
+        result[args.length] = "-p";
+        result[args.length + 1] = PROBLEM_FILE_PARAMETER + "="
+                + String.join(",", files);
+        return result;
+    }
+
+    /**
+     * @return the ideal point of the objective values at the given points
+     * (ignoring NaN values), slightly lowered
+     */
+    static double[] getIdealPoint(
+            OptimizationProblem problem,
+            double[][] candidates) throws Throwable {
+        int varCount = problem.getTotalVariablesCount();
+        int objCount = problem.getObjectivesCount();
+        int conCount = problem.getConstraintsCount();
+        double[] f = new double[objCount];
+        double[] g = new double[conCount];
+        double[][] jacobianF = new double[objCount][varCount];
+        double[][] jacobianG = new double[conCount][varCount];
+        double[] z = new double[objCount];
+        Arrays.fill(z, Double.POSITIVE_INFINITY);
+        for (double[] candidate : candidates) {
+            problem.evaluateAll(candidate, f, g, jacobianF, jacobianG);
+            for (int i = 0; i < objCount; i++) {
+                // NaN values are ignored
+                if (f[i] < z[i]) {
+                    z[i] = f[i];
+                }
+            }
+        }
+        for (int i = 0; i < objCount; i++) {
+            z[i] -= 0.01;
+        }
+        return z;
+    }
+
+    /**
+     * @return the first points (at most count) at which KKTPM can be
+     * calculated (points where it is NaN or cannot be calculated are
+     * skipped)
+     */
+    static double[][] getValidPoints(
+            OptimizationProblem problem,
+            double[][] candidates,
+            double[] z,
+            int count) throws Throwable {
+        List<double[]> valid = new ArrayList<>();
+        for (int p = 0; p < candidates.length && valid.size() < count; p++) {
+            problem.setAllVariables(candidates[p]);
+            try {
+                if (!Double.isNaN(KKTPMCalculator.getKKTPM(problem, z, RHO).getKktpm())) {
+                    valid.add(candidates[p]);
+                }
+            } catch (RuntimeException ex) {
+                // Skip this point
+            }
+        }
+        return valid.toArray(new double[valid.size()][]);
+    }
+
+    @Benchmark
+    public KKTPM getKKTPM() throws Throwable {
+        setNextPoint();
+        return KKTPMCalculator.getKKTPM(problem, z, RHO);
+    }
+
+    @Benchmark
+    public LagrangeMultipliers getLagrangeMultipliers() throws Throwable {
+        setNextPoint();
+        return KKTPMCalculator.getLagrangeMultipliers(problem, z, RHO);
+    }
+
+    @Benchmark
+    public int extractProblemInfo() throws Throwable {
+        setNextPoint();
+        return KKTPMCalculator.extractProblemInfo(problem, x,
+                f.length, f, g.length, g, jacobianF, jacobianG);
+    }
+
+    @Benchmark
+    public OptimizationProblem readXML() throws Throwable {
+        return readProblem();
+    }
+
+    private OptimizationProblem readProblem() throws Throwable {
+        OptimizationProblem result = XMLParser.readXML(file);
+        if (problemFile.contains("_modified")) {
+            // The modified DTLZ4 problems leave these constants to the user
+            // (the values of the original DTLZ4)
+            result.setConstant("D", 1);
+            result.setConstant("alpha", 100);
+        }
+        return result;
+    }
+
+    private void setNextPoint() {
+        problem.setAllVariables(points[nextPoint]);
+        nextPoint = (nextPoint + 1) % points.length;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Draws random points of a problem within the limits given in its XML file:
+ * the min/max attributes of variables and the mins/maxs attributes of
+ * vectors. Variables and vectors elements without limits are drawn from
+ * [0, 1]. The points are ordered as in OptimizationProblem.setAllVariables(...)
+ * (variables first, followed by vectors elements).
+ */
+final class ProblemSamples {
+
+    private final List<double[]> limits;
+    private final Random random;
+
+    /**
+     * @param file the XML file of the problem
+     * @param seed the seed of the random numbers (the same seed always gives
+     * the same points)
+     * @throws IOException if the file cannot be read or parsed
+     * @throws IllegalArgumentException if the number of mins/maxs of a vector
+     * is not its size
+     */
+    ProblemSamples(File file, long seed) throws IOException {
+        this.limits = readLimits(file);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Lists the XML files of the problems found in a directory.
+     *
+     * @param directory the directory of the problems
+     * @return the names of the files (sorted)
+     * @throws IOException if the directory cannot be listed
+     */
+    static List<String> listProblemFiles(File directory) throws IOException {
+        String[] names = directory.list();
+        if (names == null) {
+            throw new IOException(String.format(
+                    "Cannot list the problems of %s.", directory));
+        }
+        Arrays.sort(names);
+        List<String> files = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(".xml")) {
+                files.add(name);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return a new random point
+     */
+    double[] next() {
+        double[] point = new double[limits.size()];
+        for (int i = 0; i < point.length; i++) {
+            double min = limits.get(i)[0];
+            double max = limits.get(i)[1];
+            point[i] = min + random.nextDouble() * (max - min);
+        }
+        return point;
+    }
+
+    /**
+     * @return the [min, max] of each element of the x-vector
+     */
+    private static List<double[]> readLimits(File file) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(file);
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException(String.format("Cannot parse %s.", file), ex);
+        }
+        List<double[]> limits = new ArrayList<>();
+        NodeList variables = document.getElementsByTagNameNS("*", "variable");
+        for (int i = 0; i < variables.getLength(); i++) {
+            Element variable = (Element) variables.item(i);
+            limits.add(new double[]{
+                getLimit(variable.getAttribute("min"), 0),
+                getLimit(variable.getAttribute("max"), 1)});
+        }
+        NodeList vectors = document.getElementsByTagNameNS("*", "vector");
+        for (int i = 0; i < vectors.getLength(); i++) {
+            Element vector = (Element) vectors.item(i);
+            int size = Integer.parseInt(vector.getAttribute("size").trim());
+            String name = vector.getTextContent().trim();
+            String[] mins = split(vector, name, "mins", size);
+            String[] maxs = split(vector, name, "maxs", size);
+            for (int j = 0; j < size; j++) {
+                limits.add(new double[]{
+                    getLimit(mins[j], 0),
+                    getLimit(maxs[j], 1)});
+            }
+        }
+        return limits;
+    }
+
+    private static String[] split(
+            Element vector,
+            String name,
+            String attribute,
+            int size) {
+        String values = vector.getAttribute(attribute);
+        if (values.trim().isEmpty()) {
+            return new String[size];
+        }
+        String[] limits = values.split(",", -1);
+        if (limits.length != size) {
+            throw new IllegalArgumentException(String.format(
+                    "Vector (%s) of size %d has %d %s.",
+                    name, size, limits.length, attribute));
+        }
+        return limits;
+    }
+
+    private static double getLimit(String value, double defaultValue) {
+        return value == null || value.trim().isEmpty()
+                ? defaultValue : Double.parseDouble(value.trim());
+    }
+}
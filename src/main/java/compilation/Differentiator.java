@@ -0,0 +1,374 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differentiates expressions symbolically. The derivative is simplified while
+ * it is being built: constants are folded, and terms multiplied by zero (or
+ * added to zero, multiplied by one, raised to the power of one...) are
+ * removed. Consequently, the derivative with respect to a variable that does
+ * not appear in the expression is the constant zero.
+ * <p>
+ * Note that multiplying by zero is simplified to zero even if the other
+ * factor may evaluate to an infinity or NaN. Where abs, floor and ceil are
+ * not differentiable, their derivatives follow the same convention as
+ * automatic differentiation (see {@link Program#evaluateGradient}): the
+ * derivative of abs is the sign of its operand (zero at zero), and the
+ * derivatives of floor and ceil are zero everywhere. The
+ * derivatives of min and max cannot be written as formulas, so an
+ * IllegalArgumentException is thrown if the differentiated variable appears
+ * in their operands.
+ */
+public final class Differentiator {
+
+    private Differentiator() {
+    }
+
+    /**
+     * Differentiates an expression with respect to a variable.
+     *
+     * @param expression the expression to be differentiated
+     * @param input the index of the input array holding the variable (see
+     * {@link VariablesLayout})
+     * @param offset the index of the variable within its input array
+     * @return the simplified derivative
+     * @throws IllegalArgumentException if the expression cannot be
+     * differentiated symbolically
+     */
+    public static Expression differentiate(
+            Expression expression,
+            int input,
+            int offset) {
+        // The derivatives of the operands are calculated first (not
+        // recursively, because unrolled summations result in very deep trees)
+        Map<Expression, Expression> derivatives = new IdentityHashMap<>();
+        for (Expression node : postOrder(expression)) {
+            Expression left = node.getLeft() == null
+                    ? null : derivatives.get(node.getLeft());
+            Expression right = node.getRight() == null
+                    ? null : derivatives.get(node.getRight());
+            derivatives.put(node, derive(node, left, right, input, offset));
+        }
+        return derivatives.get(expression);
+    }
+
+    /**
+     * Simplifies an expression the same way derivatives are simplified while
+     * they are being built (constants are folded, terms multiplied by zero are
+     * removed...). In particular, an expression that is zero whatever the
+     * values of its variables (like <code>0 * x</code>) is simplified to the
+     * constant zero.
+     *
+     * @param expression the expression to be simplified
+     * @return the simplified expression
+     */
+    public static Expression simplify(Expression expression) {
+        Map<Expression, Expression> simplified = new IdentityHashMap<>();
+        for (Expression node : postOrder(expression)) {
+            Expression left = node.getLeft() == null
+                    ? null : simplified.get(node.getLeft());
+            Expression right = node.getRight() == null
+                    ? null : simplified.get(node.getRight());
+            simplified.put(node, rebuild(node, left, right));
+        }
+        return simplified.get(expression);
+    }
+
+    private static List<Expression> postOrder(Expression expression) {
+        List<Expression> order = new ArrayList<>();
+        Map<Expression, Boolean> visited = new IdentityHashMap<>();
+        Deque<Expression> nodes = new ArrayDeque<>();
+        nodes.push(expression);
+        while (!nodes.isEmpty()) {
+            Expression node = nodes.peek();
+            Boolean operandsDone = visited.get(node);
+            if (operandsDone == null) {
+                visited.put(node, false);
+                if (node.getRight() != null) {
+                    nodes.push(node.getRight());
+                }
+                if (node.getLeft() != null) {
+                    nodes.push(node.getLeft());
+                }
+            } else {
+                nodes.pop();
+                if (!operandsDone) {
+                    visited.put(node, true);
+                    order.add(node);
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Differentiates a single node given the derivatives of its operands.
+     */
+    private static Expression derive(
+            Expression node,
+            Expression da,
+            Expression db,
+            int input,
+            int offset) {
+        Expression a = node.getLeft();
+        Expression b = node.getRight();
+        switch (node.getOperation()) {
+            case CONSTANT:
+            case PARAMETER:
+                return constant(0);
+            case VARIABLE:
+                return constant(node.getInput() == input
+                        && node.getOffset() == offset ? 1 : 0);
+            case NEGATE:
+                return negate(da);
+            case ADD:
+                return add(da, db);
+            case SUBTRACT:
+                return subtract(da, db);
+            case MULTIPLY:
+                return add(multiply(da, b), multiply(a, db));
+            case DIVIDE:
+                return subtract(divide(da, b),
+                        divide(multiply(a, db), power(b, constant(2))));
+            case POWER:
+                if (isZero(db)) {
+                    return multiply(multiply(b,
+                            power(a, subtract(b, constant(1)))), da);
+                }
+                if (isZero(da)) {
+                    return multiply(multiply(node, function(Operation.LOG, a)), db);
+                }
+                return multiply(node, add(
+                        multiply(db, function(Operation.LOG, a)),
+                        divide(multiply(b, da), a)));
+            case SIN:
+                return multiply(function(Operation.COS, a), da);
+            case COS:
+                return negate(multiply(function(Operation.SIN, a), da));
+            case TAN:
+                return divide(da,
+                        power(function(Operation.COS, a), constant(2)));
+            case ASIN:
+                return divide(da, function(Operation.SQRT,
+                        subtract(constant(1), power(a, constant(2)))));
+            case ACOS:
+                return negate(divide(da, function(Operation.SQRT,
+                        subtract(constant(1), power(a, constant(2))))));
+            case ATAN:
+                return divide(da, add(constant(1), power(a, constant(2))));
+            case SINH:
+                return multiply(function(Operation.COSH, a), da);
+            case COSH:
+                return multiply(function(Operation.SINH, a), da);
+            case TANH:
+                return multiply(subtract(constant(1),
+                        power(node, constant(2))), da);
+            case SQRT:
+                return divide(da, multiply(constant(2), node));
+            case ABS:
+                return multiply(signum(a), da);
+            case FLOOR:
+            case CEIL:
+                // Piecewise constant
+                return constant(0);
+            case EXP:
+                return multiply(node, da);
+            case LOG:
+                return divide(da, a);
+            case LOG10:
+                return divide(da, multiply(a, constant(Math.log(10))));
+            case MIN:
+            case MAX:
+                if (isZero(da) && isZero(db)) {
+                    return constant(0);
+                }
+                throw new IllegalArgumentException(String.format(
+                        "%s cannot be differentiated symbolically.",
+                        node.getOperation().getFunctionName()));
+            default:
+                throw new IllegalStateException(
+                        "Unexpected operation: " + node.getOperation());
+        }
+    }
+
+    /**
+     * Rebuilds a single node given its simplified operands.
+     */
+    private static Expression rebuild(
+            Expression node,
+            Expression a,
+            Expression b) {
+        switch (node.getOperation()) {
+            case CONSTANT:
+            case VARIABLE:
+            case PARAMETER:
+                return node;
+            case NEGATE:
+                return negate(a);
+            case ADD:
+                return add(a, b);
+            case SUBTRACT:
+                return subtract(a, b);
+            case MULTIPLY:
+                return multiply(a, b);
+            case DIVIDE:
+                return divide(a, b);
+            case POWER:
+                return power(a, b);
+            default:
+                if (b == null) {
+                    return function(node.getOperation(), a);
+                }
+                if (a.isConstant() && b.isConstant()) {
+                    return fold(node.getOperation(), a, b);
+                }
+                return Expression.binary(node.getOperation(), a, b);
+        }
+    }
+
+    /**
+     * The sign of an expression, written with the functions of the formulas:
+     * ceil(c) + floor(c), where c is the expression clamped to [-0.5, 0.5],
+     * is 1, -1 or 0 (NaN for NaN), like {@link Math#signum}.
+     */
+    private static Expression signum(Expression a) {
+        if (a.isConstant()) {
+            return constant(Math.signum(a.getValue()));
+        }
+        Expression clamped = Expression.binary(Operation.MIN,
+                Expression.binary(Operation.MAX, a, constant(-0.5)),
+                constant(0.5));
+        return Expression.binary(Operation.ADD,
+                Expression.unary(Operation.CEIL, clamped),
+                Expression.unary(Operation.FLOOR, clamped));
+    }
+
+    private static Expression constant(double value) {
+        return Expression.constant(value);
+    }
+
+    private static boolean isZero(Expression expression) {
+        return expression.isConstant() && expression.getValue() == 0;
+    }
+
+    private static boolean isOne(Expression expression) {
+        return expression.isConstant() && expression.getValue() == 1;
+    }
+
+    private static Expression fold(
+            Operation operation,
+            Expression a,
+            Expression b) {
+        return constant(Operation.apply(operation, a.getValue(), b.getValue()));
+    }
+
+    private static Expression negate(Expression a) {
+        if (a.isConstant()) {
+            return constant(a.getValue() == 0 ? 0 : -a.getValue());
+        }
+        if (a.getOperation() == Operation.NEGATE) {
+            return a.getLeft();
+        }
+        return Expression.unary(Operation.NEGATE, a);
+    }
+
+    private static Expression add(Expression a, Expression b) {
+        if (isZero(a)) {
+            return b;
+        }
+        if (isZero(b)) {
+            return a;
+        }
+        if (a.isConstant() && b.isConstant()) {
+            return fold(Operation.ADD, a, b);
+        }
+        return Expression.binary(Operation.ADD, a, b);
+    }
+
+    private static Expression subtract(Expression a, Expression b) {
+        if (isZero(b)) {
+            return a;
+        }
+        if (isZero(a)) {
+            return negate(b);
+        }
+        if (a.isConstant() && b.isConstant()) {
+            return fold(Operation.SUBTRACT, a, b);
+        }
+        return Expression.binary(Operation.SUBTRACT, a, b);
+    }
+
+    private static Expression multiply(Expression a, Expression b) {
+        if (isZero(a) || isZero(b)) {
+            return constant(0);
+        }
+        if (isOne(a)) {
+            return b;
+        }
+        if (isOne(b)) {
+            return a;
+        }
+        if (a.isConstant() && b.isConstant()) {
+            return fold(Operation.MULTIPLY, a, b);
+        }
+        if (a.isConstant() && a.getValue() == -1) {
+            return negate(b);
+        }
+        if (b.isConstant() && b.getValue() == -1) {
+            return negate(a);
+        }
+        if (b.isConstant()) {
+            // Constant factors first
+            return multiply(b, a);
+        }
+        if (a.isConstant() && b.getOperation() == Operation.MULTIPLY
+                && b.getLeft().isConstant()) {
+            // c * (d * e) = (c * d) * e
+            return multiply(fold(Operation.MULTIPLY, a, b.getLeft()), b.getRight());
+        }
+        return Expression.binary(Operation.MULTIPLY, a, b);
+    }
+
+    private static Expression divide(Expression a, Expression b) {
+        if (isZero(a)) {
+            return constant(0);
+        }
+        if (isOne(b)) {
+            return a;
+        }
+        if (a.isConstant() && b.isConstant()) {
+            return fold(Operation.DIVIDE, a, b);
+        }
+        return Expression.binary(Operation.DIVIDE, a, b);
+    }
+
+    private static Expression power(Expression a, Expression b) {
+        if (isZero(b)) {
+            return constant(1);
+        }
+        if (isOne(b)) {
+            return a;
+        }
+        if (a.isConstant() && b.isConstant()) {
+            return fold(Operation.POWER, a, b);
+        }
+        return Expression.binary(Operation.POWER, a, b);
+    }
+
+    private static Expression function(Operation function, Expression a) {
+        if (a.isConstant()) {
+            return constant(Operation.apply(function, a.getValue(), 0));
+        }
+        return Expression.unary(function, a);
+    }
+}
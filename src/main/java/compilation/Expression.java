@@ -0,0 +1,166 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+/**
+ * An immutable node of a parsed mathematical expression. Unlike the parse
+ * trees of tx2ex, these nodes do not refer to any variables manager. Variables
+ * are identified by their position in the inputs of the evaluation (see
+ * {@link VariablesLayout}) and named constants by their slot in a
+ * {@link ParametersTable}.
+ */
+public final class Expression {
+
+    private final Operation operation;
+    private final Expression left;
+    private final Expression right;
+    private final double value;
+    private final String name;
+    private final int input;
+    private final int offset;
+
+    private Expression(
+            Operation operation,
+            Expression left,
+            Expression right,
+            double value,
+            String name,
+            int input,
+            int offset) {
+        this.operation = operation;
+        this.left = left;
+        this.right = right;
+        this.value = value;
+        this.name = name;
+        this.input = input;
+        this.offset = offset;
+    }
+
+    /**
+     * Creates a constant.
+     *
+     * @param value the value of the constant
+     * @return a new constant node
+     */
+    public static Expression constant(double value) {
+        return new Expression(
+                Operation.CONSTANT, null, null, value, null, -1, -1);
+    }
+
+    /**
+     * Creates a reference to a variable or to an element of a vector.
+     *
+     * @param name the name of the variable (e.g. x1 or x[3])
+     * @param input the index of the input array holding the variable
+     * @param offset the index of the variable within its input array
+     * @return a new variable node
+     */
+    public static Expression variable(String name, int input, int offset) {
+        return new Expression(
+                Operation.VARIABLE, null, null, 0, name, input, offset);
+    }
+
+    /**
+     * Creates a reference to a named constant.
+     *
+     * @param name the name of the constant
+     * @param slot the slot of the constant in its parameters table
+     * @return a new parameter node
+     */
+    public static Expression parameter(String name, int slot) {
+        return new Expression(
+                Operation.PARAMETER, null, null, 0, name, slot, -1);
+    }
+
+    /**
+     * Creates a unary operation (negation or a one-argument function).
+     *
+     * @param operation the operation
+     * @param operand the operand
+     * @return a new operation node
+     */
+    public static Expression unary(Operation operation, Expression operand) {
+        if (operation.getArity() != 1) {
+            throw new IllegalArgumentException(String.format(
+                    "%s is not a unary operation.", operation));
+        }
+        return new Expression(operation, operand, null, 0, null, -1, -1);
+    }
+
+    /**
+     * Creates a binary operation.
+     *
+     * @param operation the operation
+     * @param left the first operand
+     * @param right the second operand
+     * @return a new operation node
+     */
+    public static Expression binary(
+            Operation operation, Expression left, Expression right) {
+        if (operation.getArity() != 2) {
+            throw new IllegalArgumentException(String.format(
+                    "%s is not a binary operation.", operation));
+        }
+        return new Expression(operation, left, right, 0, null, -1, -1);
+    }
+
+    /**
+     * @return the operation of this node
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the first operand (null for leaves)
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
+    /**
+     * @return the second operand (null for leaves and unary operations)
+     */
+    public Expression getRight() {
+        return right;
+    }
+
+    /**
+     * @return the value of a constant
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return the name of a variable or a parameter
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the index of the input array of a variable, or the slot of a
+     * parameter
+     */
+    public int getInput() {
+        return input;
+    }
+
+    /**
+     * @return the index of a variable within its input array
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return true if this node is a constant
+     */
+    public boolean isConstant() {
+        return operation == Operation.CONSTANT;
+    }
+}
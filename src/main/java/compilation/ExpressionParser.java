@@ -0,0 +1,365 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses the mathematical formulas of a problem (written in tx2ex syntax) into
+ * {@link Expression} trees. The parser understands the four basic operations,
+ * powers (^), unary minus, parentheses, numbers, variables, vectors elements
+ * (e.g. x[3]), the usual one and two-argument functions (see
+ * {@link Operation}) and summations/products
+ * (sum{index,from,to[,step],body} and prod{...}). Summations and products are
+ * unrolled at parse time, so their bounds must be constant. Any other
+ * identifier is considered a named constant and is given a slot in the
+ * parameters table.
+ * <p>
+ * Formulas whose meaning depends on precedence rules tx2ex may not share are
+ * rejected: a unary minus applied to a power (-x^2, which is -(x^2) here) and
+ * chained powers (a^b^c, which is a^(b^c) here) must be written using
+ * parentheses to be compiled.
+ * <p>
+ * Expressions made only of constants are folded while parsing. An
+ * IllegalArgumentException is thrown if the formula contains anything the
+ * parser does not understand, in which case the caller should keep evaluating
+ * the formula using its tx2ex parse tree.
+ */
+public final class ExpressionParser {
+
+    // The maximum number of terms a single summation/product can be unrolled to
+    private static final int MAX_UNROLLED_TERMS = 100000;
+
+    private final VariablesLayout layout;
+    private final ParametersTable parameters;
+    private final Map<String, Double> indices;
+    private String text;
+    private int position;
+    // The position right after the last power parsed within the operand of
+    // the current unary minus or power (-1 if none)
+    private int powerEnd;
+
+    /**
+     * Creates a new parser.
+     *
+     * @param layout the layout of the variables of the problem
+     * @param parameters the table in which named constants are registered
+     */
+    public ExpressionParser(VariablesLayout layout, ParametersTable parameters) {
+        this.layout = layout;
+        this.parameters = parameters;
+        this.indices = new HashMap<>();
+    }
+
+    /**
+     * Parses a mathematical formula.
+     *
+     * @param formula the formula to be parsed
+     * @return the parsed expression
+     * @throws IllegalArgumentException if the formula cannot be parsed
+     */
+    public Expression parse(String formula) {
+        text = formula;
+        position = 0;
+        indices.clear();
+        Expression expression = parseSum();
+        skipWhitespace();
+        if (position != text.length()) {
+            throw error("Unexpected character '" + text.charAt(position) + "'");
+        }
+        return expression;
+    }
+
+    private Expression parseSum() {
+        Expression result = parseProduct();
+        while (true) {
+            if (accept('+')) {
+                result = fold(Operation.ADD, result, parseProduct());
+            } else if (accept('-')) {
+                result = fold(Operation.SUBTRACT, result, parseProduct());
+            } else {
+                return result;
+            }
+        }
+    }
+
+    private Expression parseProduct() {
+        Expression result = parseUnary();
+        while (true) {
+            if (accept('*')) {
+                result = fold(Operation.MULTIPLY, result, parseUnary());
+            } else if (accept('/')) {
+                result = fold(Operation.DIVIDE, result, parseUnary());
+            } else {
+                return result;
+            }
+        }
+    }
+
+    private Expression parseUnary() {
+        if (accept('-')) {
+            powerEnd = -1;
+            Expression operand = parseUnary();
+            if (powerEnd == position) {
+                throw error("Ambiguous unary minus of a power");
+            }
+            return fold(Operation.NEGATE, operand, null);
+        }
+        if (accept('+')) {
+            return parseUnary();
+        }
+        return parsePower();
+    }
+
+    private Expression parsePower() {
+        Expression base = parsePrimary();
+        if (accept('^')) {
+            powerEnd = -1;
+            Expression exponent = parseUnary();
+            if (powerEnd == position) {
+                throw error("Ambiguous chained powers");
+            }
+            powerEnd = position;
+            return fold(Operation.POWER, base, exponent);
+        }
+        return base;
+    }
+
+    private Expression parsePrimary() {
+        skipWhitespace();
+        if (position == text.length()) {
+            throw error("Unexpected end of formula");
+        }
+        char c = text.charAt(position);
+        if (c == '(') {
+            position++;
+            Expression expression = parseSum();
+            expect(')');
+            return expression;
+        }
+        if (Character.isDigit(c) || c == '.') {
+            return Expression.constant(readNumber());
+        }
+        if (Character.isLetter(c) || c == '_') {
+            String name = readIdentifier();
+            if (accept('(')) {
+                return parseFunction(name);
+            }
+            if (accept('[')) {
+                return parseVectorElement(name);
+            }
+            if (accept('{')) {
+                if (name.equals("sum")) {
+                    return parseSummation(false);
+                }
+                if (name.equals("prod")) {
+                    return parseSummation(true);
+                }
+                throw error("Unknown operator " + name);
+            }
+            return resolve(name);
+        }
+        throw error("Unexpected character '" + c + "'");
+    }
+
+    private Expression parseFunction(String name) {
+        Operation function = Operation.getFunction(name);
+        if (function == null) {
+            throw error("Unknown function " + name);
+        }
+        Expression first = parseSum();
+        Expression second = null;
+        if (function.getArity() == 2) {
+            expect(',');
+            second = parseSum();
+        }
+        expect(')');
+        return fold(function, first, second);
+    }
+
+    private Expression parseVectorElement(String name) {
+        int input = layout.getVectorInput(name);
+        if (input == -1) {
+            throw error("Unknown vector " + name);
+        }
+        int index = toInteger(parseSum(), "vector index");
+        expect(']');
+        if (index < 1 || index > layout.getInputLength(input)) {
+            throw error(String.format("Index %d is out of the bounds of %s",
+                    index, name));
+        }
+        return Expression.variable(
+                String.format("%s[%d]", name, index), input, index - 1);
+    }
+
+    private Expression parseSummation(boolean product) {
+        skipWhitespace();
+        String index = readIdentifier();
+        expect(',');
+        double from = toConstant(parseSum(), "lower bound");
+        expect(',');
+        double to = toConstant(parseSum(), "upper bound");
+        expect(',');
+        Double outerValue = indices.put(index, from);
+        // The fourth argument is either the step or the body
+        int bodyStart = position;
+        Expression fourth = parseSum();
+        double step = 1;
+        if (accept(',')) {
+            step = toConstant(fourth, "step");
+            bodyStart = position;
+        }
+        if (step == 0 || Math.abs((to - from) / step) > MAX_UNROLLED_TERMS) {
+            throw error("Cannot unroll " + (product ? "prod" : "sum"));
+        }
+        Operation operation = product ? Operation.MULTIPLY : Operation.ADD;
+        Expression result = null;
+        for (double value = from;
+                step > 0 ? value <= to : value >= to;
+                value += step) {
+            indices.put(index, value);
+            position = bodyStart;
+            Expression term = parseSum();
+            result = result == null ? term : fold(operation, result, term);
+        }
+        if (result == null) {
+            // Empty range (the body is parsed only to skip it)
+            indices.put(index, from);
+            position = bodyStart;
+            parseSum();
+            result = Expression.constant(product ? 1 : 0);
+        }
+        expect('}');
+        if (outerValue == null) {
+            indices.remove(index);
+        } else {
+            indices.put(index, outerValue);
+        }
+        return result;
+    }
+
+    private Expression resolve(String name) {
+        Double indexValue = indices.get(name);
+        if (indexValue != null) {
+            return Expression.constant(indexValue);
+        }
+        int variableIndex = layout.getVariableIndex(name);
+        if (variableIndex != -1) {
+            return Expression.variable(name, 0, variableIndex);
+        }
+        if (layout.getVectorInput(name) != -1) {
+            throw error("Vector " + name + " used without an index");
+        }
+        return Expression.parameter(name, parameters.getSlot(name));
+    }
+
+    private static Expression fold(
+            Operation operation,
+            Expression left,
+            Expression right) {
+        if (right == null) {
+            if (left.isConstant()) {
+                return Expression.constant(Operation.apply(
+                        operation, left.getValue(), 0));
+            }
+            return Expression.unary(operation, left);
+        }
+        if (left.isConstant() && right.isConstant()) {
+            return Expression.constant(Operation.apply(
+                    operation, left.getValue(), right.getValue()));
+        }
+        return Expression.binary(operation, left, right);
+    }
+
+    private double toConstant(Expression expression, String what) {
+        if (!expression.isConstant()) {
+            throw error("The " + what + " must be constant");
+        }
+        return expression.getValue();
+    }
+
+    private int toInteger(Expression expression, String what) {
+        double value = toConstant(expression, what);
+        if (value != Math.rint(value)) {
+            throw error("The " + what + " must be an integer");
+        }
+        return (int) value;
+    }
+
+    private double readNumber() {
+        int start = position;
+        while (position < text.length()
+                && (Character.isDigit(text.charAt(position))
+                || text.charAt(position) == '.')) {
+            position++;
+        }
+        // Optional exponent (only if followed by digits)
+        if (position < text.length()
+                && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+            int exponentStart = position + 1;
+            if (exponentStart < text.length()
+                    && (text.charAt(exponentStart) == '+'
+                    || text.charAt(exponentStart) == '-')) {
+                exponentStart++;
+            }
+            if (exponentStart < text.length()
+                    && Character.isDigit(text.charAt(exponentStart))) {
+                position = exponentStart;
+                while (position < text.length()
+                        && Character.isDigit(text.charAt(position))) {
+                    position++;
+                }
+            }
+        }
+        try {
+            return Double.parseDouble(text.substring(start, position));
+        } catch (NumberFormatException ex) {
+            throw error("Malformed number " + text.substring(start, position));
+        }
+    }
+
+    private String readIdentifier() {
+        int start = position;
+        while (position < text.length()
+                && (Character.isLetterOrDigit(text.charAt(position))
+                || text.charAt(position) == '_')) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Identifier expected");
+        }
+        return text.substring(start, position);
+    }
+
+    private boolean accept(char c) {
+        skipWhitespace();
+        if (position < text.length() && text.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!accept(c)) {
+            throw error("'" + c + "' expected");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length()
+                && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String reason) {
+        return new IllegalArgumentException(String.format(
+                "Cannot compile (%s): %s at position %d.",
+                text, reason, position));
+    }
+}
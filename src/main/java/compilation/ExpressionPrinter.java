@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes expressions back as mathematical formulas (in tx2ex syntax). Every
+ * operation is enclosed in parentheses, so the formula does not depend on the
+ * precedence rules of the parser reading it, and numbers are written without
+ * exponents.
+ */
+public final class ExpressionPrinter {
+
+    private ExpressionPrinter() {
+    }
+
+    /**
+     * Writes an expression as a mathematical formula.
+     *
+     * @param expression the expression to be written
+     * @return the formula
+     * @throws IllegalArgumentException if the expression contains infinite
+     * or NaN constants
+     */
+    public static String print(Expression expression) {
+        StringBuilder formula = new StringBuilder();
+        // Either expressions still to be written or pieces of text (not
+        // recursive, because unrolled summations result in very deep trees)
+        Deque<Object> items = new ArrayDeque<>();
+        items.push(expression);
+        while (!items.isEmpty()) {
+            Object item = items.pop();
+            if (item instanceof String) {
+                formula.append((String) item);
+                continue;
+            }
+            Expression node = (Expression) item;
+            Operation operation = node.getOperation();
+            switch (operation) {
+                case CONSTANT:
+                    formula.append(toString(node.getValue()));
+                    break;
+                case VARIABLE:
+                case PARAMETER:
+                    formula.append(node.getName());
+                    break;
+                case NEGATE:
+                    formula.append("(-(");
+                    items.push("))");
+                    items.push(node.getLeft());
+                    break;
+                case ADD:
+                case SUBTRACT:
+                case MULTIPLY:
+                case DIVIDE:
+                case POWER:
+                    formula.append('(');
+                    items.push(")");
+                    items.push(node.getRight());
+                    items.push(" " + getSymbol(operation) + " ");
+                    items.push(node.getLeft());
+                    break;
+                default:
+                    formula.append(operation.getFunctionName()).append('(');
+                    items.push(")");
+                    if (node.getRight() != null) {
+                        items.push(node.getRight());
+                        items.push(", ");
+                    }
+                    items.push(node.getLeft());
+            }
+        }
+        return formula.toString();
+    }
+
+    private static String toString(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException(String.format(
+                    "%f cannot be written as a number.", value));
+        }
+        if (value == 0) {
+            return "0";
+        }
+        String text = BigDecimal.valueOf(Math.abs(value))
+                .stripTrailingZeros().toPlainString();
+        return value < 0 ? "(-" + text + ")" : text;
+    }
+
+    private static char getSymbol(Operation operation) {
+        switch (operation) {
+            case ADD:
+                return '+';
+            case SUBTRACT:
+                return '-';
+            case MULTIPLY:
+                return '*';
+            case DIVIDE:
+                return '/';
+            default:
+                return '^';
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+/**
+ * The operations a compiled expression is made of. Leaf operations
+ * (constants, variables and parameters) take no operands, all the others take
+ * either one or two operands.
+ * <p>
+ * Programs store the operations as integer codes (see {@link Code}), which
+ * are checked against the order of the constants when this class is loaded.
+ */
+public enum Operation {
+
+    CONSTANT(Code.CONSTANT, 0, null),
+    VARIABLE(Code.VARIABLE, 0, null),
+    PARAMETER(Code.PARAMETER, 0, null),
+    NEGATE(Code.NEGATE, 1, null),
+    ADD(Code.ADD, 2, null),
+    SUBTRACT(Code.SUBTRACT, 2, null),
+    MULTIPLY(Code.MULTIPLY, 2, null),
+    DIVIDE(Code.DIVIDE, 2, null),
+    POWER(Code.POWER, 2, null),
+    SIN(Code.SIN, 1, "sin"),
+    COS(Code.COS, 1, "cos"),
+    TAN(Code.TAN, 1, "tan"),
+    ASIN(Code.ASIN, 1, "asin"),
+    ACOS(Code.ACOS, 1, "acos"),
+    ATAN(Code.ATAN, 1, "atan"),
+    SINH(Code.SINH, 1, "sinh"),
+    COSH(Code.COSH, 1, "cosh"),
+    TANH(Code.TANH, 1, "tanh"),
+    SQRT(Code.SQRT, 1, "sqrt"),
+    ABS(Code.ABS, 1, "abs"),
+    FLOOR(Code.FLOOR, 1, "floor"),
+    CEIL(Code.CEIL, 1, "ceil"),
+    EXP(Code.EXP, 1, "exp"),
+    LOG(Code.LOG, 1, "ln"),
+    LOG10(Code.LOG10, 1, "log10"),
+    MIN(Code.MIN, 2, "min"),
+    MAX(Code.MAX, 2, "max");
+
+    private static final Operation[] VALUES = values();
+
+    private final int code;
+    private final int arity;
+    private final String functionName;
+
+    Operation(int code, int arity, String functionName) {
+        if (code != ordinal()) {
+            throw new IllegalStateException(String.format(
+                    "The code of %s (%d) does not match its position (%d).",
+                    name(), code, ordinal()));
+        }
+        this.code = code;
+        this.arity = arity;
+        this.functionName = functionName;
+    }
+
+    /**
+     * The integer codes of the operations, as stored by compiled programs.
+     */
+    static final class Code {
+
+        static final int CONSTANT = 0;
+        static final int VARIABLE = 1;
+        static final int PARAMETER = 2;
+        static final int NEGATE = 3;
+        static final int ADD = 4;
+        static final int SUBTRACT = 5;
+        static final int MULTIPLY = 6;
+        static final int DIVIDE = 7;
+        static final int POWER = 8;
+        static final int SIN = 9;
+        static final int COS = 10;
+        static final int TAN = 11;
+        static final int ASIN = 12;
+        static final int ACOS = 13;
+        static final int ATAN = 14;
+        static final int SINH = 15;
+        static final int COSH = 16;
+        static final int TANH = 17;
+        static final int SQRT = 18;
+        static final int ABS = 19;
+        static final int FLOOR = 20;
+        static final int CEIL = 21;
+        static final int EXP = 22;
+        static final int LOG = 23;
+        static final int LOG10 = 24;
+        static final int MIN = 25;
+        static final int MAX = 26;
+
+        private Code() {
+        }
+    }
+
+    /**
+     * @return the code of this operation (see {@link Code})
+     */
+    int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the number of operands of this operation
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return the name used to call this operation in a mathematical formula
+     * (null if this operation is not a function)
+     */
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    /**
+     * Gets the function having the specified name.
+     *
+     * @param name function name as written in a mathematical formula
+     * @return the function or null if no function has this name
+     */
+    public static Operation getFunction(String name) {
+        if (name.equals("log")) {
+            // Natural logarithm (same as ln)
+            return LOG;
+        }
+        for (Operation operation : VALUES) {
+            if (name.equals(operation.functionName)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+
+    static Operation get(int code) {
+        return VALUES[code];
+    }
+
+    /**
+     * Applies a unary or a binary operation to its operands.
+     *
+     * @param operation the operation
+     * @param a first operand
+     * @param b second operand (ignored by unary operations)
+     * @return the result of the operation
+     */
+    static double apply(Operation operation, double a, double b) {
+        return apply(operation.code, a, b);
+    }
+
+    /**
+     * Applies a unary or a binary operation to its operands.
+     *
+     * @param code the code of the operation (see {@link Code})
+     * @param a first operand
+     * @param b second operand (ignored by unary operations)
+     * @return the result of the operation
+     */
+    static double apply(int code, double a, double b) {
+        switch (code) {
+            case Code.NEGATE:
+                return -a;
+            case Code.ADD:
+                return a + b;
+            case Code.SUBTRACT:
+                return a - b;
+            case Code.MULTIPLY:
+                return a * b;
+            case Code.DIVIDE:
+                return a / b;
+            case Code.POWER:
+                return Math.pow(a, b);
+            case Code.SIN:
+                return Math.sin(a);
+            case Code.COS:
+                return Math.cos(a);
+            case Code.TAN:
+                return Math.tan(a);
+            case Code.ASIN:
+                return Math.asin(a);
+            case Code.ACOS:
+                return Math.acos(a);
+            case Code.ATAN:
+                return Math.atan(a);
+            case Code.SINH:
+                return Math.sinh(a);
+            case Code.COSH:
+                return Math.cosh(a);
+            case Code.TANH:
+                return Math.tanh(a);
+            case Code.SQRT:
+                return Math.sqrt(a);
+            case Code.ABS:
+                return Math.abs(a);
+            case Code.FLOOR:
+                return Math.floor(a);
+            case Code.CEIL:
+                return Math.ceil(a);
+            case Code.EXP:
+                return Math.exp(a);
+            case Code.LOG:
+                return Math.log(a);
+            case Code.LOG10:
+                return Math.log10(a);
+            case Code.MIN:
+                return Math.min(a, b);
+            case Code.MAX:
+                return Math.max(a, b);
+            default:
+                throw new IllegalArgumentException(
+                        "Not an unary or binary operation: " + get(code));
+        }
+    }
+}
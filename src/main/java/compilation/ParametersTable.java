@@ -0,0 +1,79 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The named constants (e.g. pi) referred to by compiled programs. Each name is
+ * given a slot the first time it is encountered. Programs only refer to the
+ * slots, so changing the value of a constant does not require recompiling the
+ * programs using it.
+ */
+public final class ParametersTable {
+
+    private final List<String> names;
+    private double[] values;
+
+    public ParametersTable() {
+        names = new ArrayList<>();
+        values = new double[0];
+    }
+
+    /**
+     * Gets the slot of a named constant. If the name is not in the table, a
+     * new slot is created for it and initialized to NaN.
+     *
+     * @param name the name of the constant
+     * @return the slot of the constant
+     */
+    public int getSlot(String name) {
+        int slot = names.indexOf(name);
+        if (slot == -1) {
+            slot = names.size();
+            names.add(name);
+            values = Arrays.copyOf(values, names.size());
+            values[slot] = Double.NaN;
+        }
+        return slot;
+    }
+
+    /**
+     * @param slot the slot of a constant
+     * @return the name of the constant
+     */
+    public String getName(int slot) {
+        return names.get(slot);
+    }
+
+    /**
+     * @param slot the slot of a constant
+     * @param value the new value of the constant
+     */
+    public void setValue(int slot, double value) {
+        values[slot] = value;
+    }
+
+    /**
+     * Gets the values of all the constants, indexed by their slots. Notice that
+     * the returned array is replaced (not resized) whenever a new name is
+     * added to the table.
+     *
+     * @return the values of all the constants
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the number of constants in the table
+     */
+    public int size() {
+        return names.size();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.util.Arrays;
+
+/**
+ * A compiled mathematical expression. A program is a flat list of
+ * instructions, where instruction (i) reads its operands from registers that
+ * were written by previous instructions and writes its result to register (i).
+ * The result of the whole expression is the content of the last register
+ * (programs built out of several expressions are read through the registers
+ * returned by {@link ProgramBuilder#add(Expression)}).
+ * <p>
+ * Programs are immutable. The registers are supplied by the caller, so a
+ * program can be evaluated any number of times without allocating anything,
+ * and by several threads at the same time (each having its own registers).
+ */
+public final class Program {
+
+    private final int[] operations;
+    private final int[] first;
+    private final int[] second;
+    private final double[] constants;
+
+    Program(
+            int[] operations,
+            int[] first,
+            int[] second,
+            double[] constants) {
+        this.operations = operations;
+        this.first = first;
+        this.second = second;
+        this.constants = constants;
+    }
+
+    /**
+     * Compiles an expression. Identical subexpressions are evaluated only
+     * once (see {@link ProgramBuilder}).
+     *
+     * @param expression the expression to be compiled
+     * @return the program evaluating the expression
+     */
+    public static Program compile(Expression expression) {
+        ProgramBuilder builder = new ProgramBuilder();
+        builder.add(expression);
+        return builder.build();
+    }
+
+    /**
+     * Evaluates the program.
+     *
+     * @param inputs the values of the variables (see {@link VariablesLayout})
+     * @param parameters the values of the named constants (see
+     * {@link ParametersTable})
+     * @param registers a working array of at least {@link #size()} elements
+     * @return the content of the last register (NaN for an empty program)
+     */
+    public double evaluate(
+            double[][] inputs,
+            double[] parameters,
+            double[] registers) {
+        for (int i = 0; i < operations.length; i++) {
+            switch (operations[i]) {
+                case Operation.Code.CONSTANT:
+                    registers[i] = constants[i];
+                    break;
+                case Operation.Code.VARIABLE:
+                    registers[i] = inputs[first[i]][second[i]];
+                    break;
+                case Operation.Code.PARAMETER:
+                    registers[i] = parameters[first[i]];
+                    break;
+                default:
+                    registers[i] = Operation.apply(
+                            operations[i],
+                            registers[first[i]],
+                            second[i] == -1 ? 0 : registers[second[i]]);
+            }
+        }
+        return operations.length == 0
+                ? Double.NaN : registers[operations.length - 1];
+    }
+
+    /**
+     * Evaluates the program and calculates its gradient with respect to all
+     * the variables, using reverse mode automatic differentiation. The cost
+     * is about twice the cost of an evaluation, regardless of the number of
+     * variables. Where built-in functions are not differentiable, the
+     * derivative of abs is the sign of its operand (zero at zero), the
+     * derivatives of floor and ceil are zero, and min and max pass the whole
+     * derivative to the operand they select (the first one on ties).
+     *
+     * @param inputs the values of the variables (see {@link VariablesLayout})
+     * @param parameters the values of the named constants
+     * @param registers a working array of at least {@link #size()} elements
+     * @param adjoints a working array of at least {@link #size()} elements
+     * @param layout the layout of the inputs
+     * @param gradient receives the partial derivatives, indexed by the
+     * positions of the variables in the x-vector (see
+     * {@link VariablesLayout#getFlatIndex(int, int)})
+     * @return the value of the program
+     */
+    public double evaluateGradient(
+            double[][] inputs,
+            double[] parameters,
+            double[] registers,
+            double[] adjoints,
+            VariablesLayout layout,
+            double[] gradient) {
+        double value = evaluate(inputs, parameters, registers);
+        Arrays.fill(gradient, 0, layout.getTotalVariablesCount(), 0);
+        int size = operations.length;
+        if (size == 0) {
+            return value;
+        }
+        Arrays.fill(adjoints, 0, size, 0);
+        adjoints[size - 1] = 1;
+        for (int i = size - 1; i >= 0; i--) {
+            double adjoint = adjoints[i];
+            if (adjoint == 0) {
+                continue;
+            }
+            int op = operations[i];
+            if (op == Operation.Code.VARIABLE) {
+                gradient[layout.getFlatIndex(first[i], second[i])] += adjoint;
+                continue;
+            }
+            if (op == Operation.Code.CONSTANT
+                    || op == Operation.Code.PARAMETER) {
+                continue;
+            }
+            double r = registers[i];
+            double a = registers[first[i]];
+            double b = second[i] == -1 ? 0 : registers[second[i]];
+            switch (Operation.get(op)) {
+                case NEGATE:
+                    adjoints[first[i]] -= adjoint;
+                    break;
+                case ADD:
+                    adjoints[first[i]] += adjoint;
+                    adjoints[second[i]] += adjoint;
+                    break;
+                case SUBTRACT:
+                    adjoints[first[i]] += adjoint;
+                    adjoints[second[i]] -= adjoint;
+                    break;
+                case MULTIPLY:
+                    adjoints[first[i]] += adjoint * b;
+                    adjoints[second[i]] += adjoint * a;
+                    break;
+                case DIVIDE:
+                    adjoints[first[i]] += adjoint / b;
+                    adjoints[second[i]] -= adjoint * r / b;
+                    break;
+                case POWER:
+                    if (b != 0) {
+                        adjoints[first[i]] += adjoint * b * Math.pow(a, b - 1);
+                    }
+                    if (operations[second[i]] != Operation.Code.CONSTANT && r != 0) {
+                        // Non-constant exponent
+                        adjoints[second[i]] += adjoint * r * Math.log(a);
+                    }
+                    break;
+                case SIN:
+                    adjoints[first[i]] += adjoint * Math.cos(a);
+                    break;
+                case COS:
+                    adjoints[first[i]] -= adjoint * Math.sin(a);
+                    break;
+                case TAN:
+                    adjoints[first[i]] += adjoint * (1 + r * r);
+                    break;
+                case ASIN:
+                    adjoints[first[i]] += adjoint / Math.sqrt(1 - a * a);
+                    break;
+                case ACOS:
+                    adjoints[first[i]] -= adjoint / Math.sqrt(1 - a * a);
+                    break;
+                case ATAN:
+                    adjoints[first[i]] += adjoint / (1 + a * a);
+                    break;
+                case SINH:
+                    adjoints[first[i]] += adjoint * Math.cosh(a);
+                    break;
+                case COSH:
+                    adjoints[first[i]] += adjoint * Math.sinh(a);
+                    break;
+                case TANH:
+                    adjoints[first[i]] += adjoint * (1 - r * r);
+                    break;
+                case SQRT:
+                    adjoints[first[i]] += adjoint * 0.5 / r;
+                    break;
+                case ABS:
+                    adjoints[first[i]] += adjoint * Math.signum(a);
+                    break;
+                case FLOOR:
+                case CEIL:
+                    // Piecewise constant
+                    break;
+                case EXP:
+                    adjoints[first[i]] += adjoint * r;
+                    break;
+                case LOG:
+                    adjoints[first[i]] += adjoint / a;
+                    break;
+                case LOG10:
+                    adjoints[first[i]] += adjoint / (a * Math.log(10));
+                    break;
+                case MIN:
+                    adjoints[a <= b ? first[i] : second[i]] += adjoint;
+                    break;
+                case MAX:
+                    adjoints[a >= b ? first[i] : second[i]] += adjoint;
+                    break;
+                default:
+                    throw new IllegalStateException(
+                            "Unexpected operation: " + Operation.get(op));
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of instructions (and registers) of this program
+     */
+    public int size() {
+        return operations.length;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a single program out of several expressions. Identical
+ * subexpressions (within the same expression or across different expressions)
+ * are compiled only once: before emitting an instruction, the builder looks it
+ * up by its operation and operands, and reuses the register of the existing
+ * instruction if found. Since the operands are themselves registers, this
+ * detects identical subtrees of any size. The operands of additions and
+ * multiplications are ordered, so a+b and b+a share the same register (both
+ * operations are exactly commutative in floating point).
+ * <pre>
+ * ProgramBuilder builder = new ProgramBuilder();
+ * int f1 = builder.add(expression1);
+ * int f2 = builder.add(expression2);
+ * Program program = builder.build();
+ * program.evaluate(inputs, parameters, registers);
+ * // registers[f1] and registers[f2] hold the values of both expressions
+ * </pre>
+ */
+public final class ProgramBuilder {
+
+    private int[] operations;
+    private int[] first;
+    private int[] second;
+    private double[] constants;
+    private int size;
+    private final Map<Instruction, Integer> registers;
+
+    public ProgramBuilder() {
+        int capacity = 16;
+        operations = new int[capacity];
+        first = new int[capacity];
+        second = new int[capacity];
+        constants = new double[capacity];
+        registers = new HashMap<>();
+    }
+
+    /**
+     * Adds an expression to the program.
+     *
+     * @param expression the expression to be added
+     * @return the register holding the value of the expression after
+     * evaluating the program
+     */
+    public int add(Expression expression) {
+        // Post-order traversal (not recursive, because unrolled summations
+        // result in very deep trees)
+        Deque<Expression> nodes = new ArrayDeque<>();
+        Deque<Boolean> visited = new ArrayDeque<>();
+        Deque<Integer> operands = new ArrayDeque<>();
+        nodes.push(expression);
+        visited.push(false);
+        while (!nodes.isEmpty()) {
+            Expression node = nodes.pop();
+            boolean operandsDone = visited.pop();
+            Operation operation = node.getOperation();
+            if (!operandsDone && operation.getArity() > 0) {
+                nodes.push(node);
+                visited.push(true);
+                if (node.getRight() != null) {
+                    nodes.push(node.getRight());
+                    visited.push(false);
+                }
+                nodes.push(node.getLeft());
+                visited.push(false);
+                continue;
+            }
+            Instruction instruction;
+            switch (operation) {
+                case CONSTANT:
+                    instruction = new Instruction(
+                            operation.getCode(), -1, -1, node.getValue());
+                    break;
+                case VARIABLE:
+                    instruction = new Instruction(operation.getCode(),
+                            node.getInput(), node.getOffset(), 0);
+                    break;
+                case PARAMETER:
+                    instruction = new Instruction(
+                            operation.getCode(), node.getInput(), -1, 0);
+                    break;
+                default:
+                    int b = -1;
+                    if (operation.getArity() == 2) {
+                        b = operands.pop();
+                    }
+                    int a = operands.pop();
+                    if ((operation == Operation.ADD
+                            || operation == Operation.MULTIPLY) && b < a) {
+                        int temp = a;
+                        a = b;
+                        b = temp;
+                    }
+                    instruction = new Instruction(operation.getCode(), a, b, 0);
+            }
+            operands.push(emit(instruction));
+        }
+        return operands.pop();
+    }
+
+    private int emit(Instruction instruction) {
+        Integer register = registers.get(instruction);
+        if (register != null) {
+            return register;
+        }
+        if (size == operations.length) {
+            int capacity = 2 * size;
+            operations = Arrays.copyOf(operations, capacity);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+        }
+        operations[size] = instruction.operation;
+        first[size] = instruction.first;
+        second[size] = instruction.second;
+        constants[size] = instruction.constant;
+        registers.put(instruction, size);
+        return size++;
+    }
+
+    /**
+     * @return the number of instructions added so far
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a program made of all the instructions added so far
+     */
+    public Program build() {
+        return new Program(
+                Arrays.copyOf(operations, size),
+                Arrays.copyOf(first, size),
+                Arrays.copyOf(second, size),
+                Arrays.copyOf(constants, size));
+    }
+
+    /**
+     * The lookup key of an instruction.
+     */
+    private static final class Instruction {
+
+        final int operation;
+        final int first;
+        final int second;
+        final double constant;
+
+        Instruction(int operation, int first, int second, double constant) {
+            this.operation = operation;
+            this.first = first;
+            this.second = second;
+            this.constant = constant;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Instruction)) {
+                return false;
+            }
+            Instruction other = (Instruction) obj;
+            return operation == other.operation
+                    && first == other.first
+                    && second == other.second
+                    && Double.doubleToLongBits(constant)
+                    == Double.doubleToLongBits(other.constant);
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(constant);
+            int hash = operation;
+            hash = 31 * hash + first;
+            hash = 31 * hash + second;
+            hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package compilation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes where each variable is found in the inputs of a compiled program.
+ * The inputs of a program are an array of arrays. The first array holds the
+ * values of all the (scalar) variables in the order they were added to the
+ * problem, while each of the remaining arrays is one of the vectors of the
+ * problem (again in the order they were added).
+ */
+public final class VariablesLayout {
+
+    private final String[] variables;
+    private final String[] vectors;
+    private final int[] lengths;
+    private final int[] flatOffsets;
+
+    /**
+     * Creates a layout out of the current variables and vectors of a problem.
+     *
+     * @param variablesIterator iterator over the variables of the problem
+     * @param vectorsIterator iterator over the vectors of the problem
+     */
+    public VariablesLayout(
+            Iterator<Map.Entry<String, Double>> variablesIterator,
+            Iterator<Map.Entry<String, double[]>> vectorsIterator) {
+        List<String> variablesList = new ArrayList<>();
+        while (variablesIterator.hasNext()) {
+            variablesList.add(variablesIterator.next().getKey());
+        }
+        List<String> vectorsList = new ArrayList<>();
+        List<Integer> lengthsList = new ArrayList<>();
+        while (vectorsIterator.hasNext()) {
+            Map.Entry<String, double[]> entry = vectorsIterator.next();
+            vectorsList.add(entry.getKey());
+            lengthsList.add(entry.getValue().length);
+        }
+        variables = variablesList.toArray(new String[variablesList.size()]);
+        vectors = vectorsList.toArray(new String[vectorsList.size()]);
+        lengths = new int[lengthsList.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = lengthsList.get(i);
+        }
+        flatOffsets = new int[vectors.length + 1];
+        flatOffsets[0] = 0;
+        int offset = variables.length;
+        for (int i = 0; i < lengths.length; i++) {
+            flatOffsets[i + 1] = offset;
+            offset += lengths[i];
+        }
+    }
+
+    /**
+     * @param name the name of a variable
+     * @return the position of the variable in the first input array, or -1
+     * if there is no such variable
+     */
+    public int getVariableIndex(String name) {
+        return Arrays.asList(variables).indexOf(name);
+    }
+
+    /**
+     * @param name the name of a vector
+     * @return the index of the input array holding the vector, or -1 if there
+     * is no such vector
+     */
+    public int getVectorInput(String name) {
+        int index = Arrays.asList(vectors).indexOf(name);
+        return index == -1 ? -1 : index + 1;
+    }
+
+    /**
+     * @param input the index of an input array
+     * @return the number of values in the input array
+     */
+    public int getInputLength(int input) {
+        return input == 0 ? variables.length : lengths[input - 1];
+    }
+
+    /**
+     * Gets the position of a variable in the flat x-vector of the problem (all
+     * the variables first, followed by the elements of all the vectors).
+     *
+     * @param input the index of the input array holding the variable
+     * @param offset the index of the variable within its input array
+     * @return the position of the variable in the x-vector
+     */
+    public int getFlatIndex(int input, int offset) {
+        return flatOffsets[input] + offset;
+    }
+
+    /**
+     * @return the number of input arrays (one for the variables plus one for
+     * each vector)
+     */
+    public int getInputsCount() {
+        return vectors.length + 1;
+    }
+
+    /**
+     * @return the number of variables (excluding vectors)
+     */
+    public int getVariablesCount() {
+        return variables.length;
+    }
+
+    /**
+     * @return the number of vectors
+     */
+    public int getVectorsCount() {
+        return vectors.length;
+    }
+
+    /**
+     * @return the total number of variables (variables + vectors elements)
+     */
+    public int getTotalVariablesCount() {
+        int totalCount = variables.length;
+        for (int length : lengths) {
+            totalCount += length;
+        }
+        return totalCount;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics that accumulate the total time and the number of executions of
+ * each phase, and the value of each counter. The same instance can be used by
+ * any number of threads.
+ */
+public class AccumulatingMetrics implements KKTPMMetrics {
+
+    private final LongAdder[] times = createAdders(Phase.values().length);
+    private final LongAdder[] executions = createAdders(Phase.values().length);
+    private final LongAdder[] counters = createAdders(Counter.values().length);
+
+    @Override
+    public void recordTime(Phase phase, long nanos) {
+        times[phase.ordinal()].add(nanos);
+        executions[phase.ordinal()].increment();
+    }
+
+    @Override
+    public void increment(Counter counter, long amount) {
+        counters[counter.ordinal()].add(amount);
+    }
+
+    /**
+     * @param phase the phase
+     * @return the total time spent in the phase in nanoseconds
+     */
+    public long getTotalTime(Phase phase) {
+        return times[phase.ordinal()].sum();
+    }
+
+    /**
+     * @param phase the phase
+     * @return the number of recorded executions of the phase
+     */
+    public long getExecutionsCount(Phase phase) {
+        return executions[phase.ordinal()].sum();
+    }
+
+    /**
+     * @param counter the counter
+     * @return the value of the counter
+     */
+    public long getCount(Counter counter) {
+        return counters[counter.ordinal()].sum();
+    }
+
+    /**
+     * Sets all the times and counts to zero.
+     */
+    public void reset() {
+        for (LongAdder[] adders : new LongAdder[][]{times, executions, counters}) {
+            for (LongAdder adder : adders) {
+                adder.reset();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            sb.append(String.format("%-22s %12.3f ms (%d executions)%n",
+                    phase, getTotalTime(phase) / 1e6, getExecutionsCount(phase)));
+        }
+        for (Counter counter : Counter.values()) {
+            sb.append(String.format("%-22s %d%n", counter, getCount(counter)));
+        }
+        return sb.toString();
+    }
+
+    private static LongAdder[] createAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork/join task that calculates KKTPM for a contiguous range of points of a
+ * population. The range is split in halves until it is small enough, then each
+ * leaf scores its points sequentially using its own {@link KKTPMWorkspace}.
+ * Since the KKTPM of a point does not depend on any other point and every leaf
+ * uses the same sequential code, the results do not depend on how the work is
+ * scheduled.
+ */
+class BatchKKTPMTask extends RecursiveAction {
+
+    private final double[][] x;
+    private final double[][] f;
+    private final double[][] g;
+    private final double[][][] jacobianF;
+    private final double[][][] jacobianG;
+    private final double[] z;
+    private final double rho;
+    private final double[] kktpm;
+    private final int from;
+    private final int to;
+    private final int leafSize;
+
+    BatchKKTPMTask(
+            double[][] x,
+            double[][] f,
+            double[][] g,
+            double[][][] jacobianF,
+            double[][][] jacobianG,
+            double[] z,
+            double rho,
+            double[] kktpm,
+            int from,
+            int to,
+            int leafSize) {
+        this.x = x;
+        this.f = f;
+        this.g = g;
+        this.jacobianF = jacobianF;
+        this.jacobianG = jacobianG;
+        this.z = z;
+        this.rho = rho;
+        this.kktpm = kktpm;
+        this.from = from;
+        this.to = to;
+        this.leafSize = leafSize;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= leafSize) {
+            KKTPMWorkspace workspace = new KKTPMWorkspace(
+                    x[from].length, f[from].length, g[from].length);
+            for (int i = from; i < to; i++) {
+                kktpm[i] = workspace.getKKTPM(
+                        x[i], f[i], z, g[i], jacobianF[i], jacobianG[i], rho);
+            }
+        } else {
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new BatchKKTPMTask(x, f, g, jacobianF, jacobianG, z, rho,
+                            kktpm, from, middle, leafSize),
+                    new BatchKKTPMTask(x, f, g, jacobianF, jacobianG, z, rho,
+                            kktpm, middle, to, leafSize));
+        }
+    }
+}
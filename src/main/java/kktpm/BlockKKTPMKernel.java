@@ -0,0 +1,302 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+/**
+ * Calculates KKTPM for a {@link ColumnarPopulation}, one block of
+ * consecutive points at a time. Every step except the system of the Lagrange
+ * multipliers (the weights, A_m, the big matrix and the direct, adjusted and
+ * projected KKTPM) is carried out entry by entry for all the points of the
+ * block, so the innermost loops run over contiguous arrays holding the same
+ * entry of consecutive points (which the JIT compiler can vectorize). The
+ * system of each point is then solved by a {@link KKTPMWorkspace}.
+ * <p>
+ * The arithmetic of each point is carried out in the same order used by
+ * {@link KKTPMWorkspace}, so the results are identical (when the workspace
+ * uses the Vector API, see {@link DenseKernels}, the results of both may differ
+ * from those of the matrix-based methods in the last bits).
+ */
+class BlockKKTPMKernel {
+
+    // The number of points processed together
+    static final int BLOCK_SIZE = 64;
+
+    private final int varCount;
+    private final int objCount;
+    private final int conCount;
+    // All the block buffers are indexed by the point (within the block) last
+    private final double[][] w;
+    private final double[][] oneOverW;
+    private final double[][][] am;
+    private final double[][][] bigA;
+    private final double[][] u;
+    private final double[] sums;
+    private final double[] residual;
+    private final double[] sumV;
+    // The big matrix of a single point
+    private final double[][] matrix;
+    private final KKTPMWorkspace solver;
+
+    BlockKKTPMKernel(int varCount, int objCount, int conCount) {
+        this.varCount = varCount;
+        this.objCount = objCount;
+        this.conCount = conCount;
+        int size = objCount + conCount;
+        w = new double[objCount][BLOCK_SIZE];
+        oneOverW = new double[objCount][BLOCK_SIZE];
+        am = new double[objCount][varCount][BLOCK_SIZE];
+        bigA = new double[size][size][BLOCK_SIZE];
+        u = new double[size][BLOCK_SIZE];
+        sums = new double[BLOCK_SIZE];
+        residual = new double[BLOCK_SIZE];
+        sumV = new double[BLOCK_SIZE];
+        matrix = new double[size][size];
+        solver = new KKTPMWorkspace(varCount, objCount, conCount);
+    }
+
+    /**
+     * Calculates KKTPM for a range of points.
+     *
+     * @param population the population
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @param kktpm receives the KKTPM of each point
+     * @param from the index of the first point
+     * @param to the index after the last point
+     */
+    void getKKTPM(
+            ColumnarPopulation population,
+            double[] z,
+            double rho,
+            double[] kktpm,
+            int from,
+            int to) {
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, to - start);
+            computeWeight(population.getF(), z, start, count);
+            KKTPMMetrics metrics = KKTPMCalculator.getMetrics();
+            long time = KKTPMCalculator.startTiming(metrics);
+            formAm(population.getJacobianF(), rho, start, count);
+            KKTPMCalculator.stopTiming(
+                    metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, time);
+            time = KKTPMCalculator.startTiming(metrics);
+            formBigA(population.getJacobianG(), population.getG(), start, count);
+            KKTPMCalculator.stopTiming(
+                    metrics, KKTPMMetrics.Phase.GRAM_ASSEMBLY, time);
+            solveLagrangeMultipliers(count);
+            getKKTPM(population.getJacobianG(), population.getG(),
+                    start, count, kktpm);
+        }
+    }
+
+    /**
+     * w = (f - z) / || f - z || (or w = 1 for single objective problems)
+     */
+    private void computeWeight(double[][] f, double[] z, int start, int count) {
+        if (objCount == 1) {
+            for (int q = 0; q < count; q++) {
+                w[0][q] = 1;
+            }
+        } else {
+            for (int q = 0; q < count; q++) {
+                sums[q] = 0;
+            }
+            for (int i = 0; i < objCount; i++) {
+                double[] fi = f[i];
+                double zi = z[i];
+                for (int q = 0; q < count; q++) {
+                    double zf = fi[start + q] - zi;
+                    sums[q] += zf * zf;
+                }
+            }
+            for (int q = 0; q < count; q++) {
+                sums[q] = Math.sqrt(sums[q]);
+            }
+            for (int i = 0; i < objCount; i++) {
+                double[] fi = f[i];
+                double[] wi = w[i];
+                double zi = z[i];
+                for (int q = 0; q < count; q++) {
+                    wi[q] = (fi[start + q] - zi) / sums[q];
+                }
+            }
+        }
+        for (int i = 0; i < objCount; i++) {
+            for (int q = 0; q < count; q++) {
+                oneOverW[i][q] = 1.0 / w[i][q];
+            }
+        }
+    }
+
+    /**
+     * Forms A_m including the AASF (Augmented ASF) term.
+     */
+    private void formAm(double[][][] jacobianF, double rho, int start, int count) {
+        for (int k = 0; k < varCount; k++) {
+            for (int q = 0; q < count; q++) {
+                sums[q] = 0;
+            }
+            for (int i = 0; i < objCount; i++) {
+                double[] column = jacobianF[i][k];
+                double[] amik = am[i][k];
+                double[] oneOverWi = oneOverW[i];
+                for (int q = 0; q < count; q++) {
+                    amik[q] = column[start + q];
+                    sums[q] += oneOverWi[q] * amik[q];
+                }
+            }
+            for (int i = 0; i < objCount; i++) {
+                double[] amik = am[i][k];
+                double[] wi = w[i];
+                for (int q = 0; q < count; q++) {
+                    amik[q] = amik[q] * (1 / wi[q]) + rho * sums[q];
+                }
+            }
+        }
+    }
+
+    /**
+     * Forms the big matrix [am*am'+1, am*aj'; aj*am', aj*aj'+diag(g.^2)].
+     */
+    private void formBigA(double[][][] jacobianG, double[][] g, int start, int count) {
+        for (int i = 0; i < objCount; i++) {
+            for (int j = 0; j < objCount; j++) {
+                dot(am[i], 0, am[j], 0, count, bigA[i][j]);
+                for (int q = 0; q < count; q++) {
+                    bigA[i][j][q] += 1;
+                }
+            }
+            for (int j = 0; j < conCount; j++) {
+                dot(am[i], 0, jacobianG[j], start, count, bigA[i][objCount + j]);
+                System.arraycopy(bigA[i][objCount + j], 0,
+                        bigA[objCount + j][i], 0, count);
+            }
+        }
+        for (int i = 0; i < conCount; i++) {
+            for (int j = 0; j < conCount; j++) {
+                double[] entry = bigA[objCount + i][objCount + j];
+                dot(jacobianG[i], start, jacobianG[j], start, count, entry);
+                if (i == j) {
+                    double[] gi = g[i];
+                    for (int q = 0; q < count; q++) {
+                        entry[q] += gi[start + q] * gi[start + q];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves the system of each point of the block.
+     */
+    private void solveLagrangeMultipliers(int count) {
+        int size = objCount + conCount;
+        for (int q = 0; q < count; q++) {
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    matrix[i][j] = bigA[i][j][q];
+                }
+            }
+            double[] pointU = solver.solveLagrangeMultipliers(matrix);
+            for (int i = 0; i < size; i++) {
+                u[i][q] = pointU[i];
+            }
+        }
+    }
+
+    /**
+     * Calculates direct, adjusted and projected KKTPM, and the final KKTPM of
+     * each point of the block.
+     */
+    private void getKKTPM(
+            double[][][] jacobianG,
+            double[][] g,
+            int start,
+            int count,
+            double[] kktpm) {
+        // Direct KKTPM = (1 - sum(um))^2 + ||[am;aj]'*u||^2
+        for (int q = 0; q < count; q++) {
+            sumV[q] = 0;
+        }
+        for (int k = 0; k < varCount; k++) {
+            for (int q = 0; q < count; q++) {
+                residual[q] = 0;
+            }
+            for (int i = 0; i < objCount; i++) {
+                double[] amik = am[i][k];
+                double[] ui = u[i];
+                for (int q = 0; q < count; q++) {
+                    residual[q] += amik[q] * ui[q];
+                }
+            }
+            for (int j = 0; j < conCount; j++) {
+                double[] column = jacobianG[j][k];
+                double[] uj = u[objCount + j];
+                for (int q = 0; q < count; q++) {
+                    residual[q] += column[start + q] * uj[q];
+                }
+            }
+            for (int q = 0; q < count; q++) {
+                sumV[q] += Math.pow(residual[q], 2);
+            }
+        }
+        int approximationsCount = 0;
+        for (int q = 0; q < count; q++) {
+            double umSum = 0;
+            for (int i = 0; i < objCount; i++) {
+                umSum += u[i][q];
+            }
+            double kktpmDirect = Math.pow(1 - umSum, 2) + sumV[q];
+            double dot = 0;
+            double numerator = 0;
+            double gg = 0;
+            double ujgj = 0;
+            for (int j = 0; j < conCount; j++) {
+                double gj = g[j][start + q];
+                double uj = u[objCount + j][q];
+                dot += gj * uj;
+                numerator += gj * (gj * kktpmDirect - uj);
+                gg += gj * gj;
+                ujgj += (gj * -1) * uj;
+            }
+            // Check if you need the approximation
+            if (umSum + ujgj * (1 + ujgj) > 1) {
+                approximationsCount++;
+                double kktpmAdjusted = -1 * dot;
+                double kktpmProjected = numerator / (1 + gg);
+                kktpm[start + q]
+                        = (kktpmDirect + kktpmAdjusted + kktpmProjected) / 3;
+            } else {
+                kktpm[start + q] = kktpmDirect;
+            }
+        }
+        KKTPMCalculator.getMetrics().increment(
+                KKTPMMetrics.Counter.APPROXIMATIONS, approximationsCount);
+    }
+
+    /**
+     * Calculates the dot products of the same rows of consecutive points:
+     * out[q] = sum(a[k][aStart + q] * b[k][bStart + q]) over all k.
+     */
+    private void dot(
+            double[][] a,
+            int aStart,
+            double[][] b,
+            int bStart,
+            int count,
+            double[] out) {
+        for (int q = 0; q < count; q++) {
+            out[q] = 0;
+        }
+        for (int k = 0; k < varCount; k++) {
+            double[] ak = a[k];
+            double[] bk = b[k];
+            for (int q = 0; q < count; q++) {
+                out[q] += ak[aStart + q] * bk[bStart + q];
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+/**
+ * The Cholesky factorization A = L*L' of a symmetric positive definite matrix,
+ * supporting the removal of equations. Removing equation (p) makes the
+ * factorization represent the matrix whose row and column (p) are zeros
+ * except for a one on the diagonal (which is how the active-set loop of the
+ * Lagrange multipliers removes a negative multiplier). This costs a rank-one
+ * update of the trailing part of L, i.e. O(n^2) instead of the O(n^3) of a new
+ * factorization.
+ * <p>
+ * The buffers are allocated once, so the same instance can factorize any
+ * number of matrices of the same size.
+ */
+class CholeskyFactorization {
+
+    private final int size;
+    private final double[][] l;
+    private final double[] v;
+
+    CholeskyFactorization(int size) {
+        this.size = size;
+        this.l = new double[size][size];
+        this.v = new double[size];
+    }
+
+    /**
+     * Factorizes a matrix (only its lower triangle is read).
+     *
+     * @param a the matrix
+     * @return false if the matrix is not (numerically) positive definite
+     */
+    boolean factorize(double[][] a) {
+        for (int j = 0; j < size; j++) {
+            double[] lj = l[j];
+            double sum = a[j][j];
+            for (int k = 0; k < j; k++) {
+                sum -= lj[k] * lj[k];
+            }
+            if (!(sum > 0)) {
+                return false;
+            }
+            double diagonal = Math.sqrt(sum);
+            lj[j] = diagonal;
+            for (int k = j + 1; k < size; k++) {
+                lj[k] = 0;
+            }
+            for (int i = j + 1; i < size; i++) {
+                double[] li = l[i];
+                double value = a[i][j];
+                for (int k = 0; k < j; k++) {
+                    value -= li[k] * lj[k];
+                }
+                li[j] = value / diagonal;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes equation (p) from the factorization.
+     *
+     * @param p the index of the equation
+     */
+    void remove(int p) {
+        // The column below the diagonal is folded into the trailing part
+        for (int i = p + 1; i < size; i++) {
+            v[i] = l[i][p];
+            l[i][p] = 0;
+        }
+        for (int k = 0; k < p; k++) {
+            l[p][k] = 0;
+        }
+        l[p][p] = 1;
+        for (int k = p + 1; k < size; k++) {
+            double[] lk = l[k];
+            double r = Math.hypot(lk[k], v[k]);
+            double c = r / lk[k];
+            double s = v[k] / lk[k];
+            lk[k] = r;
+            for (int i = k + 1; i < size; i++) {
+                double[] li = l[i];
+                li[k] = (li[k] + s * v[i]) / c;
+                v[i] = c * v[i] - s * li[k];
+            }
+        }
+    }
+
+    /**
+     * Solves A*x = b.
+     *
+     * @param b the right-hand-side vector
+     * @param out receives the solution (may be the same array as b)
+     */
+    void solve(double[] b, double[] out) {
+        // Solve L*y = b
+        for (int i = 0; i < size; i++) {
+            double[] li = l[i];
+            double sum = b[i];
+            for (int k = 0; k < i; k++) {
+                sum -= li[k] * out[k];
+            }
+            out[i] = sum / li[i];
+        }
+        // Solve L'*x = y
+        for (int i = size - 1; i >= 0; i--) {
+            double sum = out[i];
+            for (int k = i + 1; k < size; k++) {
+                sum -= l[k][i] * out[k];
+            }
+            out[i] = sum / l[i][i];
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+/**
+ * A population of points having the same number of variables, objectives and
+ * constraints, stored column by column (structure of arrays): each variable,
+ * objective value, constraint value and Jacobian entry has one contiguous
+ * array holding its value at all the points. For example, getF()[i][p] is the
+ * value of objective (i) at point (p), and getJacobianG()[j][k][p] is the
+ * partial derivative of constraint (j) with respect to variable (k) at point
+ * (p).
+ * <p>
+ * Compared to one double[][] per point, this layout keeps the values of
+ * consecutive points next to each other, so the KKTPM of a block of points
+ * can be calculated entry by entry (see
+ * {@link KKTPMCalculator#getKKTPMBatch(ColumnarPopulation, double[], double)}).
+ * <p>
+ * The arrays are allocated by the constructor and returned without copying,
+ * so they can be filled directly.
+ */
+public class ColumnarPopulation {
+
+    private final int popSize;
+    private final int varCount;
+    private final int objCount;
+    private final int conCount;
+    private final double[][] x;
+    private final double[][] f;
+    private final double[][] g;
+    private final double[][][] jacobianF;
+    private final double[][][] jacobianG;
+
+    /**
+     * Creates a population (all the values are initially zeros).
+     *
+     * @param popSize number of points
+     * @param varCount number of variables
+     * @param objCount number of objectives
+     * @param conCount number of constraints
+     */
+    public ColumnarPopulation(
+            int popSize,
+            int varCount,
+            int objCount,
+            int conCount) {
+        if (popSize < 0 || varCount < 1 || objCount < 1 || conCount < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid dimensions (%d points, %d variables, %d "
+                    + "objectives, %d constraints).",
+                    popSize, varCount, objCount, conCount));
+        }
+        this.popSize = popSize;
+        this.varCount = varCount;
+        this.objCount = objCount;
+        this.conCount = conCount;
+        this.x = new double[varCount][popSize];
+        this.f = new double[objCount][popSize];
+        this.g = new double[conCount][popSize];
+        this.jacobianF = new double[objCount][varCount][popSize];
+        this.jacobianG = new double[conCount][varCount][popSize];
+    }
+
+    /**
+     * Copies a single point (given in the usual row format) into the
+     * population.
+     *
+     * @param p the index of the point
+     * @param xRow the point in design/decision space
+     * @param fRow the point in objective space
+     * @param gRow constraints values
+     * @param jacobianFRow matrix of objectives first derivatives
+     * @param jacobianGRow matrix of constraints first derivatives
+     */
+    public void setPoint(
+            int p,
+            double[] xRow,
+            double[] fRow,
+            double[] gRow,
+            double[][] jacobianFRow,
+            double[][] jacobianGRow) {
+        if (xRow.length != varCount
+                || fRow.length != objCount
+                || gRow.length != conCount
+                || jacobianFRow.length != objCount
+                || jacobianGRow.length != conCount) {
+            throw new IllegalArgumentException(String.format(
+                    "The point dimensions do not match the population "
+                    + "dimensions (%d variables, %d objectives, %d "
+                    + "constraints).", varCount, objCount, conCount));
+        }
+        for (int k = 0; k < varCount; k++) {
+            x[k][p] = xRow[k];
+        }
+        for (int i = 0; i < objCount; i++) {
+            f[i][p] = fRow[i];
+            for (int k = 0; k < varCount; k++) {
+                jacobianF[i][k][p] = jacobianFRow[i][k];
+            }
+        }
+        for (int j = 0; j < conCount; j++) {
+            g[j][p] = gRow[j];
+            for (int k = 0; k < varCount; k++) {
+                jacobianG[j][k][p] = jacobianGRow[j][k];
+            }
+        }
+    }
+
+    /**
+     * @return the number of points
+     */
+    public int getPopSize() {
+        return popSize;
+    }
+
+    /**
+     * @return the number of variables
+     */
+    public int getVarCount() {
+        return varCount;
+    }
+
+    /**
+     * @return the number of objectives
+     */
+    public int getObjCount() {
+        return objCount;
+    }
+
+    /**
+     * @return the number of constraints
+     */
+    public int getConCount() {
+        return conCount;
+    }
+
+    /**
+     * @return the variables (one array per variable)
+     */
+    public double[][] getX() {
+        return x;
+    }
+
+    /**
+     * @return the objective values (one array per objective)
+     */
+    public double[][] getF() {
+        return f;
+    }
+
+    /**
+     * @return the constraint values (one array per constraint)
+     */
+    public double[][] getG() {
+        return g;
+    }
+
+    /**
+     * @return the partial derivatives of the objectives (one array per
+     * objective and variable)
+     */
+    public double[][][] getJacobianF() {
+        return jacobianF;
+    }
+
+    /**
+     * @return the partial derivatives of the constraints (one array per
+     * constraint and variable)
+     */
+    public double[][][] getJacobianG() {
+        return jacobianG;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import exceptions.EvaluationException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import parsing.OptimizationProblem;
+import utility.DelimitedReader;
+
+/**
+ * Calculates KKTPM for populations stored as delimited text (CSV, TSV...),
+ * one point per line. The text is streamed: each line is read into a reusable
+ * buffer (see {@link DelimitedReader}), its point is scored using a single
+ * {@link KKTPMWorkspace} and the line is written back followed by its KKTPM
+ * as an extra field. Nothing is kept between lines, so populations of any
+ * size are processed in constant memory.
+ * <p>
+ * A line holds either the variables of the point only (the other values are
+ * evaluated using an {@link OptimizationProblem}) or the whole point, in the
+ * order of {@link PointRecords}: x, f, g, the rows of the Jacobian of the
+ * objectives and the rows of the Jacobian of the constraints. Any additional
+ * fields are copied to the output unchanged.
+ */
+public final class DelimitedKKTPM {
+
+    /**
+     * The name of the field appended to the header line.
+     */
+    public static final String KKTPM_HEADER = "kktpm";
+
+    private DelimitedKKTPM() {
+    }
+
+    /**
+     * Calculates KKTPM for points whose lines hold all their values (see
+     * above).
+     *
+     * @param input the population
+     * @param output receives the lines of the population, each followed by
+     * its KKTPM (the writer is neither flushed nor closed)
+     * @param delimiter the character separating the fields of a line
+     * @param header whether the first line is a header (it is written back
+     * followed by {@link #KKTPM_HEADER})
+     * @param varCount the number of variables
+     * @param objCount the number of objectives
+     * @param conCount the number of constraints
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the number of points
+     * @throws IOException if the population cannot be read, or if a line is
+     * too short or holds an invalid number
+     */
+    public static long getKKTPM(
+            Reader input,
+            Writer output,
+            char delimiter,
+            boolean header,
+            int varCount,
+            int objCount,
+            int conCount,
+            double[] z,
+            double rho) throws IOException {
+        KKTPMWorkspace workspace
+                = new KKTPMWorkspace(varCount, objCount, conCount);
+        double[] x = new double[varCount];
+        double[] f = new double[objCount];
+        double[] g = new double[conCount];
+        double[][] jacobianF = new double[objCount][varCount];
+        double[][] jacobianG = new double[conCount][varCount];
+        DelimitedReader reader = new DelimitedReader(input, delimiter);
+        if (header) {
+            copyHeader(reader, output, delimiter);
+        }
+        long count = 0;
+        while (reader.next()) {
+            checkFieldsCount(reader, workspace.getRecordLength());
+            try {
+                int field = read(reader, 0, x);
+                field = read(reader, field, f);
+                field = read(reader, field, g);
+                for (double[] row : jacobianF) {
+                    field = read(reader, field, row);
+                }
+                for (double[] row : jacobianG) {
+                    field = read(reader, field, row);
+                }
+            } catch (NumberFormatException ex) {
+                throw invalidNumber(reader, ex);
+            }
+            double kktpm = workspace.getKKTPM(
+                    x, f, z, g, jacobianF, jacobianG, rho);
+            write(reader, output, delimiter, kktpm);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Calculates KKTPM for points whose lines start with their variables
+     * (ordered as in OptimizationProblem.setAllVariables(...)). The
+     * objectives, constraints and their gradients are evaluated by the
+     * problem in one pass (see OptimizationProblem.evaluateAll(...)), so
+     * compiling the problem first is recommended.
+     *
+     * @param input the population
+     * @param output receives the lines of the population, each followed by
+     * its KKTPM (the writer is neither flushed nor closed)
+     * @param delimiter the character separating the fields of a line
+     * @param header whether the first line is a header (it is written back
+     * followed by {@link #KKTPM_HEADER})
+     * @param problem the problem (its current point is changed)
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the number of points
+     * @throws IOException if the population cannot be read, or if a line is
+     * too short or holds an invalid number
+     * @throws EvaluationException if the problem cannot be evaluated at a
+     * point
+     */
+    public static long getKKTPM(
+            Reader input,
+            Writer output,
+            char delimiter,
+            boolean header,
+            OptimizationProblem problem,
+            double[] z,
+            double rho) throws IOException, EvaluationException {
+        int varCount = problem.getTotalVariablesCount();
+        int objCount = problem.getObjectivesCount();
+        int conCount = problem.getConstraintsCount();
+        KKTPMWorkspace workspace
+                = new KKTPMWorkspace(varCount, objCount, conCount);
+        double[] x = new double[varCount];
+        double[] f = new double[objCount];
+        double[] g = new double[conCount];
+        double[][] jacobianF = new double[objCount][varCount];
+        double[][] jacobianG = new double[conCount][varCount];
+        DelimitedReader reader = new DelimitedReader(input, delimiter);
+        if (header) {
+            copyHeader(reader, output, delimiter);
+        }
+        long count = 0;
+        while (reader.next()) {
+            checkFieldsCount(reader, varCount);
+            try {
+                read(reader, 0, x);
+            } catch (NumberFormatException ex) {
+                throw invalidNumber(reader, ex);
+            }
+            KKTPMCalculator.evaluateAll(
+                    problem, x, f, g, jacobianF, jacobianG);
+            double kktpm = workspace.getKKTPM(
+                    x, f, z, g, jacobianF, jacobianG, rho);
+            write(reader, output, delimiter, kktpm);
+            count++;
+        }
+        return count;
+    }
+
+    private static void copyHeader(
+            DelimitedReader reader,
+            Writer output,
+            char delimiter) throws IOException {
+        if (reader.next()) {
+            reader.writeLine(output);
+            output.write(delimiter);
+            output.write(KKTPM_HEADER);
+            output.write('\n');
+        }
+    }
+
+    private static void checkFieldsCount(
+            DelimitedReader reader,
+            int fieldsCount) throws IOException {
+        if (reader.getFieldsCount() < fieldsCount) {
+            throw new IOException(String.format(
+                    "Line %d has %d fields (at least %d are required).",
+                    reader.getLineNumber(), reader.getFieldsCount(),
+                    fieldsCount));
+        }
+    }
+
+    private static IOException invalidNumber(
+            DelimitedReader reader,
+            NumberFormatException ex) {
+        return new IOException(String.format(
+                "Line %d holds an invalid number.", reader.getLineNumber()), ex);
+    }
+
+    /**
+     * Parses the fields starting at (field) into (values).
+     *
+     * @return the index of the next field
+     */
+    private static int read(DelimitedReader reader, int field, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = reader.getDouble(field++);
+        }
+        return field;
+    }
+
+    private static void write(
+            DelimitedReader reader,
+            Writer output,
+            char delimiter,
+            double kktpm) throws IOException {
+        reader.writeLine(output);
+        output.write(delimiter);
+        output.write(Double.toString(kktpm));
+        output.write('\n');
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+/**
+ * The dense loops dominating the KKTPM calculation of many-variable problems:
+ * the dot products of the Gram-matrix assembly (am*am', am*aj' and aj*aj')
+ * and the scaled row additions of the [am;aj]'*u residual.
+ * <p>
+ * This is the plain Java 8 implementation. The multi-release jar built with
+ * -PvectorKernel replaces it on Java 17 or later by the version found in
+ * src/main/java17, which uses the JDK Vector API (jdk.incubator.vector) when
+ * the JVM is started with --add-modules jdk.incubator.vector and
+ * -Dkktpm.vectorKernel=true, and falls back to these loops otherwise.
+ */
+final class DenseKernels {
+
+    private DenseKernels() {
+    }
+
+    /**
+     * @return false (this implementation is never vectorized)
+     */
+    static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * @return the dot product of the first (length) elements of a and b
+     */
+    static double dot(double[] a, double[] b, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds alpha*x to y (the first (length) elements).
+     */
+    static void addScaled(double alpha, double[] x, double[] y, int length) {
+        for (int i = 0; i < length; i++) {
+            y[i] += x[i] * alpha;
+        }
+    }
+}
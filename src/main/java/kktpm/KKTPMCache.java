@@ -0,0 +1,308 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import exceptions.EvaluationException;
+import exceptions.MisplacedTokensException;
+import exceptions.TooManyDecimalPointsException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import parsing.KKTPM;
+import parsing.OptimizationProblem;
+
+/**
+ * A bounded cache in front of the problem-based KKTPM calculations, for
+ * optimizers that score the same (elite) points generation after generation.
+ * Results are keyed on the modification stamp of the problem (see
+ * {@link OptimizationProblem#getModificationStamp()}), the current point of
+ * the problem (x), the ideal point (z), rho and the weight vector (w, if
+ * any). A hit costs neither an evaluation of the problem nor a solution of
+ * the system of the Lagrange multipliers. When the cache is full, the least
+ * recently used result is evicted.
+ * <p>
+ * Since the contexts of a {@link parsing.ProblemDefinition} share the stamp of
+ * the definition, a single cache serves all the threads of a parallel batch.
+ * Modifying a problem (e.g. setting a constant or the gradient method) changes
+ * its stamp, so the results calculated before are never returned for it
+ * again (they are eventually evicted).
+ * <p>
+ * By default, points are the same only if all their values have the same bit
+ * patterns. Optionally, the elements of x can be compared up to a tolerance
+ * instead: each element is rounded to the nearest multiple of the tolerance,
+ * so points falling in the same cell of this grid share a result (while two
+ * close points on both sides of a cell boundary do not). Points having an
+ * element that cannot be rounded to a cell (NaN, infinite or too large for
+ * the tolerance) are then calculated without being cached.
+ * <p>
+ * The same instance can be used by any number of threads (a result missing
+ * from the cache may then be calculated by more than one of them).
+ */
+public class KKTPMCache {
+
+    // The largest grid cell an element of x is rounded to (beyond which
+    // Math.round(...) saturates)
+    private static final double MAX_CELL = 0x1p62;
+
+    private final int capacity;
+    private final double tolerance;
+    private final Map<Key, Double> results;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a cache comparing points by the bit patterns of their values.
+     *
+     * @param capacity the maximum number of cached results
+     */
+    public KKTPMCache(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * Creates a cache comparing the elements of x up to a tolerance.
+     *
+     * @param capacity the maximum number of cached results
+     * @param tolerance the size of the cells of the grid x is rounded to (zero
+     * to compare the bit patterns)
+     */
+    public KKTPMCache(int capacity, double tolerance) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid cache capacity (%d).", capacity));
+        }
+        if (!(tolerance >= 0) || Double.isInfinite(tolerance)) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid cache tolerance (%f).", tolerance));
+        }
+        this.capacity = capacity;
+        this.tolerance = tolerance;
+        // Iterated in access order (least recently used first)
+        this.results = new LinkedHashMap<Key, Double>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Double> eldest) {
+                if (size() > KKTPMCache.this.capacity) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Calculates KKTPM at the current point of a problem (see
+     * {@link KKTPMCalculator#getKKTPM(OptimizationProblem, double[], double)}),
+     * unless it is already cached.
+     *
+     * @param problem encapsulates all the attributes of an optimization
+     * problem.
+     * @param z the ideal point (need not be the true ideal point of the
+     * problem)
+     * @param rho Augmented ASF parameter
+     * @return KKTPM (the number of function evaluations is zero if it was
+     * cached)
+     * @throws EvaluationException
+     * @throws TooManyDecimalPointsException
+     * @throws MisplacedTokensException
+     */
+    public KKTPM getKKTPM(
+            OptimizationProblem problem,
+            double[] z,
+            double rho) throws
+            EvaluationException,
+            TooManyDecimalPointsException,
+            MisplacedTokensException {
+        return getKKTPM2(problem, z, rho, null);
+    }
+
+    /**
+     * Calculates KKTPM at the current point of a problem using the specified
+     * weight vector (see
+     * {@link KKTPMCalculator#getKKTPM2(OptimizationProblem, double[], double, double[])}),
+     * unless it is already cached.
+     *
+     * @param problem encapsulates all the attributes of an optimization
+     * problem.
+     * @param z the ideal point (need not be the true ideal point of the
+     * problem)
+     * @param rho Augmented ASF parameter
+     * @param wStar the weight vector (null for the default one)
+     * @return KKTPM (the number of function evaluations is zero if it was
+     * cached)
+     * @throws EvaluationException
+     * @throws TooManyDecimalPointsException
+     * @throws MisplacedTokensException
+     */
+    public KKTPM getKKTPM2(
+            OptimizationProblem problem,
+            double[] z,
+            double rho,
+            double[] wStar) throws
+            EvaluationException,
+            TooManyDecimalPointsException,
+            MisplacedTokensException {
+        double[] x = new double[problem.getTotalVariablesCount()];
+        KKTPMCalculator.getCurrentPoint(problem, x);
+        long[] values = getValues(x, z, rho, wStar);
+        Key key = values == null
+                ? null : new Key(problem.getModificationStamp(), values);
+        synchronized (this) {
+            Double kktpm = key == null ? null : results.get(key);
+            if (kktpm != null) {
+                hitCount++;
+                return new KKTPM(kktpm, 0);
+            }
+            missCount++;
+        }
+        // Calculated outside of the lock (the problem is not shared anyway)
+        KKTPM kktpm = wStar == null
+                ? KKTPMCalculator.getKKTPM(problem, z, rho)
+                : KKTPMCalculator.getKKTPM2(problem, z, rho, wStar);
+        if (key != null) {
+            synchronized (this) {
+                results.put(key, kktpm.getKktpm());
+            }
+        }
+        return kktpm;
+    }
+
+    /**
+     * @return the maximum number of cached results
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the tolerance used to compare the elements of x (zero if the
+     * bit patterns are compared)
+     */
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * @return the number of calculations answered by the cache
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of calculations that were not cached
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the number of results evicted to keep the cache within its
+     * capacity
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the ratio of hits to all calculations (zero if none)
+     */
+    public synchronized double getHitRate() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Removes all the cached results, and sets the statistics to zero.
+     */
+    public synchronized void clear() {
+        results.clear();
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "%d/%d results, %d hits, %d misses (%.1f%%), %d evictions",
+                results.size(), capacity, hitCount, missCount,
+                100 * getHitRate(), evictionCount);
+    }
+
+    /**
+     * Lays out the values of a key as x (bit patterns or grid cells), then the
+     * length and bit patterns of z and w (a length of -1 for null) and rho.
+     *
+     * @return the values, or null if an element of x has no grid cell
+     */
+    private long[] getValues(double[] x, double[] z, double rho, double[] w) {
+        int zLength = z == null ? 0 : z.length;
+        int wLength = w == null ? 0 : w.length;
+        long[] values = new long[x.length + zLength + wLength + 3];
+        int k = 0;
+        for (double value : x) {
+            if (tolerance == 0) {
+                values[k++] = Double.doubleToLongBits(value);
+            } else {
+                double cell = value / tolerance;
+                // Also false for NaN (which Math.round(...) would map to
+                // the cell of zero)
+                if (!(Math.abs(cell) < MAX_CELL)) {
+                    return null;
+                }
+                values[k++] = Math.round(cell);
+            }
+        }
+        values[k++] = z == null ? -1 : z.length;
+        for (int i = 0; i < zLength; i++) {
+            values[k++] = Double.doubleToLongBits(z[i]);
+        }
+        values[k++] = Double.doubleToLongBits(rho);
+        values[k++] = w == null ? -1 : w.length;
+        for (int i = 0; i < wLength; i++) {
+            values[k++] = Double.doubleToLongBits(w[i]);
+        }
+        return values;
+    }
+
+    private static final class Key {
+
+        private final long modificationStamp;
+        private final long[] values;
+        private final int hash;
+
+        Key(long modificationStamp, long[] values) {
+            this.modificationStamp = modificationStamp;
+            this.values = values;
+            this.hash = 31 * Long.hashCode(modificationStamp)
+                    + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return modificationStamp == other.modificationStamp
+                    && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
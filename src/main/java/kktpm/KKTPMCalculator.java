@@ -9,8 +9,10 @@ import exceptions.EvaluationException;
 import exceptions.MisplacedTokensException;
 import exceptions.TooManyDecimalPointsException;
 
+import java.nio.DoubleBuffer;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import org.apache.commons.math3.exception.DimensionMismatchException;
 import org.apache.commons.math3.exception.NotPositiveException;
 import org.apache.commons.math3.exception.OutOfRangeException;
@@ -20,10 +22,12 @@ import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
-import parsing.Derivative;
 import parsing.KKTPM;
+import parsing.KKTPMComponents;
+import parsing.KKTPMResult;
 import parsing.LagrangeMultipliers;
 import parsing.OptimizationProblem;
+import parsing.SparseJacobian;
 
 /**
  * This class provides a set of methods for calculating all approximations of
@@ -39,11 +43,53 @@ import parsing.OptimizationProblem;
 @SuppressWarnings("Duplicates")
 public class KKTPMCalculator {
 
-    private static String zErrorMessage
+    static String zErrorMessage
             = "The ideal point vector must be either null (for single "
             + "objective problems) or equal in length to the "
             + "number of objectives.";
 
+    // The smallest number of points scored by a single parallel task
+    private static final int MIN_PARALLEL_LEAF_SIZE = 16;
+
+    // Points whose systems have up to this many equations (objectives plus
+    // constraints), and up to SMALL_SYSTEM_VARIABLES_COUNT variables, are
+    // scored by getKKTPM(double[]...) and getSparseKKTPM(double[]...) using
+    // the primitive kernel of a per-thread KKTPMWorkspace, which allocates
+    // nothing (larger systems use the matrix-based methods or a new
+    // workspace, to avoid keeping big buffers alive in each thread: the
+    // buffers of a workspace grow with the number of equations times the
+    // number of variables). When the dot products of the workspace use the
+    // Vector API (see DenseKernels), points having up to
+    // VECTORIZED_SYSTEM_VARIABLES_COUNT variables are scored by the workspace
+    static final int SMALL_SYSTEM_SIZE = 32;
+    static final int SMALL_SYSTEM_VARIABLES_COUNT = 256;
+    static final int VECTORIZED_SYSTEM_VARIABLES_COUNT = 1024;
+
+    private static final ThreadLocal<KKTPMWorkspace> smallSystemWorkspace
+            = new ThreadLocal<>();
+
+    // Receives the timings and counters of all the calculations
+    private static volatile KKTPMMetrics metrics = KKTPMMetrics.NONE;
+
+    /**
+     * Sets the metrics receiving the time spent in each phase of all the
+     * subsequent calculations (of all threads), and the counts of their
+     * events (see {@link KKTPMMetrics}).
+     *
+     * @param metrics the metrics, or null to stop recording metrics
+     */
+    public static void setMetrics(KKTPMMetrics metrics) {
+        KKTPMCalculator.metrics = metrics == null ? KKTPMMetrics.NONE : metrics;
+    }
+
+    /**
+     * @return the metrics receiving the timings and counters (KKTPMMetrics.NONE
+     * by default)
+     */
+    public static KKTPMMetrics getMetrics() {
+        return metrics;
+    }
+
     // <editor-fold defaultstate="collapsed" desc="Lagrange Multipliers">
     public static LagrangeMultipliers getLagrangeMultipliers(
             OptimizationProblem problem,
@@ -160,20 +206,7 @@ public class KKTPMCalculator {
         } else if (z.length != f.length) {
             throw new IllegalArgumentException(zErrorMessage);
         }
-        RealVector xv = new ArrayRealVector(x);
-        RealVector fv = new ArrayRealVector(f);
-        RealVector gv = new ArrayRealVector(g);
-        // Calculate the weight
-        RealVector w;
-        if (fv.getDimension() == 1) {
-            w = new ArrayRealVector(new double[]{1});
-        } else {
-            RealVector zv = new ArrayRealVector(z);
-            RealVector zf = fv.subtract(zv);
-            double norm = zf.getNorm();
-            w = zf.mapDivide(norm);
-        }
-        return getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho, w.toArray());
+        return getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho, getWeight(f, z));
     }
 
     /**
@@ -201,6 +234,38 @@ public class KKTPMCalculator {
             double[][] jacobianG,
             double rho,
             double[] w) {
+        return getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho, w,
+                MultiplierSolver.LU);
+    }
+
+    /**
+     * Calculates and returns the set of Lagrange multipliers at the specified
+     * point, using the specified method to solve the system of linear
+     * equations (see {@link MultiplierSolver}).
+     *
+     * @param x the specified at which the direct KKTPM should be calculated.
+     * @param f objective functions values at the specified point.
+     * @param z the ideal point used to calculate the direct KKTPM.
+     * @param g constraints values at the specified point.
+     * @param jacobianF partial derivatives of all objectives with respect to
+     * all variables at the specified point.
+     * @param jacobianG partial derivatives of all constraints with respect to
+     * all variables at the specified point.
+     * @param rho Augmented ASF (AASF) parameter
+     * @param w weight vector (direction) based on which the Lagrange multipliers are calculated
+     * @param multiplierSolver the method used to solve the system
+     * @return the vector of Lagrange multipliers at the specified point
+     */
+    public static double[] getLagrangeMultipliers(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho,
+            double[] w,
+            MultiplierSolver multiplierSolver) {
         if (z == null) {
             if (f.length != 1) {
                 throw new IllegalArgumentException(zErrorMessage);
@@ -208,37 +273,108 @@ public class KKTPMCalculator {
         } else if (z.length != f.length) {
             throw new IllegalArgumentException(zErrorMessage);
         }
-        RealVector xv = new ArrayRealVector(x);
-        RealVector fv = new ArrayRealVector(f);
         RealVector gv = new ArrayRealVector(g);
-        RealVector wv = new ArrayRealVector(w);
-        // Objective partial derivatives
-        RealMatrix jacobianFMatrix = MatrixUtils.createRealMatrix(jacobianF);
-        // Constraints partial derivatives
-        RealMatrix jacobianGMatrix = MatrixUtils.createRealMatrix(jacobianG);
-        // Form A_m
-        RealMatrix am = MatrixUtils.createRealMatrix(fv.getDimension(), xv.getDimension());
-        for (int i = 0; i < jacobianFMatrix.getRowDimension(); i++) {
-            RealVector amRow = jacobianFMatrix.getRowVector(i).mapMultiply(1 / wv.getEntry(i));
-            // AASF (Augmented ASF)
-            RealVector aasfTermVector = new ArrayRealVector(xv.getDimension());
-            for (int j = 0; j < aasfTermVector.getDimension(); j++) {
-                RealVector ones = new ArrayRealVector(/*aasfTermVector.getDimension()*/wv.getDimension(), 1);
-                RealVector oneOverW = ones.ebeDivide(wv);
-                aasfTermVector.setEntry(j, rho * oneOverW.dotProduct(jacobianFMatrix.getColumnVector(j)));
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
+        RealMatrix am = formAm(jacobianF, w, rho, x.length);
+        RealMatrix aj = formAj(jacobianG, x.length);
+        stopTiming(metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        return solveLagrangeMultipliers(am, aj, gv, multiplierSolver, null);
+    }
+
+    /**
+     * Calculates and returns the set of Lagrange multipliers at the specified
+     * point, starting from a guess of the multipliers that are zero (the
+     * active set), typically those of the same point in the previous
+     * generation (see getActiveSet(...)). The equations of these multipliers
+     * are removed before the system is solved for the first time, and any
+     * remaining negative multiplier is removed as usual. The result is then
+     * verified: if freeing any of the zero multipliers would improve the
+     * solution, the guess was wrong and the system is solved again from
+     * scratch. So a right guess needs a single factorization, while a wrong
+     * one costs all the factorizations of the guessed attempt (one, plus one
+     * per negative multiplier removed on top of the guess) in addition to
+     * those of the calculation without a guess.
+     * <p>
+     * A verified result is the unique solution of the bounded system, which
+     * is also what getLagrangeMultipliers(...) returns whenever its own
+     * result is optimal (i.e. nearly always).
+     *
+     * @param x the specified at which the direct KKTPM should be calculated.
+     * @param f objective functions values at the specified point.
+     * @param z the ideal point used to calculate the direct KKTPM.
+     * @param g constraints values at the specified point.
+     * @param jacobianF partial derivatives of all objectives with respect to
+     * all variables at the specified point.
+     * @param jacobianG partial derivatives of all constraints with respect to
+     * all variables at the specified point.
+     * @param rho Augmented ASF (AASF) parameter
+     * @param activeSetHint whether each multiplier is expected to be zero (the
+     * objectives first, followed by the constraints)
+     * @return the vector of Lagrange multipliers at the specified point
+     */
+    public static double[] getLagrangeMultipliers(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho,
+            boolean[] activeSetHint) {
+        if (z == null) {
+            if (f.length != 1) {
+                throw new IllegalArgumentException(zErrorMessage);
             }
-            am.setRowVector(i, amRow.add(aasfTermVector));
+        } else if (z.length != f.length) {
+            throw new IllegalArgumentException(zErrorMessage);
         }
-        // Form A_j
-        RealMatrix aj = MatrixUtils.createRealMatrix(gv.getDimension(), xv.getDimension());
-        for (int i = 0; i < jacobianGMatrix.getRowDimension(); i++) {
-            aj.setRowVector(i, jacobianGMatrix.getRowVector(i));
+        if (activeSetHint.length != f.length + g.length) {
+            throw new IllegalArgumentException(String.format(
+                    "The active set hint must have %d elements.",
+                    f.length + g.length));
         }
+        RealVector gv = new ArrayRealVector(g);
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
+        RealMatrix am = formAm(jacobianF, getWeight(f, z), rho, x.length);
+        RealMatrix aj = formAj(jacobianG, x.length);
+        stopTiming(metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        return solveLagrangeMultipliers(
+                am, aj, gv, MultiplierSolver.LU, activeSetHint);
+    }
+
+    /**
+     * @param lagrangeMultipliers Lagrange multipliers
+     * @return whether each multiplier is zero (the active set), e.g. to be
+     * used as the active set hint of the next calculation at the same point
+     */
+    public static boolean[] getActiveSet(double[] lagrangeMultipliers) {
+        boolean[] activeSet = new boolean[lagrangeMultipliers.length];
+        for (int i = 0; i < activeSet.length; i++) {
+            activeSet[i] = lagrangeMultipliers[i] == 0;
+        }
+        return activeSet;
+    }
+
+    /**
+     * Solves the system of linear equations of the Lagrange multipliers, once
+     * A_m and A_j are formed, optionally starting from an active set (null if
+     * there is no hint).
+     */
+    private static double[] solveLagrangeMultipliers(
+            RealMatrix am,
+            RealMatrix aj,
+            RealVector gv,
+            MultiplierSolver multiplierSolver,
+            boolean[] activeSetHint) {
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
         // Form the big matrix used later for factorization
         // Start by forming the four sub-matrices
         RealMatrix topLeft = am.multiply(am.transpose()).add(
                 MatrixUtils.createRealMatrix(
-                        fv.getDimension(), fv.getDimension()).scalarAdd(1));
+                        am.getRowDimension(), am.getRowDimension()).scalarAdd(1));
         RealMatrix topRight = am.multiply(aj.transpose());
         RealMatrix bottomLeft = aj.multiply(am.transpose());
         RealMatrix bottomRight = aj.multiply(aj.transpose()).add(MatrixUtils.createRealDiagonalMatrix(gv.ebeMultiply(gv).toArray()));
@@ -277,52 +413,125 @@ public class KKTPMCalculator {
             }
         }
         // Create (b), the right-hand-side vector
-        RealVector b = new ArrayRealVector(fv.getDimension() + gv.getDimension());
-        for (int i = 0; i < fv.getDimension(); i++) {
+        RealVector b = new ArrayRealVector(am.getRowDimension() + gv.getDimension());
+        for (int i = 0; i < am.getRowDimension(); i++) {
             b.addToEntry(i, 1);
         }
+        stopTiming(metrics, KKTPMMetrics.Phase.GRAM_ASSEMBLY, start);
+        long activeSetStart = startTiming(metrics);
+        double[] u = solveNonNegative(
+                bigA, b, multiplierSolver, activeSetHint, metrics);
+        stopTiming(metrics, KKTPMMetrics.Phase.ACTIVE_SET, activeSetStart);
+        return u;
+    }
+
+    /**
+     * Solves the system of linear equations (bigA)(u) = (b) so that each
+     * multiplier must be non-negative (bigA and b are modified).
+     */
+    private static double[] solveNonNegative(
+            RealMatrix bigA,
+            RealVector b,
+            MultiplierSolver multiplierSolver,
+            boolean[] activeSetHint,
+            KKTPMMetrics metrics) {
         // Solve the system of linear equations (bigA)(u) = (b) so that each
         // multiplier must be non-negative.
+        if (multiplierSolver == MultiplierSolver.NNLS) {
+            double[] uArray = new double[b.getDimension()];
+            NonNegativeSolver nonNegativeSolver
+                    = new NonNegativeSolver(uArray.length);
+            if (nonNegativeSolver.solve(bigA.getData(), b.toArray(), uArray)) {
+                metrics.increment(KKTPMMetrics.Counter.ACTIVE_SET_ITERATIONS,
+                        nonNegativeSolver.getIterations());
+                return uArray;
+            }
+            // Could not be solved (LU is used instead)
+        }
+        if (activeSetHint != null) {
+            // Start from the hinted active set, keeping the full system to
+            // verify the solution
+            RealMatrix fullA = bigA.copy();
+            RealVector fullB = b.copy();
+            for (int i = 0; i < activeSetHint.length; i++) {
+                if (activeSetHint[i]) {
+                    removeEquation(bigA, b, i);
+                }
+            }
+            double[] u = removeNegativeMultipliers(
+                    bigA, b, multiplierSolver, metrics);
+            if (NonNegativeSolver.isOptimal(
+                    fullA.getData(), fullB.toArray(), u)) {
+                return u;
+            }
+            // Wrong hint (start over from the full system)
+            metrics.increment(KKTPMMetrics.Counter.ACTIVE_SET_ITERATIONS, 1);
+            bigA = fullA;
+            b = fullB;
+        }
+        return removeNegativeMultipliers(bigA, b, multiplierSolver, metrics);
+    }
+
+    /**
+     * Solves (bigA)(u) = (b), removing the equation of the first negative
+     * multiplier and re-solving until no negative multipliers are left (bigA
+     * and b are modified).
+     */
+    private static double[] removeNegativeMultipliers(
+            RealMatrix bigA,
+            RealVector b,
+            MultiplierSolver multiplierSolver,
+            KKTPMMetrics metrics) {
+        if (multiplierSolver == MultiplierSolver.CHOLESKY) {
+            // Factorize once, then update the factorization each time an
+            // equation is removed
+            CholeskyFactorization cholesky
+                    = new CholeskyFactorization(bigA.getRowDimension());
+            long start = startTiming(metrics);
+            if (cholesky.factorize(bigA.getData())) {
+                double[] bArray = b.toArray();
+                double[] uArray = new double[bArray.length];
+                int iterations = 0;
+                while (true) {
+                    cholesky.solve(bArray, uArray);
+                    stopTiming(metrics, KKTPMMetrics.Phase.LINEAR_SOLVE, start);
+                    int firstNegativeIndex = getFirstNegativeMultipierIndex(
+                            new ArrayRealVector(uArray, false));
+                    if (firstNegativeIndex == -1) {
+                        metrics.increment(
+                                KKTPMMetrics.Counter.ACTIVE_SET_ITERATIONS,
+                                iterations);
+                        return uArray;
+                    }
+                    start = startTiming(metrics);
+                    cholesky.remove(firstNegativeIndex);
+                    bArray[firstNegativeIndex] = 0;
+                    iterations++;
+                }
+            }
+            // Not positive definite (LU is used instead)
+        }
         int tmpCounter = 0;
         RealVector u;
         while (true) {
+            long start = startTiming(metrics);
             // Solve
             DecompositionSolver solver = new LUDecomposition(bigA, 1e-100).getSolver();
 
             // Solve the system of linear equations
             u = solver.solve(b);
-
-//            // TO-BE-REMOVED-START
-//            System.out.print("u = [");
-//            for (int i = 0; i < u.getDimension(); i++) {
-//                System.out.format("%20.15f", u.getEntry(i));
-//                if (i == u.getDimension() - 1) {
-//                    System.out.println("];");
-//                } else {
-//                    System.out.print(" ");
-//                }
-//            }
-//            // TO-BE-REMOVED-END
+            stopTiming(metrics, KKTPMMetrics.Phase.LINEAR_SOLVE, start);
             // If a negative multiplier exists, remove its equation and re-solve.
             int firstNonZeroIndex = getFirstNegativeMultipierIndex(u);
             if (firstNonZeroIndex == -1) {
                 break;
             } else {
-                // Set all corresponding row values to Zero
-                for (int i = 0; i < bigA.getColumnDimension(); i++) {
-                    bigA.setEntry(firstNonZeroIndex, i, 0);
-                }
-                // Set all corresponding column values to zero
-                for (int i = 0; i < bigA.getRowDimension(); i++) {
-                    bigA.setEntry(i, firstNonZeroIndex, 0);
-                }
-                // Set the intersection between column and row to one (for some reason)
-                bigA.setEntry(firstNonZeroIndex, firstNonZeroIndex, 1);
-                // Set the corresponding value in vector b to Zero
-                b.setEntry(firstNonZeroIndex, 0);
+                removeEquation(bigA, b, firstNonZeroIndex);
             }
             tmpCounter++;
         }
+        metrics.increment(
+                KKTPMMetrics.Counter.ACTIVE_SET_ITERATIONS, tmpCounter);
         // Return vector (u)
         return u.toArray();
     }
@@ -459,7 +668,8 @@ public class KKTPMCalculator {
 //    }
 
     /**
-     * Calculates direct KKTPM at the specified point.
+     * Calculates direct KKTPM at the specified point (like the other components,
+     * using the single pass of getKKTPMComponents(...)).
      *
      * @param x the specified point in design/decision space
      * @param f the specified point in objective space
@@ -478,9 +688,7 @@ public class KKTPMCalculator {
             double[][] jacobianF,
             double[][] jacobianG,
             double rho) {
-        double[] u = getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho);
-        //return getDirectKKTPM(f, g, u);
-        return getDirectKKTPM(x, f, z, g, jacobianF, jacobianG, u, rho);
+        return getKKTPMComponents(x, f, z, g, jacobianF, jacobianG, rho).getDirect();
     }
 
     public static double getDirectKKTPM(
@@ -588,18 +796,7 @@ public class KKTPMCalculator {
             double[][] jacobianG,
             double[] u,
             double rho) {
-        RealVector fv = new ArrayRealVector(f);
-        // Calculate the weight
-        RealVector wv;
-        if (fv.getDimension() == 1) {
-            wv = new ArrayRealVector(new double[]{1});
-        } else {
-            RealVector zv = new ArrayRealVector(z);
-            RealVector zf = fv.subtract(zv);
-            double norm = zf.getNorm();
-            wv = zf.mapDivide(norm);
-        }
-        return getDirectKKTPM(x, f, z, g, jacobianF, jacobianG, u, rho, wv.toArray());
+        return getDirectKKTPM(x, f, z, g, jacobianF, jacobianG, u, rho, getWeight(f, z));
     }
 
     /**
@@ -631,36 +828,24 @@ public class KKTPMCalculator {
             DimensionMismatchException,
             OutOfRangeException,
             NotPositiveException {
-        RealVector xv = new ArrayRealVector(x);
-        RealVector fv = new ArrayRealVector(f);
-        RealVector gv = new ArrayRealVector(g);
         RealVector uv = new ArrayRealVector(u);
-        RealVector wv = new ArrayRealVector(w);
-        // Objective partial derivatives
-        RealMatrix jacobianFMatrix = MatrixUtils.createRealMatrix(jacobianF);
-        // Constraints partial derivatives
-        RealMatrix jacobianGMatrix = MatrixUtils.createRealMatrix(jacobianG);
-        // Form A_m
-        RealMatrix am = MatrixUtils.createRealMatrix(fv.getDimension(), xv.getDimension());
-        for (int i = 0; i < jacobianFMatrix.getRowDimension(); i++) {
-            RealVector amRow = jacobianFMatrix.getRowVector(i).mapMultiply(1 / wv.getEntry(i));
-            // AASF (Augmented ASF)
-            RealVector aasfTermVector = new ArrayRealVector(xv.getDimension());
-            for (int j = 0; j < aasfTermVector.getDimension(); j++) {
-                RealVector ones = new ArrayRealVector(/*aasfTermVector.getDimension()*/wv.getDimension(), 1);
-                RealVector oneOverW = ones.ebeDivide(wv);
-                aasfTermVector.setEntry(j, rho * oneOverW.dotProduct(jacobianFMatrix.getColumnVector(j)));
-            }
-            am.setRowVector(i, amRow.add(aasfTermVector));
-        }
-        // Form A_j
-        RealMatrix aj = MatrixUtils.createRealMatrix(gv.getDimension(), xv.getDimension());
-        for (int i = 0; i < jacobianGMatrix.getRowDimension(); i++) {
-            aj.setRowVector(i, jacobianGMatrix.getRowVector(i));
-        }
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
+        RealMatrix am = formAm(jacobianF, w, rho, x.length);
+        RealMatrix aj = formAj(jacobianG, x.length);
+        stopTiming(metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        return getDirectKKTPM(am, aj, uv);
+    }
 
+    /**
+     * Calculates direct KKTPM, given A_m, A_j and the Lagrange multipliers.
+     */
+    private static double getDirectKKTPM(
+            RealMatrix am,
+            RealMatrix aj,
+            RealVector uv) {
         // Get um out of uv
-        RealVector um = uv.getSubVector(0, fv.getDimension());
+        RealVector um = uv.getSubVector(0, am.getRowDimension());
         // Get the summation of elements in um
         double umSum = 0;
         for (int i = 0; i < um.getDimension(); i++) {
@@ -681,7 +866,7 @@ public class KKTPMCalculator {
             }
         }
         // Perform the multiplication [am;aj]'*uvecn
-        RealVector tempV = amaj.transpose().operate(uv);
+        RealVector tempV = amaj.preMultiply(uv);
         // Sum the squares of the values in tempV
         double sumV = 0;
         for (int i = 0; i < tempV.getDimension(); i++) {
@@ -836,7 +1021,8 @@ public class KKTPMCalculator {
     }
 
     /**
-     * Calculates projected KKTPM at the specified point.
+     * Calculates projected KKTPM at the specified point (like the other components,
+     * using the single pass of getKKTPMComponents(...)).
      *
      * @param x the specified point in design/decision space
      * @param f the specified point in objective space
@@ -855,10 +1041,7 @@ public class KKTPMCalculator {
             double[][] jacobianF,
             double[][] jacobianG,
             double rho) {
-        double[] u = getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho);
-        //double kktpmDirect = getDirectKKTPM(f, g, u);
-        double kktpmDirect = getDirectKKTPM(x, f, z, g, jacobianF, jacobianG, u, rho);
-        return getProjectedKKTPM(f, g, u, kktpmDirect);
+        return getKKTPMComponents(x, f, z, g, jacobianF, jacobianG, rho).getProjected();
     }
 
     public static double getProjectedKKTPM2(
@@ -1068,7 +1251,8 @@ public class KKTPMCalculator {
     }
 
     /**
-     * Calculates adjusted KKTPM at the specified point.
+     * Calculates adjusted KKTPM at the specified point (like the other components,
+     * using the single pass of getKKTPMComponents(...)).
      *
      * @param x the specified point in design/decision space
      * @param f the specified point in objective space
@@ -1087,8 +1271,7 @@ public class KKTPMCalculator {
             double[][] jacobianF,
             double[][] jacobianG,
             double rho) {
-        double[] u = getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho);
-        return getAdjustedKKTPM(f, g, u);
+        return getKKTPMComponents(x, f, z, g, jacobianF, jacobianG, rho).getAdjusted();
     }
 
     public static double getAdjustedKKTPM2(
@@ -1391,7 +1574,11 @@ public class KKTPMCalculator {
     }
 
     /**
-     * Calculates KKTPM at the specified point.
+     * Calculates KKTPM at the specified point. Points having a small number
+     * of variables, objectives and constraints are scored by the
+     * allocation-free kernel of a {@link KKTPMWorkspace} kept by the calling
+     * thread (the results are the same). Callers scoring many points can also
+     * create and reuse their own workspace.
      *
      * @param x the specified point in design/decision space
      * @param f the specified point in objective space
@@ -1410,22 +1597,16 @@ public class KKTPMCalculator {
             double[][] jacobianF,
             double[][] jacobianG,
             double rho) {
-        double[] u = getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, rho);
-        //double kktpmDirect = getDirectKKTPM(f, g, u);
-        double kktpmDirect = getDirectKKTPM(x, f, z, g, jacobianF, jacobianG, u, rho);
-        // Check if you need the approximation
-        if (isApproximationRequired(u, g)) {
-            double kktpmAdjusted = getAdjustedKKTPM(f, g, u);
-            double kktpmProjected = getProjectedKKTPM(f, g, u, kktpmDirect);
-            return (kktpmDirect + kktpmAdjusted + kktpmProjected) / 3;
-        } else {
-            return kktpmDirect;
+        if (isSmallSystem(x.length, f.length, g.length)) {
+            // Same results, without the overhead of RealMatrix/RealVector
+            return getSmallSystemWorkspace(x.length, f.length, g.length)
+                    .getKKTPM(x, f, z, g, jacobianF, jacobianG, rho);
         }
-//        if (kktpmAdjusted > kktpmDirect) {
-//            return (kktpmDirect + kktpmAdjusted + kktpmProjected) / 3;
-//        } else {
-//            return kktpmDirect;
-//        }
+        KKTPMResult result = getKKTPMResult(x, f, z, g, jacobianF, jacobianG, rho);
+        if (result.isApproximation()) {
+            metrics.increment(KKTPMMetrics.Counter.APPROXIMATIONS, 1);
+        }
+        return result.getKktpm();
     }
 
     public static double getKKTPM2(
@@ -1442,6 +1623,7 @@ public class KKTPMCalculator {
         double kktpmDirect = getDirectKKTPM(x, f, z, g, jacobianF, jacobianG, u, rho, wStar);
         // Check if you need the approximation
         if (isApproximationRequired(u, g)) {
+            metrics.increment(KKTPMMetrics.Counter.APPROXIMATIONS, 1);
             double kktpmAdjusted = getAdjustedKKTPM2(f, g, u, z, wStar);
             double kktpmProjected = getProjectedKKTPM2(f, g, u, kktpmDirect, z, wStar);
             return (kktpmDirect + kktpmAdjusted + kktpmProjected) / 3;
@@ -1456,7 +1638,594 @@ public class KKTPMCalculator {
     }
     // </editor-fold>
 
+    // <editor-fold defaultstate="collapsed" desc="All KKTPM Components">
+    /**
+     * Calculates direct, adjusted, projected and approximate KKTPM at the
+     * specified point in a single pass. A_m and A_j are formed only once, and
+     * used by both the system of the Lagrange multipliers and the direct
+     * KKTPM. The weight vector is defaulted to w = (f - z) / ||f - z|| (or
+     * w = 1 for single objective problems).
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @param rho Augmented ASF (AASF) parameter
+     * @return all the KKTPM approximations at the specified point
+     */
+    public static KKTPMComponents getKKTPMComponents(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho) {
+        if (z == null) {
+            if (f.length != 1) {
+                throw new IllegalArgumentException(zErrorMessage);
+            }
+        } else if (z.length != f.length) {
+            throw new IllegalArgumentException(zErrorMessage);
+        }
+        return getKKTPMResult(x, f, z, g, jacobianF, jacobianG, rho, getWeight(f, z), 0);
+    }
+
+    /**
+     * Calculates direct, adjusted, projected and approximate KKTPM at the
+     * specified point in a single pass, using the specified weight vector.
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @param rho Augmented ASF (AASF) parameter
+     * @param w the weight vector (direction) based on which all calculations will be performed
+     * @return all the KKTPM approximations at the specified point
+     */
+    public static KKTPMComponents getKKTPMComponents(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho,
+            double[] w) {
+        if (z == null) {
+            if (f.length != 1) {
+                throw new IllegalArgumentException(zErrorMessage);
+            }
+        } else if (z.length != f.length) {
+            throw new IllegalArgumentException(zErrorMessage);
+        }
+        return getKKTPMResult(x, f, z, g, jacobianF, jacobianG, rho, w, 0);
+    }
+
+    /**
+     * Calculates everything KKTPM is made of at the current point of a
+     * problem, from a single evaluation of the problem and a single solution
+     * of the Lagrange multipliers: direct, adjusted, projected and
+     * approximate KKTPM, the multipliers, the weight vector, the size of the
+     * active set and whether the approximation is used (see
+     * {@link KKTPMResult}). The final KKTPM is the same as the KKTPM returned
+     * by getKKTPM(OptimizationProblem, double[], double).
+     *
+     * @param problem encapsulates all the attributes of an optimization
+     * problem.
+     * @param z the ideal point (need not be the true ideal point of the
+     * problem)
+     * @param rho Augmented ASF parameter
+     * @return the result of the evaluation
+     * @throws EvaluationException
+     */
+    public static KKTPMResult getKKTPMResult(
+            OptimizationProblem problem,
+            double[] z,
+            double rho) throws EvaluationException {
+        // The ideal point must be either null (for single objective problems)
+        // or equal in length to the number of objectives.
+        if (z != null && z.length != problem.getObjectivesCount()) {
+            throw new IllegalArgumentException(zErrorMessage);
+        }
+        int varCount = problem.getTotalVariablesCount();
+        int objCount = problem.getObjectivesCount();
+        int conCount = problem.getConstraintsCount();
+        double[] x = new double[varCount];
+        double[] f = new double[objCount];
+        double[] g = new double[conCount];
+        double[][] jacobianF
+                = new double[objCount][varCount];
+        double[][] jacobianG
+                = new double[conCount][varCount];
+        // Extract problem information
+        int numericalFunEval = extractProblemInfo(problem, x, objCount, f, conCount, g, jacobianF, jacobianG);
+        return getKKTPMResult(x, f, z, g, jacobianF, jacobianG, rho,
+                getWeight(f, z), numericalFunEval);
+    }
+
+    /**
+     * Calculates everything KKTPM is made of at the specified point, solving
+     * for the Lagrange multipliers only once (see {@link KKTPMResult}). The
+     * weight vector is defaulted to w = (f - z) / ||f - z|| (or w = 1 for
+     * single objective problems).
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the result of the calculation
+     */
+    public static KKTPMResult getKKTPMResult(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho) {
+        if (z == null) {
+            if (f.length != 1) {
+                throw new IllegalArgumentException(zErrorMessage);
+            }
+        } else if (z.length != f.length) {
+            throw new IllegalArgumentException(zErrorMessage);
+        }
+        return getKKTPMResult(x, f, z, g, jacobianF, jacobianG, rho, getWeight(f, z), 0);
+    }
+
+    private static KKTPMResult getKKTPMResult(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho,
+            double[] w,
+            int numericalFunEval) {
+        RealVector gv = new ArrayRealVector(g);
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
+        RealMatrix am = formAm(jacobianF, w, rho, x.length);
+        RealMatrix aj = formAj(jacobianG, x.length);
+        stopTiming(metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        double[] u = solveLagrangeMultipliers(am, aj, gv, MultiplierSolver.LU, null);
+        double kktpmDirect = getDirectKKTPM(am, aj, new ArrayRealVector(u, false));
+        double kktpmAdjusted = getAdjustedKKTPM(f, g, u);
+        double kktpmProjected = getProjectedKKTPM(f, g, u, kktpmDirect);
+        double kktpm;
+        // Check if you need the approximation
+        boolean approximation = isApproximationRequired(u, g);
+        if (approximation) {
+            kktpm = (kktpmDirect + kktpmAdjusted + kktpmProjected) / 3;
+        } else {
+            kktpm = kktpmDirect;
+        }
+        return new KKTPMResult(kktpmDirect, kktpmAdjusted, kktpmProjected,
+                kktpm, u, w, approximation, numericalFunEval);
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Sparse KKTPM">
+    /**
+     * Calculates and returns the KKTPM at the specified point (x-vector) using
+     * sparse Jacobians. (assumes rho = 0.0)
+     *
+     * @param problem encapsulates all the attributes of an optimization
+     * problem.
+     * @param z the ideal point (need not be the true ideal point of the
+     * problem)
+     * @return value of the KKTPM
+     * @throws EvaluationException
+     */
+    public static KKTPM getSparseKKTPM(
+            OptimizationProblem problem,
+            double[] z) throws EvaluationException {
+        return getSparseKKTPM(problem, z, 0.0);
+    }
+
+    /**
+     * Calculates and returns the KKTPM at the specified point (x-vector). The
+     * Jacobians are evaluated in sparse format (see
+     * {@link OptimizationProblem#createObjectivesJacobian()}), so partial
+     * derivatives that are structural zeros (e.g. the zero derivatives of
+     * bound constraints) are neither evaluated nor multiplied when forming
+     * the system of linear equations of the Lagrange multipliers. The result
+     * is the same as that of {@link #getKKTPM(OptimizationProblem, double[],
+     * double)}.
+     *
+     * @param problem encapsulates all the attributes of an optimization
+     * problem.
+     * @param z the ideal point (need not be the true ideal point of the
+     * problem)
+     * @param rho Augmented ASF parameter
+     * @return value of the KKTPM
+     * @throws EvaluationException
+     */
+    public static KKTPM getSparseKKTPM(
+            OptimizationProblem problem,
+            double[] z,
+            double rho) throws EvaluationException {
+        // The ideal point must be either null (for single objective problems)
+        // or equal in length to the number of objectives.
+        if (z != null && z.length != problem.getObjectivesCount()) {
+            throw new IllegalArgumentException(zErrorMessage);
+        }
+        int varCount = problem.getTotalVariablesCount();
+        int objCount = problem.getObjectivesCount();
+        int conCount = problem.getConstraintsCount();
+        double[] x = new double[varCount];
+        double[] f = new double[objCount];
+        double[] g = new double[conCount];
+        SparseJacobian jacobianF = problem.createObjectivesJacobian();
+        SparseJacobian jacobianG = problem.createConstraintsJacobian();
+        // Extract problem information
+        getCurrentPoint(problem, x);
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
+        int numericalFunEval = problem.evaluateAll(
+                x, f, g, jacobianF, jacobianG);
+        stopTiming(metrics, KKTPMMetrics.Phase.PROBLEM_EVALUATION, start);
+        metrics.increment(
+                KKTPMMetrics.Counter.NUMERICAL_EVALUATIONS, numericalFunEval);
+        // Calculate and return the final KKTPM
+        double kktpm = getSparseKKTPM(x, f, z, g, jacobianF, jacobianG, rho);
+        return new KKTPM(kktpm, numericalFunEval);
+    }
+
+    /**
+     * Calculates KKTPM given sparse Jacobians (see
+     * {@link KKTPMWorkspace#getKKTPM(double[], double[], double[], double[],
+     * SparseJacobian, SparseJacobian, double)}). Like
+     * {@link #getKKTPM(double[], double[], double[], double[], double[][],
+     * double[][], double)}, points having a small number of variables,
+     * objectives and constraints reuse the workspace kept by the calling
+     * thread.
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @param rho Augmented ASF parameter
+     * @return KKTPM
+     */
+    public static double getSparseKKTPM(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            SparseJacobian jacobianF,
+            SparseJacobian jacobianG,
+            double rho) {
+        KKTPMWorkspace workspace = isSmallSystem(x.length, f.length, g.length)
+                ? getSmallSystemWorkspace(x.length, f.length, g.length)
+                : new KKTPMWorkspace(x.length, f.length, g.length);
+        return workspace.getKKTPM(x, f, z, g, jacobianF, jacobianG, rho);
+    }
+    // </editor-fold>
+
+    // <editor-fold defaultstate="collapsed" desc="Batch KKTPM">
+    /**
+     * Calculates KKTPM for a whole population of points at once. All the points
+     * must have the same number of variables, objectives and constraints. A
+     * single set of scratch buffers (a {@link KKTPMWorkspace}) is allocated and
+     * reused for all the points, which removes the per-point setup cost and
+     * garbage of {@link #getKKTPM(double[], double[], double[], double[],
+     * double[][], double[][], double)}. The result of each point is identical
+     * to the result of the latter method (unless the dot products use the
+     * Vector API, see {@link DenseKernels}, in which case it may differ in
+     * the last bits).
+     *
+     * @param x decision space points (one row per point)
+     * @param f objective space points (one row per point)
+     * @param g constraints values (one row per point)
+     * @param jacobianF matrix of objectives first derivatives of each point
+     * @param jacobianG matrix of constraints first derivatives of each point
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the KKTPM of each point (in the same order as the input)
+     */
+    public static double[] getKKTPMBatch(
+            double[][] x,
+            double[][] f,
+            double[][] g,
+            double[][][] jacobianF,
+            double[][][] jacobianG,
+            double[] z,
+            double rho) {
+        checkPopulationSizes(x, f, g, jacobianF, jacobianG);
+        double[] kktpm = new double[x.length];
+        if (x.length == 0) {
+            return kktpm;
+        }
+        KKTPMWorkspace workspace = new KKTPMWorkspace(
+                x[0].length, f[0].length, g[0].length);
+        for (int i = 0; i < x.length; i++) {
+            kktpm[i] = workspace.getKKTPM(
+                    x[i], f[i], z, g[i], jacobianF[i], jacobianG[i], rho);
+        }
+        return kktpm;
+    }
+
+    /**
+     * Calculates KKTPM for a whole population stored column by column (see
+     * {@link ColumnarPopulation}). Points are scored in blocks: all the steps
+     * except the system of the Lagrange multipliers are carried out for all
+     * the points of a block together, reading the contiguous values of
+     * consecutive points. The result of each point is identical to the result
+     * of {@link #getKKTPM(double[], double[], double[], double[], double[][],
+     * double[][], double)} (unless the dot products use the Vector API, see
+     * {@link DenseKernels}, in which case it may differ in the last bits).
+     *
+     * @param population the points
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the KKTPM of each point (in the same order as the input)
+     */
+    public static double[] getKKTPMBatch(
+            ColumnarPopulation population,
+            double[] z,
+            double rho) {
+        if (z == null) {
+            if (population.getObjCount() != 1) {
+                throw new IllegalArgumentException(zErrorMessage);
+            }
+        } else if (z.length != population.getObjCount()) {
+            throw new IllegalArgumentException(zErrorMessage);
+        }
+        double[] kktpm = new double[population.getPopSize()];
+        if (kktpm.length == 0) {
+            return kktpm;
+        }
+        BlockKKTPMKernel kernel = new BlockKKTPMKernel(
+                population.getVarCount(),
+                population.getObjCount(),
+                population.getConCount());
+        kernel.getKKTPM(population, z, rho, kktpm, 0, kktpm.length);
+        return kktpm;
+    }
+
+    /**
+     * Calculates KKTPM for all the points stored in a buffer, from its current
+     * position to its limit (see {@link PointRecords} for the layout), and
+     * writes the results to another buffer. Both buffers may be off-heap
+     * (direct or memory-mapped), in which case the population never resides
+     * on the heap: each record is read straight into the scratch buffers of a
+     * single {@link KKTPMWorkspace}. The result of each point is identical to
+     * the result of {@link #getKKTPM(double[], double[], double[], double[],
+     * double[][], double[][], double)} (unless the dot products use the
+     * Vector API, see {@link DenseKernels}, in which case it may differ in
+     * the last bits).
+     *
+     * @param points the records of the points
+     * @param varCount number of variables of each point
+     * @param objCount number of objectives of each point
+     * @param conCount number of constraints of each point
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @param kktpm receives the KKTPM of each point, starting at its current
+     * position (in the same order as the input)
+     * @return the number of points
+     */
+    public static int getKKTPMBatch(
+            DoubleBuffer points,
+            int varCount,
+            int objCount,
+            int conCount,
+            double[] z,
+            double rho,
+            DoubleBuffer kktpm) {
+        KKTPMWorkspace workspace = new KKTPMWorkspace(
+                varCount, objCount, conCount);
+        int recordLength = workspace.getRecordLength();
+        if (points.remaining() % recordLength != 0) {
+            throw new IllegalArgumentException(String.format(
+                    "The remaining %d doubles are not a whole number of "
+                    + "records (%d doubles each).",
+                    points.remaining(), recordLength));
+        }
+        int count = points.remaining() / recordLength;
+        if (kktpm.remaining() < count) {
+            throw new IllegalArgumentException(String.format(
+                    "The output buffer has room for %d values (%d needed).",
+                    kktpm.remaining(), count));
+        }
+        for (int i = 0; i < count; i++) {
+            kktpm.put(workspace.getKKTPM(points, z, rho));
+        }
+        return count;
+    }
+
+    /**
+     * Calculates KKTPM for a whole population of points in parallel on the
+     * common fork/join pool. See {@link #getKKTPMBatch(double[][], double[][],
+     * double[][], double[][][], double[][][], double[], double, ForkJoinPool)}.
+     *
+     * @param x decision space points (one row per point)
+     * @param f objective space points (one row per point)
+     * @param g constraints values (one row per point)
+     * @param jacobianF matrix of objectives first derivatives of each point
+     * @param jacobianG matrix of constraints first derivatives of each point
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the KKTPM of each point (in the same order as the input)
+     */
+    public static double[] getKKTPMBatchParallel(
+            double[][] x,
+            double[][] f,
+            double[][] g,
+            double[][][] jacobianF,
+            double[][][] jacobianG,
+            double[] z,
+            double rho) {
+        return getKKTPMBatch(x, f, g, jacobianF, jacobianG, z, rho,
+                ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Calculates KKTPM for a whole population of points in parallel. The
+     * population is split into contiguous ranges that are scored by the
+     * threads of the specified pool, each range using its own scratch buffers.
+     * The KKTPM of each point is independent of all the other points, so the
+     * results are identical (bit by bit) to those of the sequential
+     * {@link #getKKTPMBatch(double[][], double[][], double[][], double[][][],
+     * double[][][], double[], double)} regardless of the number of threads.
+     *
+     * @param x decision space points (one row per point)
+     * @param f objective space points (one row per point)
+     * @param g constraints values (one row per point)
+     * @param jacobianF matrix of objectives first derivatives of each point
+     * @param jacobianG matrix of constraints first derivatives of each point
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @param pool the pool whose threads will score the population
+     * @return the KKTPM of each point (in the same order as the input)
+     */
+    public static double[] getKKTPMBatch(
+            double[][] x,
+            double[][] f,
+            double[][] g,
+            double[][][] jacobianF,
+            double[][][] jacobianG,
+            double[] z,
+            double rho,
+            ForkJoinPool pool) {
+        checkPopulationSizes(x, f, g, jacobianF, jacobianG);
+        double[] kktpm = new double[x.length];
+        if (x.length == 0) {
+            return kktpm;
+        }
+        // A few ranges per thread keep all the threads busy even if some
+        // points need more active-set iterations than others.
+        int leafSize = Math.max(
+                MIN_PARALLEL_LEAF_SIZE,
+                x.length / (pool.getParallelism() * 4));
+        pool.invoke(new BatchKKTPMTask(x, f, g, jacobianF, jacobianG, z, rho,
+                kktpm, 0, x.length, leafSize));
+        return kktpm;
+    }
+    // </editor-fold>
+
     // <editor-fold defaultstate="collapsed" desc="Private Utility Methods">
+    /**
+     * Makes sure that all the population arrays describe the same number of
+     * points.
+     */
+    private static void checkPopulationSizes(
+            double[][] x,
+            double[][] f,
+            double[][] g,
+            double[][][] jacobianF,
+            double[][][] jacobianG) {
+        if (f.length != x.length
+                || g.length != x.length
+                || jacobianF.length != x.length
+                || jacobianG.length != x.length) {
+            throw new IllegalArgumentException("All the population arrays "
+                    + "(x, f, g, jacobianF and jacobianG) must have the same "
+                    + "number of points.");
+        }
+    }
+
+    /**
+     * @return true if points having the specified dimensions are scored by
+     * the workspace of the current thread (see SMALL_SYSTEM_SIZE)
+     */
+    static boolean isSmallSystem(int varCount, int objCount, int conCount) {
+        return objCount + conCount <= SMALL_SYSTEM_SIZE
+                && varCount <= (DenseKernels.isVectorized()
+                ? VECTORIZED_SYSTEM_VARIABLES_COUNT
+                : SMALL_SYSTEM_VARIABLES_COUNT);
+    }
+
+    /**
+     * Gets the workspace of the current thread used for small systems,
+     * replacing it if the dimensions changed since the last call.
+     */
+    private static KKTPMWorkspace getSmallSystemWorkspace(
+            int varCount,
+            int objCount,
+            int conCount) {
+        KKTPMWorkspace workspace = smallSystemWorkspace.get();
+        if (workspace == null
+                || workspace.getVarCount() != varCount
+                || workspace.getObjCount() != objCount
+                || workspace.getConCount() != conCount) {
+            workspace = new KKTPMWorkspace(varCount, objCount, conCount);
+            smallSystemWorkspace.set(workspace);
+        }
+        return workspace;
+    }
+
+    /**
+     * Calculates the default weight vector w = (f - z) / ||f - z|| (or w = 1
+     * for single objective problems).
+     */
+    private static double[] getWeight(double[] f, double[] z) {
+        RealVector fv = new ArrayRealVector(f);
+        RealVector wv;
+        if (fv.getDimension() == 1) {
+            wv = new ArrayRealVector(new double[]{1});
+        } else {
+            RealVector zv = new ArrayRealVector(z);
+            RealVector zf = fv.subtract(zv);
+            double norm = zf.getNorm();
+            wv = zf.mapDivide(norm);
+        }
+        return wv.toArray();
+    }
+
+    /**
+     * Forms A_m. Row (i) is the gradient of objective (i) divided by w(i),
+     * plus the AASF term (which is the same for all the rows, so it is
+     * calculated only once).
+     */
+    private static RealMatrix formAm(
+            double[][] jacobianF,
+            double[] w,
+            double rho,
+            int varCount) {
+        RealVector wv = new ArrayRealVector(w);
+        // Objective partial derivatives
+        RealMatrix jacobianFMatrix = MatrixUtils.createRealMatrix(jacobianF);
+        // AASF (Augmented ASF)
+        RealVector ones = new ArrayRealVector(wv.getDimension(), 1);
+        RealVector oneOverW = ones.ebeDivide(wv);
+        RealVector aasfTermVector = new ArrayRealVector(varCount);
+        for (int j = 0; j < aasfTermVector.getDimension(); j++) {
+            aasfTermVector.setEntry(j, rho * oneOverW.dotProduct(jacobianFMatrix.getColumnVector(j)));
+        }
+        RealMatrix am = MatrixUtils.createRealMatrix(wv.getDimension(), varCount);
+        for (int i = 0; i < jacobianFMatrix.getRowDimension(); i++) {
+            RealVector amRow = jacobianFMatrix.getRowVector(i).mapMultiply(1 / wv.getEntry(i));
+            am.setRowVector(i, amRow.add(aasfTermVector));
+        }
+        return am;
+    }
+
+    /**
+     * Forms A_j (the Jacobian of the constraints).
+     */
+    private static RealMatrix formAj(double[][] jacobianG, int varCount) {
+        // Constraints partial derivatives
+        RealMatrix jacobianGMatrix = MatrixUtils.createRealMatrix(jacobianG);
+        RealMatrix aj = MatrixUtils.createRealMatrix(jacobianG.length, varCount);
+        for (int i = 0; i < jacobianGMatrix.getRowDimension(); i++) {
+            aj.setRowVector(i, jacobianGMatrix.getRowVector(i));
+        }
+        return aj;
+    }
+
     /**
      * This utility function is used to get the index of the first negative
      * Lagrange multiplier.
@@ -1474,6 +2243,25 @@ public class KKTPMCalculator {
         return -1;
     }
 
+    /**
+     * Removes the equation of multiplier (index) from the system, fixing the
+     * multiplier to zero.
+     */
+    private static void removeEquation(RealMatrix bigA, RealVector b, int index) {
+        // Set all corresponding row values to Zero
+        for (int i = 0; i < bigA.getColumnDimension(); i++) {
+            bigA.setEntry(index, i, 0);
+        }
+        // Set all corresponding column values to zero
+        for (int i = 0; i < bigA.getRowDimension(); i++) {
+            bigA.setEntry(i, index, 0);
+        }
+        // Set the intersection between column and row to one (for some reason)
+        bigA.setEntry(index, index, 1);
+        // Set the corresponding value in vector b to Zero
+        b.setEntry(index, 0);
+    }
+
     /**
      * This utility method is used to extract information from the optimization
      * problem object into the arrays sent as parameters. These arrays will be
@@ -1490,7 +2278,7 @@ public class KKTPMCalculator {
      * @throws EvaluationException
      * @throws Throwable
      */
-    private static int extractProblemInfo(
+    static int extractProblemInfo(
             OptimizationProblem problem,
             double[] x,
             int objCount,
@@ -1498,10 +2286,64 @@ public class KKTPMCalculator {
             int conCount,
             double[] g,
             double[][] jacobianF,
-            double[][] jacobianG) throws EvaluationException, TooManyDecimalPointsException, MisplacedTokensException {
-        // The number of additional function evaluations consumed due to numerical gradient evaluations
-        int numericalEvalCount = 0;
-        // Get the x-vector (it should include both variables and vectors)
+            double[][] jacobianG) throws EvaluationException {
+        getCurrentPoint(problem, x);
+        // Get the objectives, the constraints and their derivatives (returns
+        // the number of additional function evaluations consumed due to
+        // numerical gradient evaluations)
+        return evaluateAll(problem, x, f, g, jacobianF, jacobianG);
+    }
+
+    /**
+     * Evaluates a problem at point (x) using
+     * OptimizationProblem.evaluateAll(...), recording the metrics of the
+     * evaluation.
+     *
+     * @return the number of additional function evaluations consumed by
+     * numerical partial derivatives
+     */
+    static int evaluateAll(
+            OptimizationProblem problem,
+            double[] x,
+            double[] f,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG) throws EvaluationException {
+        KKTPMMetrics metrics = KKTPMCalculator.metrics;
+        long start = startTiming(metrics);
+        int numericalFunEval
+                = problem.evaluateAll(x, f, g, jacobianF, jacobianG);
+        stopTiming(metrics, KKTPMMetrics.Phase.PROBLEM_EVALUATION, start);
+        metrics.increment(
+                KKTPMMetrics.Counter.NUMERICAL_EVALUATIONS, numericalFunEval);
+        return numericalFunEval;
+    }
+
+    /**
+     * @return the current time in nanoseconds, or zero if no metrics are
+     * recorded
+     */
+    static long startTiming(KKTPMMetrics metrics) {
+        return metrics == KKTPMMetrics.NONE ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since (start), unless no metrics are recorded.
+     */
+    static void stopTiming(
+            KKTPMMetrics metrics,
+            KKTPMMetrics.Phase phase,
+            long start) {
+        if (metrics != KKTPMMetrics.NONE) {
+            metrics.recordTime(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets the x-vector of the current point of a problem (it includes both
+     * variables and vectors).
+     */
+    static void getCurrentPoint(OptimizationProblem problem, double[] x) {
         int varIndex = 0;
         // Add variables
         Iterator<Map.Entry<String, Double>> varIt = problem.getVariablesIterator();
@@ -1516,65 +2358,6 @@ public class KKTPMCalculator {
                 x[varIndex++] = v[j];
             }
         }
-        // Get the objectives
-        for (int i = 0; i < objCount; i++) {
-            f[i] = problem.getObjective(i);
-        }
-        // Get the constraints
-        for (int i = 0; i < conCount; i++) {
-            g[i] = problem.getConstraint(i);
-        }
-        // Get objectives derivatives
-        for (int i = 0; i < objCount; i++) {
-            varIndex = 0;
-            // Set derivatives of variables
-            varIt = problem.getVariablesIterator();
-            while (varIt.hasNext()) {
-                Derivative partialDerivative = problem.getObjectivePartialDerivative(
-                        i,
-                        varIt.next().getKey());
-                jacobianF[i][varIndex++] = partialDerivative.getDerivative();
-                numericalEvalCount += partialDerivative.getFunEvalCount();
-            }
-            // Set derivatives of vectors elements
-            vecIt = problem.getVectorsIterator();
-            while (vecIt.hasNext()) {
-                Map.Entry<String, double[]> nameVecPair = vecIt.next();
-                for (int j = 0; j < nameVecPair.getValue().length; j++) {
-                    Derivative partialDerivative = problem.getObjectivePartialDerivative(i, nameVecPair.getKey() + "[" + (j + 1) + "]");
-                    jacobianF[i][varIndex] = partialDerivative.getDerivative();
-                    numericalEvalCount += partialDerivative.getFunEvalCount();
-                    varIndex++;
-                }
-            }
-        }
-        // Get constraints derivatives
-        for (int i = 0; i < conCount; i++) {
-            varIndex = 0;
-            // Set derivatives of variables
-            varIt = problem.getVariablesIterator();
-            while (varIt.hasNext()) {
-                Derivative partialDerivative = problem.getConstraintPartialDerivative(
-                        i,
-                        varIt.next().getKey());
-                jacobianG[i][varIndex++] = partialDerivative.getDerivative();
-                numericalEvalCount += partialDerivative.getFunEvalCount();
-            }
-            // Set derivatives of vectors elements
-            vecIt = problem.getVectorsIterator();
-            while (vecIt.hasNext()) {
-                Map.Entry<String, double[]> nameVecPair = vecIt.next();
-                for (int j = 0; j < nameVecPair.getValue().length; j++) {
-                    Derivative partialDerivative = problem.getConstraintPartialDerivative(
-                            i,
-                            nameVecPair.getKey() + "[" + (j + 1) + "]");
-                    jacobianG[i][varIndex] = partialDerivative.getDerivative();
-                    numericalEvalCount += partialDerivative.getFunEvalCount();
-                    varIndex++;
-                }
-            }
-        }
-        return numericalEvalCount;
     }
 
     private static double[] getH(double[] f, double[] z, double[] wStar) {
@@ -1769,10 +2552,6 @@ public class KKTPMCalculator {
         }
         RealVector negativeGv = gv.mapMultiply(-1);
         double ujgj = negativeGv.dotProduct(uj);
-        if (sum + ujgj * (1 + ujgj) > 1) {
-            return true;
-        } else {
-            return false;
-        }
+        return sum + ujgj * (1 + ujgj) > 1;
     }
 }
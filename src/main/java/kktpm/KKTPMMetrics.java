@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+/**
+ * Receives the time spent in each phase of the KKTPM calculations and the
+ * counts of some of their events. The metrics are sent to the instance set
+ * using {@link KKTPMCalculator#setMetrics(KKTPMMetrics)}, which is
+ * {@link #NONE} by default (in which case not even the clock is read).
+ * Implementations may be called concurrently by all the threads calculating
+ * KKTPM, so they must be thread-safe (see {@link AccumulatingMetrics}).
+ */
+public interface KKTPMMetrics {
+
+    /**
+     * The timed phases of the calculations.
+     */
+    enum Phase {
+        /**
+         * Evaluating the objectives, the constraints and their gradients at a
+         * point of a problem.
+         */
+        PROBLEM_EVALUATION,
+        /**
+         * Forming A_m (the Jacobian of the objectives, scaled by the weights
+         * and including the AASF term) and A_j (the Jacobian of the
+         * constraints).
+         */
+        JACOBIAN_EXTRACTION,
+        /**
+         * Forming the (Gram) matrix of the system of the Lagrange
+         * multipliers.
+         */
+        GRAM_ASSEMBLY,
+        /**
+         * Each factorization and solution of the system (or of the reduced
+         * system, after removing negative multipliers). Not recorded for the
+         * solves within {@link MultiplierSolver#NNLS}.
+         */
+        LINEAR_SOLVE,
+        /**
+         * Solving the system subject to non-negative multipliers (all the
+         * linear solves included).
+         */
+        ACTIVE_SET
+    }
+
+    /**
+     * The counted events.
+     */
+    enum Counter {
+        /**
+         * The times the system is re-solved after removing (or freeing) a
+         * multiplier.
+         */
+        ACTIVE_SET_ITERATIONS,
+        /**
+         * The additional function evaluations consumed by numerical partial
+         * derivatives.
+         */
+        NUMERICAL_EVALUATIONS,
+        /**
+         * The points whose KKTPM is the average of direct, adjusted and
+         * projected KKTPM (rather than direct KKTPM). Only the calculations
+         * returning KKTPM itself are counted (not those returning direct,
+         * adjusted or projected KKTPM, or all the components).
+         */
+        APPROXIMATIONS
+    }
+
+    /**
+     * Ignores all the metrics.
+     */
+    KKTPMMetrics NONE = new KKTPMMetrics() {
+        @Override
+        public void recordTime(Phase phase, long nanos) {
+        }
+
+        @Override
+        public void increment(Counter counter, long amount) {
+        }
+    };
+
+    /**
+     * Records one execution of a phase.
+     *
+     * @param phase the phase
+     * @param nanos the time spent in nanoseconds
+     */
+    void recordTime(Phase phase, long nanos);
+
+    /**
+     * Adds to a counter.
+     *
+     * @param counter the counter
+     * @param amount the amount added (may be zero)
+     */
+    void increment(Counter counter, long amount);
+}
@@ -0,0 +1,829 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import parsing.SparseJacobian;
+
+/**
+ * A reusable set of scratch buffers used to calculate KKTPM for many points
+ * sharing the same dimensions (number of variables, objectives and
+ * constraints). All the intermediate matrices and vectors are allocated once
+ * when the workspace is created and then overwritten by every calculation,
+ * which means that scoring a point allocates nothing.
+ * <p>
+ * The arithmetic is carried out in exactly the same order used by the
+ * matrix-based methods of {@link KKTPMCalculator}, so the results are identical
+ * to those of {@link KKTPMCalculator#getKKTPM(double[], double[], double[],
+ * double[], double[][], double[][], double)} for the same point, except as
+ * noted below.
+ * <p>
+ * The dense dot products and row additions are carried out by
+ * {@link DenseKernels}, which can use the JDK Vector API on Java 17 or later.
+ * If explicitly enabled, the dot products are summed in a different order
+ * (using fused multiply-adds), so the results may differ from those of the
+ * matrix-based methods in the last bits.
+ * <p>
+ * Jacobians can also be supplied in sparse format (see {@link SparseJacobian}),
+ * in which case the products involving the Jacobian of the constraints skip
+ * its structural zeros (and the dense copy of that Jacobian is never
+ * allocated). Only zeros are skipped, so the results are the same as those of
+ * the dense path.
+ * <p>
+ * A workspace is not thread safe. Each thread must use its own instance.
+ */
+public class KKTPMWorkspace {
+
+    private final int varCount;
+    private final int objCount;
+    private final int conCount;
+    // Weight vector (direction) and its element-wise reciprocal
+    private final double[] w;
+    private final double[] oneOverW;
+    // A_m and A_j (the latter is copied from the Jacobian of the constraints,
+    // and is allocated only if needed)
+    private final double[][] am;
+    private double[][] aj;
+    // A_j in sparse format (null when the Jacobians are dense)
+    private SparseJacobian sparseAj;
+    // f and g read from a record (allocated only if needed)
+    private double[] recordF;
+    private double[] recordG;
+    // The big matrix, its LU factorization and the right-hand-side vector
+    private final double[][] bigA;
+    private final double[][] lu;
+    private final int[] pivot;
+    private final double[] b;
+    // Lagrange multipliers
+    private final double[] u;
+    // Holds [am;aj]'*u
+    private final double[] residual;
+    // The number of times the system was re-solved in the last calculation
+    private int activeSetIterations;
+    // How the system is solved (the Cholesky factorization and the
+    // non-negative solver are allocated only if needed)
+    private MultiplierSolver multiplierSolver;
+    private CholeskyFactorization cholesky;
+    private NonNegativeSolver nonNegativeSolver;
+    // The active set the next calculation starts from (null if none), and a
+    // copy of the big matrix used to verify the result (allocated only if
+    // needed)
+    private boolean[] activeSetHint;
+    private double[][] gram;
+
+    /**
+     * Creates a workspace for points having the specified dimensions.
+     *
+     * @param varCount number of variables (the length of x)
+     * @param objCount number of objectives (the length of f)
+     * @param conCount number of constraints (the length of g)
+     */
+    public KKTPMWorkspace(int varCount, int objCount, int conCount) {
+        if (varCount < 1 || objCount < 1 || conCount < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid dimensions (%d variables, %d objectives, %d "
+                    + "constraints).", varCount, objCount, conCount));
+        }
+        this.varCount = varCount;
+        this.objCount = objCount;
+        this.conCount = conCount;
+        int size = objCount + conCount;
+        w = new double[objCount];
+        oneOverW = new double[objCount];
+        am = new double[objCount][varCount];
+        bigA = new double[size][size];
+        lu = new double[size][size];
+        pivot = new int[size];
+        b = new double[size];
+        u = new double[size];
+        residual = new double[varCount];
+        multiplierSolver = MultiplierSolver.LU;
+    }
+
+    /**
+     * Calculates KKTPM at the specified point. The weight vector is defaulted
+     * to w = (f - z) / ||f - z|| (or w = 1 for single objective problems).
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @param rho Augmented ASF (AASF) parameter
+     * @return KKTPM
+     */
+    public double getKKTPM(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double rho) {
+        checkDimensions(x, f, z, g, jacobianF.length, jacobianG.length);
+        computeWeight(f, z);
+        KKTPMMetrics metrics = KKTPMCalculator.getMetrics();
+        long start = KKTPMCalculator.startTiming(metrics);
+        for (int i = 0; i < objCount; i++) {
+            System.arraycopy(jacobianF[i], 0, am[i], 0, varCount);
+        }
+        formAm(rho);
+        formAj(jacobianG);
+        KKTPMCalculator.stopTiming(
+                metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        return getKKTPM(g);
+    }
+
+    /**
+     * Calculates KKTPM at the specified point, given Jacobians in sparse
+     * format (see getKKTPM(double[], double[], double[], double[], double[][],
+     * double[][], double)).
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @param rho Augmented ASF (AASF) parameter
+     * @return KKTPM
+     */
+    public double getKKTPM(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            SparseJacobian jacobianF,
+            SparseJacobian jacobianG,
+            double rho) {
+        checkDimensions(x, f, z, g,
+                jacobianF.getRowsCount(), jacobianG.getRowsCount());
+        if (jacobianF.getColumnsCount() != varCount
+                || jacobianG.getColumnsCount() != varCount) {
+            throw new IllegalArgumentException(String.format(
+                    "The Jacobians must have %d columns.", varCount));
+        }
+        computeWeight(f, z);
+        KKTPMMetrics metrics = KKTPMCalculator.getMetrics();
+        long start = KKTPMCalculator.startTiming(metrics);
+        int[] rowPointers = jacobianF.getRowPointers();
+        int[] columnIndices = jacobianF.getColumnIndices();
+        double[] values = jacobianF.getValues();
+        for (int i = 0; i < objCount; i++) {
+            Arrays.fill(am[i], 0);
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                am[i][columnIndices[k]] = values[k];
+            }
+        }
+        formAm(rho);
+        sparseAj = jacobianG;
+        KKTPMCalculator.stopTiming(
+                metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        return getKKTPM(g);
+    }
+
+    /**
+     * Calculates KKTPM at the point stored as a record at the current
+     * position of a buffer (see {@link PointRecords} for the layout), and
+     * advances the position to the end of the record. The Jacobians are read
+     * from the buffer straight into the scratch buffers of this workspace, so
+     * the points can be kept off-heap. The result is the same as the result of
+     * getKKTPM(double[], double[], double[], double[], double[][], double[][],
+     * double) for the same point.
+     *
+     * @param record the buffer holding the point
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return KKTPM
+     */
+    public double getKKTPM(DoubleBuffer record, double[] z, double rho) {
+        if (z == null) {
+            if (objCount != 1) {
+                throw new IllegalArgumentException(KKTPMCalculator.zErrorMessage);
+            }
+        } else if (z.length != objCount) {
+            throw new IllegalArgumentException(KKTPMCalculator.zErrorMessage);
+        }
+        if (record.remaining() < getRecordLength()) {
+            throw new IllegalArgumentException(String.format(
+                    "The buffer does not hold a whole record (%d doubles).",
+                    getRecordLength()));
+        }
+        if (recordF == null) {
+            recordF = new double[objCount];
+            recordG = new double[conCount];
+        }
+        // x is not needed by the calculation
+        record.position(record.position() + varCount);
+        record.get(recordF);
+        record.get(recordG);
+        computeWeight(recordF, z);
+        KKTPMMetrics metrics = KKTPMCalculator.getMetrics();
+        long start = KKTPMCalculator.startTiming(metrics);
+        for (int i = 0; i < objCount; i++) {
+            record.get(am[i]);
+        }
+        formAm(rho);
+        if (aj == null) {
+            aj = new double[conCount][varCount];
+        }
+        for (int i = 0; i < conCount; i++) {
+            record.get(aj[i]);
+        }
+        sparseAj = null;
+        KKTPMCalculator.stopTiming(
+                metrics, KKTPMMetrics.Phase.JACOBIAN_EXTRACTION, start);
+        return getKKTPM(recordG);
+    }
+
+    /**
+     * @return the number of doubles in the record of a point (see
+     * {@link PointRecords})
+     */
+    public int getRecordLength() {
+        return PointRecords.getLength(varCount, objCount, conCount);
+    }
+
+    /**
+     * Calculates KKTPM once A_m and A_j are formed.
+     */
+    private double getKKTPM(double[] g) {
+        solveLagrangeMultipliers(g);
+        double kktpmDirect = getDirectKKTPM();
+        // Check if you need the approximation
+        if (isApproximationRequired(g)) {
+            KKTPMCalculator.getMetrics().increment(
+                    KKTPMMetrics.Counter.APPROXIMATIONS, 1);
+            double kktpmAdjusted = getAdjustedKKTPM(g);
+            double kktpmProjected = getProjectedKKTPM(g, kktpmDirect);
+            return (kktpmDirect + kktpmAdjusted + kktpmProjected) / 3;
+        } else {
+            return kktpmDirect;
+        }
+    }
+
+    /**
+     * Copies the Lagrange multipliers calculated by the last call to
+     * getKKTPM(...) into the array sent as a parameter.
+     *
+     * @param out an array of length (number of objectives + number of
+     * constraints)
+     * @return the same array sent as a parameter
+     */
+    public double[] getLagrangeMultipliers(double[] out) {
+        System.arraycopy(u, 0, out, 0, u.length);
+        return out;
+    }
+
+    /**
+     * Copies the active set of the last call to getKKTPM(...) (whether each
+     * Lagrange multiplier is zero) into the array sent as a parameter, e.g.
+     * to be used as the hint of the next calculation at the same point.
+     *
+     * @param out an array of length (number of objectives + number of
+     * constraints)
+     * @return the same array sent as a parameter
+     */
+    public boolean[] getActiveSet(boolean[] out) {
+        for (int i = 0; i < u.length; i++) {
+            out[i] = u[i] == 0;
+        }
+        return out;
+    }
+
+    /**
+     * Sets the active set the next calculation starts from (the multipliers
+     * expected to be zero), typically the active set of the same point in the
+     * previous generation (see getActiveSet(...)). The hint is used by the
+     * next call to getKKTPM(...) only. The equations of the hinted
+     * multipliers are removed before the system is solved for the first time,
+     * and the result is verified: if freeing any of the zero multipliers would
+     * improve the solution, the system is solved again from scratch. So a
+     * right hint saves a factorization per hinted multiplier, while a wrong
+     * one costs all the factorizations of the hinted attempt (one, plus one
+     * per negative multiplier removed on top of the hint) in addition to
+     * those of the calculation without a hint. getActiveSetIterations()
+     * counts the re-solves of both attempts. A verified result is the
+     * unique solution of the bounded system, which is also the result without
+     * a hint whenever the latter is optimal (i.e. nearly always).
+     * <p>
+     * The hint is ignored by NNLS, which is warm-started anyway.
+     *
+     * @param activeSetHint whether each multiplier is expected to be zero (the
+     * objectives first, followed by the constraints), or null to clear the hint
+     */
+    public void setActiveSetHint(boolean[] activeSetHint) {
+        if (activeSetHint != null
+                && activeSetHint.length != objCount + conCount) {
+            throw new IllegalArgumentException(String.format(
+                    "The active set hint must have %d elements.",
+                    objCount + conCount));
+        }
+        this.activeSetHint = activeSetHint;
+    }
+
+    /**
+     * @return the number of times the system of linear equations had to be
+     * re-solved (due to negative multipliers) in the last calculation
+     */
+    public int getActiveSetIterations() {
+        return activeSetIterations;
+    }
+
+    /**
+     * @return the method used to solve the system of linear equations of the
+     * Lagrange multipliers
+     */
+    public MultiplierSolver getMultiplierSolver() {
+        return multiplierSolver;
+    }
+
+    /**
+     * Sets the method used to solve the system of linear equations of the
+     * Lagrange multipliers (LU by default). Results obtained using LU and
+     * CHOLESKY agree up to rounding errors. NNLS may give different (and
+     * never worse) multipliers when the former stop at a non-optimal point.
+     *
+     * @param multiplierSolver the method to be used
+     */
+    public void setMultiplierSolver(MultiplierSolver multiplierSolver) {
+        if (multiplierSolver == null) {
+            throw new IllegalArgumentException(
+                    "The multiplier solver cannot be null.");
+        }
+        this.multiplierSolver = multiplierSolver;
+    }
+
+    /**
+     * @return the number of variables this workspace is sized for
+     */
+    public int getVarCount() {
+        return varCount;
+    }
+
+    /**
+     * @return the number of objectives this workspace is sized for
+     */
+    public int getObjCount() {
+        return objCount;
+    }
+
+    /**
+     * @return the number of constraints this workspace is sized for
+     */
+    public int getConCount() {
+        return conCount;
+    }
+
+    private void checkDimensions(
+            double[] x,
+            double[] f,
+            double[] z,
+            double[] g,
+            int jacobianFRows,
+            int jacobianGRows) {
+        if (z == null) {
+            if (f.length != 1) {
+                throw new IllegalArgumentException(KKTPMCalculator.zErrorMessage);
+            }
+        } else if (z.length != f.length) {
+            throw new IllegalArgumentException(KKTPMCalculator.zErrorMessage);
+        }
+        if (x.length != varCount
+                || f.length != objCount
+                || g.length != conCount
+                || jacobianFRows != objCount
+                || jacobianGRows != conCount) {
+            String message = String.format(
+                    "The point dimensions do not match the workspace "
+                    + "dimensions (%d variables, %d objectives, %d "
+                    + "constraints).", varCount, objCount, conCount);
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /**
+     * w = (f - z) / || f - z || (or w = 1 for single objective problems)
+     */
+    private void computeWeight(double[] f, double[] z) {
+        if (objCount == 1) {
+            w[0] = 1;
+        } else {
+            double squaresSum = 0;
+            for (int i = 0; i < objCount; i++) {
+                double zf = f[i] - z[i];
+                squaresSum += zf * zf;
+            }
+            double norm = Math.sqrt(squaresSum);
+            for (int i = 0; i < objCount; i++) {
+                w[i] = (f[i] - z[i]) / norm;
+            }
+        }
+        for (int i = 0; i < objCount; i++) {
+            oneOverW[i] = 1.0 / w[i];
+        }
+    }
+
+    /**
+     * Forms A_m including the AASF (Augmented ASF) term, in place (A_m
+     * initially holds the Jacobian of the objectives). The AASF term of each
+     * column is the same for all rows, so it is calculated only once per
+     * column.
+     */
+    private void formAm(double rho) {
+        for (int j = 0; j < varCount; j++) {
+            double dot = 0;
+            for (int k = 0; k < objCount; k++) {
+                dot += oneOverW[k] * am[k][j];
+            }
+            double aasfTerm = rho * dot;
+            for (int i = 0; i < objCount; i++) {
+                am[i][j] = am[i][j] * (1 / w[i]) + aasfTerm;
+            }
+        }
+    }
+
+    private void formAj(double[][] jacobianG) {
+        if (aj == null) {
+            aj = new double[conCount][varCount];
+        }
+        for (int i = 0; i < conCount; i++) {
+            System.arraycopy(jacobianG[i], 0, aj[i], 0, varCount);
+        }
+        sparseAj = null;
+    }
+
+    /**
+     * Forms the big matrix [am*am'+1, am*aj'; aj*am', aj*aj'+diag(g.^2)] and
+     * solves (bigA)(u) = (b) such that no multiplier is negative. Each time a
+     * negative multiplier is found, its equation is removed and the system is
+     * re-solved (either by a new LU factorization or by updating the Cholesky
+     * factorization), unless the bounded problem is solved directly by NNLS
+     * (see {@link MultiplierSolver}).
+     */
+    private void solveLagrangeMultipliers(double[] g) {
+        KKTPMMetrics metrics = KKTPMCalculator.getMetrics();
+        long start = KKTPMCalculator.startTiming(metrics);
+        for (int i = 0; i < objCount; i++) {
+            for (int j = 0; j < objCount; j++) {
+                bigA[i][j] = dot(am[i], am[j]) + 1;
+            }
+            for (int j = 0; j < conCount; j++) {
+                double value = sparseAj == null
+                        ? dot(am[i], aj[j]) : dot(am[i], sparseAj, j);
+                bigA[i][objCount + j] = value;
+                bigA[objCount + j][i] = value;
+            }
+        }
+        for (int i = 0; i < conCount; i++) {
+            for (int j = 0; j < conCount; j++) {
+                double value = sparseAj == null
+                        ? dot(aj[i], aj[j]) : dot(sparseAj, i, j);
+                bigA[objCount + i][objCount + j]
+                        = value + (i == j ? g[i] * g[i] : 0);
+            }
+        }
+        KKTPMCalculator.stopTiming(
+                metrics, KKTPMMetrics.Phase.GRAM_ASSEMBLY, start);
+        solveSystem();
+    }
+
+    /**
+     * Solves the system of the Lagrange multipliers given its matrix, which
+     * was formed outside of this workspace (the matrix is not modified).
+     *
+     * @param matrix the big matrix
+     * @return the multipliers (the internal array, overwritten by the next
+     * calculation)
+     */
+    double[] solveLagrangeMultipliers(double[][] matrix) {
+        for (int i = 0; i < matrix.length; i++) {
+            System.arraycopy(matrix[i], 0, bigA[i], 0, matrix.length);
+        }
+        solveSystem();
+        return u;
+    }
+
+    /**
+     * Solves (bigA)(u) = (b) such that no multiplier is negative, once bigA
+     * is formed.
+     */
+    private void solveSystem() {
+        KKTPMMetrics metrics = KKTPMCalculator.getMetrics();
+        long start = KKTPMCalculator.startTiming(metrics);
+        solveNonNegative(metrics);
+        KKTPMCalculator.stopTiming(metrics, KKTPMMetrics.Phase.ACTIVE_SET, start);
+        metrics.increment(
+                KKTPMMetrics.Counter.ACTIVE_SET_ITERATIONS, activeSetIterations);
+    }
+
+    /**
+     * Solves the system, recording the time of each linear solve.
+     */
+    private void solveNonNegative(KKTPMMetrics metrics) {
+        int size = objCount + conCount;
+        resetB();
+        activeSetIterations = 0;
+        boolean[] hint = activeSetHint;
+        activeSetHint = null;
+        if (multiplierSolver == MultiplierSolver.NNLS) {
+            if (nonNegativeSolver == null) {
+                nonNegativeSolver = new NonNegativeSolver(size);
+            }
+            if (nonNegativeSolver.solve(bigA, b, u)) {
+                activeSetIterations = nonNegativeSolver.getIterations();
+                return;
+            }
+            // Could not be solved (LU is used instead)
+        }
+        if (hint != null) {
+            // Start from the hinted active set, keeping a copy of the matrix
+            // to verify the solution
+            if (gram == null) {
+                gram = new double[size][size];
+            }
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(bigA[i], 0, gram[i], 0, size);
+            }
+            for (int i = 0; i < size; i++) {
+                if (hint[i]) {
+                    removeEquation(i);
+                }
+            }
+            removeNegativeMultipliers(metrics);
+            resetB();
+            if (NonNegativeSolver.isOptimal(gram, b, u)) {
+                return;
+            }
+            // Wrong hint (start over from the whole system)
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(gram[i], 0, bigA[i], 0, size);
+            }
+            activeSetIterations++;
+        }
+        removeNegativeMultipliers(metrics);
+    }
+
+    /**
+     * Solves (bigA)(u) = (b), removing the equation of the first negative
+     * multiplier and re-solving until no negative multipliers are left (bigA
+     * and b are modified).
+     */
+    private void removeNegativeMultipliers(KKTPMMetrics metrics) {
+        int size = objCount + conCount;
+        if (multiplierSolver == MultiplierSolver.CHOLESKY) {
+            if (cholesky == null) {
+                cholesky = new CholeskyFactorization(size);
+            }
+            long start = KKTPMCalculator.startTiming(metrics);
+            if (cholesky.factorize(bigA)) {
+                while (true) {
+                    cholesky.solve(b, u);
+                    KKTPMCalculator.stopTiming(
+                            metrics, KKTPMMetrics.Phase.LINEAR_SOLVE, start);
+                    int firstNegativeIndex = getFirstNegativeIndex();
+                    if (firstNegativeIndex == -1) {
+                        return;
+                    }
+                    start = KKTPMCalculator.startTiming(metrics);
+                    cholesky.remove(firstNegativeIndex);
+                    b[firstNegativeIndex] = 0;
+                    activeSetIterations++;
+                }
+            }
+            // Not positive definite (LU is used instead)
+        }
+        while (true) {
+            long start = KKTPMCalculator.startTiming(metrics);
+            factorize(bigA);
+            solve(b, u);
+            KKTPMCalculator.stopTiming(
+                    metrics, KKTPMMetrics.Phase.LINEAR_SOLVE, start);
+            // If a negative multiplier exists, remove its equation and re-solve.
+            int firstNegativeIndex = getFirstNegativeIndex();
+            if (firstNegativeIndex == -1) {
+                break;
+            }
+            removeEquation(firstNegativeIndex);
+            activeSetIterations++;
+        }
+    }
+
+    private void resetB() {
+        for (int i = 0; i < b.length; i++) {
+            b[i] = i < objCount ? 1 : 0;
+        }
+    }
+
+    /**
+     * Removes the equation of multiplier (index) from the system, fixing the
+     * multiplier to zero.
+     */
+    private void removeEquation(int index) {
+        for (int i = 0; i < b.length; i++) {
+            bigA[index][i] = 0;
+            bigA[i][index] = 0;
+        }
+        bigA[index][index] = 1;
+        b[index] = 0;
+    }
+
+    private int getFirstNegativeIndex() {
+        for (int i = 0; i < u.length; i++) {
+            if (u[i] < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * LU factorization with partial pivoting (the same algorithm used by
+     * commons-math LUDecomposition, with a singularity threshold of 1e-100).
+     */
+    private void factorize(double[][] matrix) {
+        int m = matrix.length;
+        for (int row = 0; row < m; row++) {
+            System.arraycopy(matrix[row], 0, lu[row], 0, m);
+            pivot[row] = row;
+        }
+        for (int col = 0; col < m; col++) {
+            // Upper
+            for (int row = 0; row < col; row++) {
+                double[] luRow = lu[row];
+                double sum = luRow[col];
+                for (int i = 0; i < row; i++) {
+                    sum -= luRow[i] * lu[i][col];
+                }
+                luRow[col] = sum;
+            }
+            // Lower
+            int max = col;
+            double largest = Double.NEGATIVE_INFINITY;
+            for (int row = col; row < m; row++) {
+                double[] luRow = lu[row];
+                double sum = luRow[col];
+                for (int i = 0; i < col; i++) {
+                    sum -= luRow[i] * lu[i][col];
+                }
+                luRow[col] = sum;
+                if (Math.abs(sum) > largest) {
+                    largest = Math.abs(sum);
+                    max = row;
+                }
+            }
+            if (Math.abs(lu[max][col]) < 1e-100) {
+                throw new SingularMatrixException();
+            }
+            // Pivot if necessary
+            if (max != col) {
+                double[] tmpRow = lu[max];
+                lu[max] = lu[col];
+                lu[col] = tmpRow;
+                int tmpIndex = pivot[max];
+                pivot[max] = pivot[col];
+                pivot[col] = tmpIndex;
+            }
+            double luDiag = lu[col][col];
+            for (int row = col + 1; row < m; row++) {
+                lu[row][col] /= luDiag;
+            }
+        }
+    }
+
+    private void solve(double[] rhs, double[] out) {
+        int m = rhs.length;
+        for (int row = 0; row < m; row++) {
+            out[row] = rhs[pivot[row]];
+        }
+        // Solve LY = b
+        for (int col = 0; col < m; col++) {
+            double outCol = out[col];
+            for (int i = col + 1; i < m; i++) {
+                out[i] -= outCol * lu[i][col];
+            }
+        }
+        // Solve UX = Y
+        for (int col = m - 1; col >= 0; col--) {
+            out[col] /= lu[col][col];
+            double outCol = out[col];
+            for (int i = 0; i < col; i++) {
+                out[i] -= outCol * lu[i][col];
+            }
+        }
+    }
+
+    /**
+     * Direct KKTPM = (1 - sum(um))^2 + ||[am;aj]'*u||^2
+     */
+    private double getDirectKKTPM() {
+        double umSum = 0;
+        for (int i = 0; i < objCount; i++) {
+            umSum += u[i];
+        }
+        // Accumulated row by row (each element receives the same sum, in the
+        // same order, as a column-wise loop)
+        Arrays.fill(residual, 0);
+        for (int i = 0; i < objCount; i++) {
+            DenseKernels.addScaled(u[i], am[i], residual, varCount);
+        }
+        if (sparseAj == null) {
+            for (int i = 0; i < conCount; i++) {
+                DenseKernels.addScaled(u[objCount + i], aj[i], residual, varCount);
+            }
+        } else {
+            // The same sums (in the same order), skipping the zeros of A_j
+            int[] rowPointers = sparseAj.getRowPointers();
+            int[] columnIndices = sparseAj.getColumnIndices();
+            double[] values = sparseAj.getValues();
+            for (int i = 0; i < conCount; i++) {
+                for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                    residual[columnIndices[k]] += values[k] * u[objCount + i];
+                }
+            }
+        }
+        double sumV = 0;
+        for (int j = 0; j < varCount; j++) {
+            sumV += Math.pow(residual[j], 2);
+        }
+        return Math.pow(1 - umSum, 2) + sumV;
+    }
+
+    private double getAdjustedKKTPM(double[] g) {
+        double dot = 0;
+        for (int i = 0; i < conCount; i++) {
+            dot += g[i] * u[objCount + i];
+        }
+        return -1 * dot;
+    }
+
+    private double getProjectedKKTPM(double[] g, double kktpmDirect) {
+        double numerator = 0;
+        double gg = 0;
+        for (int i = 0; i < conCount; i++) {
+            numerator += g[i] * (g[i] * kktpmDirect - u[objCount + i]);
+            gg += g[i] * g[i];
+        }
+        return numerator / (1 + gg);
+    }
+
+    private boolean isApproximationRequired(double[] g) {
+        double sum = 0;
+        for (int i = 0; i < objCount; i++) {
+            sum += u[i];
+        }
+        double ujgj = 0;
+        for (int i = 0; i < conCount; i++) {
+            ujgj += (g[i] * -1) * u[objCount + i];
+        }
+        return sum + ujgj * (1 + ujgj) > 1;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return DenseKernels.dot(a, b, a.length);
+    }
+
+    /**
+     * The dot product of a dense vector and row (row) of a sparse matrix.
+     */
+    private static double dot(double[] a, SparseJacobian b, int row) {
+        int[] columnIndices = b.getColumnIndices();
+        double[] values = b.getValues();
+        double sum = 0;
+        for (int k = b.getRowPointers()[row]; k < b.getRowPointers()[row + 1]; k++) {
+            sum += a[columnIndices[k]] * values[k];
+        }
+        return sum;
+    }
+
+    /**
+     * The dot product of rows (row1) and (row2) of a sparse matrix (merging
+     * their sorted column indices).
+     */
+    private static double dot(SparseJacobian a, int row1, int row2) {
+        int[] rowPointers = a.getRowPointers();
+        int[] columnIndices = a.getColumnIndices();
+        double[] values = a.getValues();
+        int k1 = rowPointers[row1];
+        int end1 = rowPointers[row1 + 1];
+        int k2 = rowPointers[row2];
+        int end2 = rowPointers[row2 + 1];
+        double sum = 0;
+        while (k1 < end1 && k2 < end2) {
+            if (columnIndices[k1] < columnIndices[k2]) {
+                k1++;
+            } else if (columnIndices[k1] > columnIndices[k2]) {
+                k2++;
+            } else {
+                sum += values[k1++] * values[k2++];
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+/**
+ * The methods available for solving the system of linear equations of the
+ * Lagrange multipliers subject to non-negativity. LU and CHOLESKY remove the
+ * equation of the first negative multiplier and re-solve the system, until
+ * no negative multipliers are left. NNLS solves the bounded problem exactly.
+ */
+public enum MultiplierSolver {
+
+    /**
+     * A new LU factorization of the whole system after each removed
+     * multiplier (the default).
+     */
+    LU,
+    /**
+     * A single Cholesky factorization, updated in place whenever a multiplier
+     * is removed. The system matrix is symmetric positive semidefinite; if it
+     * turns out not to be positive definite, LU is used instead.
+     */
+    CHOLESKY,
+    /**
+     * The Lawson-Hanson non-negative least squares method, warm-started from
+     * the unconstrained solution. Multipliers removed at some point may become
+     * positive again, so the result always minimizes
+     * (1 - sum(um))^2 + ||[am;aj]'*u||^2 + sum((uj*gj)^2) over non-negative
+     * multipliers (the system being the optimality condition of this
+     * function). It is the same as the result of the other methods whenever
+     * the latter is optimal, and usually takes a handful of iterations. If the
+     * system cannot be solved this way, LU is used instead.
+     */
+    NNLS
+}
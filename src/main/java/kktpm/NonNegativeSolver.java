@@ -0,0 +1,202 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.util.Arrays;
+
+/**
+ * Solves the system of linear equations of the Lagrange multipliers subject
+ * to non-negativity, using the Lawson-Hanson active-set method. The matrix A
+ * of the system is symmetric positive definite, so solving A*u = b for
+ * u &gt;= 0 is the quadratic program
+ * <pre>
+ * minimize 0.5 * u'*A*u - b'*u subject to u &gt;= 0
+ * </pre>
+ * whose objective is (up to a constant and a factor of 2)
+ * (1 - sum(um))^2 + ||[am;aj]'*u||^2 + sum((uj*gj)^2). Lawson-Hanson solves
+ * it exactly: at the solution, the residual b - A*u is zero for positive
+ * multipliers and non-positive for zero multipliers.
+ * <p>
+ * The method is warm-started from the unconstrained solution: the
+ * multipliers that are positive there form the initial passive (free) set,
+ * and the initial (feasible) point keeps their values, with all the other
+ * multipliers set to zero. So if no multiplier is negative the system is
+ * solved only once. Each iteration solves the equations of the passive set
+ * using a Cholesky factorization.
+ * <p>
+ * The buffers are allocated once, so the same instance can solve any number
+ * of systems of the same size.
+ */
+class NonNegativeSolver {
+
+    // Relative tolerance of the optimality test
+    private static final double TOLERANCE = 1e-12;
+
+    private final int size;
+    private final double[][] reduced;
+    private final double[] reducedB;
+    private final double[] s;
+    private final boolean[] passive;
+    private final CholeskyFactorization cholesky;
+    // The number of systems solved after the unconstrained one
+    private int iterations;
+
+    NonNegativeSolver(int size) {
+        this.size = size;
+        this.reduced = new double[size][size];
+        this.reducedB = new double[size];
+        this.s = new double[size];
+        this.passive = new boolean[size];
+        this.cholesky = new CholeskyFactorization(size);
+    }
+
+    /**
+     * Solves A*u = b for u &gt;= 0.
+     *
+     * @param a the matrix of the system (not modified)
+     * @param b the right-hand-side vector (not modified)
+     * @param u receives the solution
+     * @return false if the system could not be solved (a matrix that is not
+     * numerically positive definite, or too many iterations)
+     */
+    boolean solve(double[][] a, double[] b, double[] u) {
+        iterations = 0;
+        // Warm start
+        Arrays.fill(passive, true);
+        if (!solvePassiveSet(a, b)) {
+            return false;
+        }
+        boolean feasible = true;
+        for (int j = 0; j < size; j++) {
+            passive[j] = s[j] > 0;
+            feasible &= s[j] >= 0;
+        }
+        // Start from max(s, 0) (zero outside of the passive set)
+        for (int j = 0; j < size; j++) {
+            u[j] = passive[j] ? s[j] : 0;
+        }
+        if (feasible) {
+            return true;
+        }
+        int maxIterations = 3 * size + 10;
+        while (true) {
+            // Solve the equations of the passive set, moving back towards
+            // the current (feasible) point while the solution is infeasible
+            while (true) {
+                if (++iterations > maxIterations || !solvePassiveSet(a, b)) {
+                    return false;
+                }
+                double alpha = 1;
+                int blocking = -1;
+                for (int j = 0; j < size; j++) {
+                    if (passive[j] && s[j] <= 0) {
+                        // No step at all if the multiplier cannot decrease
+                        double ratio = u[j] > s[j] ? u[j] / (u[j] - s[j]) : 0;
+                        if (blocking == -1 || ratio < alpha) {
+                            alpha = ratio;
+                            blocking = j;
+                        }
+                    }
+                }
+                if (blocking == -1) {
+                    System.arraycopy(s, 0, u, 0, size);
+                    break;
+                }
+                for (int j = 0; j < size; j++) {
+                    if (passive[j]) {
+                        u[j] += alpha * (s[j] - u[j]);
+                        if (j == blocking || u[j] <= 0) {
+                            u[j] = 0;
+                            passive[j] = false;
+                        }
+                    }
+                }
+            }
+            // Free the active multiplier having the largest positive residual
+            // (the solution is optimal if there is none)
+            int entering = -1;
+            double largest = 0;
+            for (int j = 0; j < size; j++) {
+                if (passive[j]) {
+                    continue;
+                }
+                double residual = b[j];
+                double scale = Math.abs(b[j]);
+                for (int k = 0; k < size; k++) {
+                    residual -= a[j][k] * u[k];
+                    scale += Math.abs(a[j][k] * u[k]);
+                }
+                if (residual > TOLERANCE * Math.max(1, scale)
+                        && residual > largest) {
+                    largest = residual;
+                    entering = j;
+                }
+            }
+            if (entering == -1) {
+                return true;
+            }
+            passive[entering] = true;
+        }
+    }
+
+    /**
+     * Tests the optimality of non-negative multipliers: the residual b - A*u
+     * must be (numerically) non-positive for each multiplier that is zero
+     * (otherwise freeing that multiplier would improve the solution). The
+     * residual of positive multipliers is zero by construction, so it is not
+     * tested.
+     *
+     * @param a the matrix of the system
+     * @param b the right-hand-side vector
+     * @param u the multipliers (none of them negative)
+     * @return true if the multipliers solve A*u = b for u &gt;= 0
+     */
+    static boolean isOptimal(double[][] a, double[] b, double[] u) {
+        for (int j = 0; j < u.length; j++) {
+            if (u[j] != 0) {
+                continue;
+            }
+            double residual = b[j];
+            double scale = Math.abs(b[j]);
+            for (int k = 0; k < u.length; k++) {
+                residual -= a[j][k] * u[k];
+                scale += Math.abs(a[j][k] * u[k]);
+            }
+            if (residual > TOLERANCE * Math.max(1, scale)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of times the system was re-solved (after the
+     * unconstrained solution) by the last call to solve(...)
+     */
+    int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Solves the equations of the passive set into (s), with the active
+     * multipliers fixed to zero (their rows and columns are replaced by those
+     * of the identity matrix).
+     */
+    private boolean solvePassiveSet(double[][] a, double[] b) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                reduced[i][j] = passive[i] && passive[j]
+                        ? a[i][j] : (i == j ? 1 : 0);
+            }
+            reducedB[i] = passive[i] ? b[i] : 0;
+        }
+        if (!cholesky.factorize(reduced)) {
+            return false;
+        }
+        cholesky.solve(reducedB, s);
+        return true;
+    }
+}
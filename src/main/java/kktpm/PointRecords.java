@@ -0,0 +1,79 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * The flat record layout used to store points in buffers (typically off-heap
+ * buffers created by ByteBuffer.allocateDirect(...).asDoubleBuffer(), or
+ * memory-mapped files). Each point is a record of consecutive doubles:
+ * <pre>
+ * x (n), f (M), g (J), jacobianF (M*n, row by row), jacobianG (J*n, row by row)
+ * </pre>
+ * where n, M and J are the numbers of variables, objectives and constraints.
+ * Records are stored one after the other, so record (p) starts at
+ * p * getLength(n, M, J).
+ */
+public final class PointRecords {
+
+    private PointRecords() {
+    }
+
+    /**
+     * @param varCount number of variables
+     * @param objCount number of objectives
+     * @param conCount number of constraints
+     * @return the number of doubles in each record
+     */
+    public static int getLength(int varCount, int objCount, int conCount) {
+        return varCount + objCount + conCount
+                + (objCount + conCount) * varCount;
+    }
+
+    /**
+     * Writes a point as a record at the current position of a buffer
+     * (advancing the position to the end of the record).
+     *
+     * @param buffer the buffer
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     */
+    public static void put(
+            DoubleBuffer buffer,
+            double[] x,
+            double[] f,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG) {
+        for (double[] row : jacobianF) {
+            checkRowLength(row, x.length);
+        }
+        for (double[] row : jacobianG) {
+            checkRowLength(row, x.length);
+        }
+        buffer.put(x);
+        buffer.put(f);
+        buffer.put(g);
+        for (double[] row : jacobianF) {
+            buffer.put(row);
+        }
+        for (double[] row : jacobianG) {
+            buffer.put(row);
+        }
+    }
+
+    private static void checkRowLength(double[] row, int varCount) {
+        if (row.length != varCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Each row of the Jacobians must have %d elements.",
+                    varCount));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A binary file holding a population of points having the same number of
+ * variables (n), objectives (M) and constraints (J). All the values are
+ * little-endian. The file starts with a header of {@link #HEADER_SIZE} bytes:
+ * <pre>
+ * magic ("KKTPMPOP", 8 bytes), version (int), n (int), M (int), J (int),
+ * number of points (long)
+ * </pre>
+ * followed by the records of the points (see {@link PointRecords}). Files are
+ * written using {@link PopulationFileWriter}.
+ * <p>
+ * KKTPM is calculated by memory-mapping the file and streaming its records
+ * through a single {@link KKTPMWorkspace}, without creating Java arrays for
+ * the points. The results are written to a memory-mapped output file holding
+ * one little-endian double per point (in the same order).
+ */
+public class PopulationFile {
+
+    /**
+     * The size of the header in bytes (a multiple of 8, so that the records
+     * are aligned).
+     */
+    public static final int HEADER_SIZE = 32;
+
+    static final long MAGIC = 0x504F504D50544B4BL; // "KKTPMPOP"
+    static final int VERSION = 1;
+
+    // The largest part of a file mapped at once
+    private static final long MAX_MAPPING_SIZE = 1 << 30;
+
+    private final File file;
+    private final int varCount;
+    private final int objCount;
+    private final int conCount;
+    private final long popSize;
+
+    /**
+     * Opens a population file (only its header is read).
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be read, or if it is not a valid
+     * population file
+     */
+    public PopulationFile(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            FileChannel channel = input.getChannel();
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1) {
+                    throw new IOException(String.format(
+                            "%s is not a population file (too short).", file));
+                }
+            }
+            header.flip();
+            if (header.getLong() != MAGIC) {
+                throw new IOException(String.format(
+                        "%s is not a population file.", file));
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(String.format(
+                        "Unsupported population file version (%d).", version));
+            }
+            varCount = header.getInt();
+            objCount = header.getInt();
+            conCount = header.getInt();
+            popSize = header.getLong();
+            if (varCount < 1 || objCount < 1 || conCount < 0 || popSize < 0) {
+                throw new IOException(String.format(
+                        "Invalid population file header (%d variables, %d "
+                        + "objectives, %d constraints, %d points).",
+                        varCount, objCount, conCount, popSize));
+            }
+            long expectedLength = HEADER_SIZE + popSize * getRecordSize();
+            if (channel.size() != expectedLength) {
+                throw new IOException(String.format(
+                        "The length of %s is %d bytes (%d expected).",
+                        file, channel.size(), expectedLength));
+            }
+        }
+    }
+
+    /**
+     * Calculates KKTPM for all the points of the file.
+     *
+     * @param output the file receiving the KKTPM of each point (created, or
+     * overwritten if it exists)
+     * @param z ideal point (need not be the true ideal point of the problem)
+     * @param rho Augmented ASF (AASF) parameter
+     * @return the number of points
+     * @throws IOException if either file cannot be accessed
+     */
+    public long getKKTPM(File output, double[] z, double rho)
+            throws IOException {
+        long recordSize = getRecordSize();
+        // Whole records are mapped at once
+        long chunkSize = Math.max(1, MAX_MAPPING_SIZE / recordSize);
+        KKTPMWorkspace workspace = new KKTPMWorkspace(
+                varCount, objCount, conCount);
+        try (RandomAccessFile input = new RandomAccessFile(file, "r");
+                RandomAccessFile results = new RandomAccessFile(output, "rw")) {
+            FileChannel inputChannel = input.getChannel();
+            FileChannel outputChannel = results.getChannel();
+            outputChannel.truncate(popSize * 8);
+            for (long start = 0; start < popSize; start += chunkSize) {
+                long count = Math.min(chunkSize, popSize - start);
+                MappedByteBuffer points = inputChannel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + start * recordSize,
+                        count * recordSize);
+                MappedByteBuffer kktpm = outputChannel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        start * 8,
+                        count * 8);
+                DoubleBuffer pointsView = points
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                DoubleBuffer kktpmView = kktpm
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                for (long i = 0; i < count; i++) {
+                    kktpmView.put(workspace.getKKTPM(pointsView, z, rho));
+                }
+                kktpm.force();
+            }
+        }
+        return popSize;
+    }
+
+    /**
+     * @return the number of bytes of each record
+     */
+    private long getRecordSize() {
+        return 8L * PointRecords.getLength(varCount, objCount, conCount);
+    }
+
+    /**
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of variables of each point
+     */
+    public int getVarCount() {
+        return varCount;
+    }
+
+    /**
+     * @return the number of objectives of each point
+     */
+    public int getObjCount() {
+        return objCount;
+    }
+
+    /**
+     * @return the number of constraints of each point
+     */
+    public int getConCount() {
+        return conCount;
+    }
+
+    /**
+     * @return the number of points
+     */
+    public long getPopSize() {
+        return popSize;
+    }
+}
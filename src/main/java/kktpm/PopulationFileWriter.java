@@ -0,0 +1,155 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a population file (see {@link PopulationFile}) one point at a time.
+ * Points are buffered and written in large blocks, and the number of points
+ * is written to the header when the writer is closed, so a population of any
+ * size can be written without holding it in memory.
+ */
+public class PopulationFileWriter implements Closeable {
+
+    // The size of the write buffer (at least one record)
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final RandomAccessFile output;
+    private final FileChannel channel;
+    private final int varCount;
+    private final int objCount;
+    private final int conCount;
+    private final ByteBuffer buffer;
+    private final DoubleBuffer doubles;
+    private long popSize;
+
+    /**
+     * Creates a population file (overwriting it if it exists).
+     *
+     * @param file the file
+     * @param varCount number of variables of each point
+     * @param objCount number of objectives of each point
+     * @param conCount number of constraints of each point
+     * @throws IOException if the file cannot be created
+     */
+    public PopulationFileWriter(
+            File file,
+            int varCount,
+            int objCount,
+            int conCount) throws IOException {
+        if (varCount < 1 || objCount < 1 || conCount < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid dimensions (%d variables, %d objectives, %d "
+                    + "constraints).", varCount, objCount, conCount));
+        }
+        this.varCount = varCount;
+        this.objCount = objCount;
+        this.conCount = conCount;
+        int recordSize = 8 * PointRecords.getLength(varCount, objCount, conCount);
+        buffer = ByteBuffer.allocateDirect(
+                Math.max(BUFFER_SIZE / recordSize, 1) * recordSize)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        doubles = buffer.asDoubleBuffer();
+        output = new RandomAccessFile(file, "rw");
+        channel = output.getChannel();
+        channel.truncate(0);
+        // The number of points is written when the writer is closed
+        writeHeader();
+    }
+
+    /**
+     * Appends a point to the file.
+     *
+     * @param x the specified point in design/decision space
+     * @param f the specified point in objective space
+     * @param g constraints values
+     * @param jacobianF matrix of objectives first derivatives
+     * @param jacobianG matrix of constraints first derivatives
+     * @throws IOException if the file cannot be written
+     */
+    public void append(
+            double[] x,
+            double[] f,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG) throws IOException {
+        if (x.length != varCount
+                || f.length != objCount
+                || g.length != conCount
+                || jacobianF.length != objCount
+                || jacobianG.length != conCount) {
+            throw new IllegalArgumentException(String.format(
+                    "The point dimensions do not match the file dimensions "
+                    + "(%d variables, %d objectives, %d constraints).",
+                    varCount, objCount, conCount));
+        }
+        if (doubles.remaining()
+                < PointRecords.getLength(varCount, objCount, conCount)) {
+            flush();
+        }
+        PointRecords.put(doubles, x, f, g, jacobianF, jacobianG);
+        popSize++;
+    }
+
+    /**
+     * @return the number of points appended so far
+     */
+    public long getPopSize() {
+        return popSize;
+    }
+
+    /**
+     * Writes the remaining points and the header, then closes the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            writeHeader();
+        } finally {
+            output.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.clear();
+        buffer.limit(doubles.position() * 8);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        doubles.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PopulationFile.HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(PopulationFile.MAGIC);
+        header.putInt(PopulationFile.VERSION);
+        header.putInt(varCount);
+        header.putInt(objCount);
+        header.putInt(conCount);
+        header.putLong(popSize);
+        header.flip();
+        long position = channel.position();
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        if (position > 0) {
+            channel.position(position);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parsing;
+
+/**
+ * The finite difference schemes used to calculate the partial derivatives that
+ * are not provided as formulas.
+ */
+public enum GradientMethod {
+
+    /**
+     * (f(x+delta) - f(x)) / delta. One additional function evaluation per
+     * partial derivative (the value at the current point is evaluated only
+     * once per function).
+     */
+    FORWARD(1),
+    /**
+     * (f(x+delta) - f(x-delta)) / (2 delta). Two additional function
+     * evaluations per partial derivative, with an error of order delta^2
+     * instead of delta.
+     */
+    CENTRAL(2),
+    /**
+     * Central difference with a step scaled to the magnitude of each variable
+     * (cbrt(machine epsilon) * max(1, |x|), which balances truncation and
+     * rounding errors) instead of the fixed delta. Two additional function
+     * evaluations per partial derivative.
+     */
+    ADAPTIVE(2),
+    /**
+     * Exact partial derivatives calculated by reverse mode automatic
+     * differentiation of the compiled program of the function (see
+     * {@link OptimizationProblem#setCompilationEnabled(boolean)}). The whole
+     * gradient costs about two evaluations of the function, and no
+     * additional function evaluations are counted. Functions that are not
+     * compiled fall back to forward difference.
+     */
+    AUTOMATIC(0);
+
+    private final int evaluationsCount;
+
+    GradientMethod(int evaluationsCount) {
+        this.evaluationsCount = evaluationsCount;
+    }
+
+    /**
+     * @return the number of additional function evaluations consumed by each
+     * partial derivative
+     */
+    public int getEvaluationsCount() {
+        return evaluationsCount;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parsing;
+
+/**
+ * All the approximations of KKTPM calculated at the same point: direct,
+ * adjusted, projected and the final (approximate) KKTPM.
+ */
+public class KKTPMComponents {
+
+    private final double direct;
+    private final double adjusted;
+    private final double projected;
+    private final double kktpm;
+
+    public KKTPMComponents(
+            double direct,
+            double adjusted,
+            double projected,
+            double kktpm) {
+        this.direct = direct;
+        this.adjusted = adjusted;
+        this.projected = projected;
+        this.kktpm = kktpm;
+    }
+
+    /**
+     * @return the direct KKTPM
+     */
+    public double getDirect() {
+        return direct;
+    }
+
+    /**
+     * @return the adjusted KKTPM
+     */
+    public double getAdjusted() {
+        return adjusted;
+    }
+
+    /**
+     * @return the projected KKTPM
+     */
+    public double getProjected() {
+        return projected;
+    }
+
+    /**
+     * @return the final KKTPM (the average of the other three if the
+     * approximation is required, the direct KKTPM otherwise)
+     */
+    public double getKktpm() {
+        return kktpm;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parsing;
+
+/**
+ * Everything calculated by a single KKTPM evaluation at a point: all the
+ * approximations of KKTPM (see {@link KKTPMComponents}), the Lagrange
+ * multipliers and the weight vector they were calculated for, the size of
+ * the active set, whether the final KKTPM is approximate, and the number of
+ * function evaluations consumed by numerical partial derivatives.
+ */
+public class KKTPMResult extends KKTPMComponents {
+
+    private final double[] lagrangeMultipliers;
+    private final double[] weight;
+    private final boolean approximation;
+    private final int funEvalCount;
+
+    public KKTPMResult(
+            double direct,
+            double adjusted,
+            double projected,
+            double kktpm,
+            double[] lagrangeMultipliers,
+            double[] weight,
+            boolean approximation,
+            int funEvalCount) {
+        super(direct, adjusted, projected, kktpm);
+        this.lagrangeMultipliers = lagrangeMultipliers;
+        this.weight = weight;
+        this.approximation = approximation;
+        this.funEvalCount = funEvalCount;
+    }
+
+    /**
+     * @return the Lagrange multipliers (those of the objectives followed by
+     * those of the constraints)
+     */
+    public double[] getLagrangeMultipliers() {
+        return lagrangeMultipliers;
+    }
+
+    /**
+     * @return the weight vector (direction) used by the calculation
+     */
+    public double[] getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the number of multipliers held at zero by the non-negativity
+     * constraint (the active set)
+     */
+    public int getActiveSetSize() {
+        int size = 0;
+        for (double u : lagrangeMultipliers) {
+            if (u == 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return true if the final KKTPM is the average of direct, adjusted and
+     * projected KKTPM, false if it is direct KKTPM
+     */
+    public boolean isApproximation() {
+        return approximation;
+    }
+
+    /**
+     * @return the number of additional function evaluations consumed by
+     * numerical partial derivatives (zero if the point was not evaluated
+     * using a problem)
+     */
+    public int getFunEvalCount() {
+        return funEvalCount;
+    }
+
+    /**
+     * @return the final KKTPM and the number of function evaluations
+     */
+    public KKTPM toKKTPM() {
+        return new KKTPM(getKktpm(), funEvalCount);
+    }
+}
@@ -5,16 +5,31 @@
  */
 package parsing;
 
+import compilation.Differentiator;
+import compilation.Expression;
+import compilation.ExpressionParser;
+import compilation.ExpressionPrinter;
+import compilation.Operation;
+import compilation.ParametersTable;
+import compilation.Program;
+import compilation.ProgramBuilder;
+import compilation.VariablesLayout;
 import core.MathExpressionParser;
 import core.VariablesManager;
 import exceptions.EvaluationException;
 import exceptions.MisplacedTokensException;
 import exceptions.TooManyDecimalPointsException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import types.AbstractNode;
@@ -33,8 +48,20 @@ import utility.StringUtils;
  */
 public class OptimizationProblem {
 
+    private static final Logger LOGGER
+            = Logger.getLogger(OptimizationProblem.class.getName());
     // For numerical gradients
     public static final double DEFAULT_DELTA = 0.001;
+    public static final GradientMethod DEFAULT_GRADIENT_METHOD
+            = GradientMethod.FORWARD;
+    // The step of GradientMethod.ADAPTIVE (relative to the magnitude of x)
+    private static final double ADAPTIVE_STEP = Math.cbrt(Math.ulp(1.0));
+    // The points a compiled formula is checked at before it is trusted (see
+    // isEquivalent(...)), the first ones being positive
+    private static final int EQUIVALENCE_POINTS_COUNT = 9;
+    private static final int POSITIVE_EQUIVALENCE_POINTS_COUNT = 3;
+    // The last modification stamp given to any problem
+    private static final AtomicLong lastModificationStamp = new AtomicLong();
 
     private final VariablesManager vm;
     private final List<AbstractNode> objList;
@@ -45,6 +72,30 @@ public class OptimizationProblem {
     private final List<AbstractNode[][]> conGradListVectors;
     // For numerical gradients
     private double delta;
+    private GradientMethod gradientMethod;
+    // Everything defined so far, in order (used for creating independent
+    // copies of the problem, see ProblemDefinition)
+    private final List<DefinitionStep> definitionSteps;
+    // Changed whenever the definition changes (see getModificationStamp())
+    private long modificationStamp;
+    // True while the formulas of a context are added (see DeferredParseTree)
+    private boolean parsingDeferred;
+    // Compiled versions of the parse trees (see setCompilationEnabled(...))
+    private boolean compilationEnabled;
+    private final Map<AbstractNode, CompiledFormula> compiledFormulas;
+    private final ParametersTable parameters;
+    // The tx2ex parse trees of the named constants (by slot, null if the
+    // name cannot be parsed), and the constants that cannot be evaluated
+    private final List<AbstractNode> parameterNodes;
+    private final BitSet undefinedParameters;
+    private VariablesLayout layout;
+    private double[][] inputs;
+    private double[] registers;
+    private double[] adjoints;
+    private double[] automaticGradient;
+    private double[] denseGradient;
+    // All the compiled formulas in one program (see evaluateAll(...))
+    private SharedProgram sharedProgram;
 
     public OptimizationProblem() {
         vm = new VariablesManager();
@@ -55,6 +106,58 @@ public class OptimizationProblem {
         conGradListVariables = new ArrayList<>();
         conGradListVectors = new ArrayList<>();
         this.delta = DEFAULT_DELTA;
+        this.gradientMethod = DEFAULT_GRADIENT_METHOD;
+        definitionSteps = new ArrayList<>();
+        modificationStamp = lastModificationStamp.incrementAndGet();
+        compilationEnabled = true;
+        compiledFormulas = new IdentityHashMap<>();
+        parameters = new ParametersTable();
+        parameterNodes = new ArrayList<>();
+        undefinedParameters = new BitSet();
+        registers = new double[0];
+        adjoints = new double[0];
+        automaticGradient = new double[0];
+        denseGradient = new double[0];
+    }
+
+    /**
+     * Creates an evaluation context out of a definition (see
+     * {@link ProblemDefinition#newContext()}). The definitions are replayed
+     * in their original order: the values of the constants, variables and
+     * vectors are copied and the commands are executed again, while the
+     * compiled programs and the layout of the variables are shared with the
+     * definition. Formulas are not parsed: the tx2ex parse tree of a formula
+     * (bound to the variables of this context) is built the first time it is
+     * needed, which never happens for the formulas evaluated by compiled
+     * programs.
+     *
+     * @param definition the definition of the problem
+     * @throws TooManyDecimalPointsException if thrown by
+     * MathExpressionParser.parse(...) for a command
+     * @throws MisplacedTokensException if thrown by
+     * MathExpressionParser.parse(...) for a command
+     * @throws EvaluationException if a command cannot be evaluated
+     */
+    OptimizationProblem(ProblemDefinition definition) throws
+            TooManyDecimalPointsException,
+            MisplacedTokensException,
+            EvaluationException {
+        this();
+        // The compiled forms are adopted below instead of being re-compiled
+        compilationEnabled = false;
+        parsingDeferred = true;
+        for (DefinitionStep step : definition.getSteps()) {
+            replay(step);
+        }
+        parsingDeferred = false;
+        setAllVariables(definition.getPoint());
+        delta = definition.getDelta();
+        gradientMethod = definition.getGradientMethod();
+        compilationEnabled = definition.isCompilationEnabled();
+        if (compilationEnabled) {
+            adoptCompiledForms(definition);
+        }
+        modificationStamp = definition.getModificationStamp();
     }
 
     /**
@@ -72,7 +175,7 @@ public class OptimizationProblem {
             TooManyDecimalPointsException,
             MisplacedTokensException,
             Throwable {
-        objList.add(MathExpressionParser.parse(objString, vm));
+        addFormula(objList, DefinitionStep.Kind.OBJECTIVE, objString);
     }
 
 //    /**
@@ -101,7 +204,7 @@ public class OptimizationProblem {
      * @throws EvaluationException if the objective cannot be evaluated
      */
     public double getObjective(int objIndex) throws EvaluationException {
-        return objList.get(objIndex).evaluate();
+        return evaluate(objList.get(objIndex));
     }
 
     /**
@@ -120,7 +223,30 @@ public class OptimizationProblem {
             TooManyDecimalPointsException,
             MisplacedTokensException,
             Throwable {
-        conList.add(MathExpressionParser.parse(constString, vm));
+        addFormula(conList, DefinitionStep.Kind.CONSTRAINT, constString);
+    }
+
+    /**
+     * Adds an objective or a constraint.
+     *
+     * @param targetList either the objectives list or the constraints list
+     * @param kind the kind of the definition step
+     * @param source the mathematical formula
+     * @throws TooManyDecimalPointsException if thrown by
+     * MathExpressionParser.parse(...)
+     * @throws MisplacedTokensException if thrown by
+     * MathExpressionParser.parse(...)
+     */
+    private void addFormula(
+            List<AbstractNode> targetList,
+            DefinitionStep.Kind kind,
+            String source) throws
+            TooManyDecimalPointsException,
+            MisplacedTokensException {
+        AbstractNode parseTree = parse(source);
+        targetList.add(parseTree);
+        addDefinitionStep(new DefinitionStep(kind, null, -1, source, 0, null,
+                compile(parseTree, source)));
     }
 
 //    /**
@@ -149,7 +275,7 @@ public class OptimizationProblem {
      * @throws EvaluationException if the constraint cannot be evaluated
      */
     public double getConstraint(int conIndex) throws EvaluationException {
-        return conList.get(conIndex).evaluate();
+        return evaluate(conList.get(conIndex));
     }
 
     /**
@@ -161,6 +287,9 @@ public class OptimizationProblem {
      */
     public void setConstant(String constantName, double value) {
         vm.setConstant(constantName, value);
+        addDefinitionStep(new DefinitionStep(DefinitionStep.Kind.CONSTANT,
+                constantName, -1, null, value, null, null));
+        refreshParameters();
     }
 
     /**
@@ -171,7 +300,14 @@ public class OptimizationProblem {
      * @param value newly assigned value
      */
     public void setVariable(String varName, double value) {
+        int variablesCount = vm.getVariablesCount();
         vm.set(varName, value);
+        if (vm.getVariablesCount() != variablesCount) {
+            // A new variable
+            addDefinitionStep(new DefinitionStep(
+                    DefinitionStep.Kind.VARIABLE,
+                    varName, -1, null, value, null, null));
+        }
     }
 
     /**
@@ -274,7 +410,22 @@ public class OptimizationProblem {
      * @param values newly assigned values
      */
     public void setVector(String vectorName, double[] values) {
+        int previousLength = -1;
+        Iterator<Map.Entry<String, double[]>> it = vm.vectorsIterator();
+        while (it.hasNext()) {
+            Map.Entry<String, double[]> entry = it.next();
+            if (vectorName.equals(entry.getKey())) {
+                previousLength = entry.getValue().length;
+                break;
+            }
+        }
         vm.setVector(vectorName, values);
+        if (values.length != previousLength) {
+            // A new (or resized) vector
+            addDefinitionStep(new DefinitionStep(
+                    DefinitionStep.Kind.VECTOR,
+                    vectorName, -1, null, 0, values.clone(), null));
+        }
     }
 
     /**
@@ -413,18 +564,8 @@ public class OptimizationProblem {
             TooManyDecimalPointsException,
             MisplacedTokensException,
             Throwable {
-        if (!varName.contains("[")) {
-            setPartialDerivative(objIndex, varName, partialDerivativeString,
-                    objGradListVariables);
-        } else {
-            // Retireve vector name
-            String vecName = varName.substring(0, varName.indexOf('['));
-            // Retrieve index
-            int elementIndex = Integer.parseInt(varName.substring(
-                    varName.indexOf('[') + 1, varName.indexOf(']'))) - 1;
-            setPartialDerivative(objIndex, vecName, elementIndex,
-                    partialDerivativeString, objGradListVectors);
-        }
+        setPartialDerivative(DefinitionStep.Kind.OBJECTIVE_DERIVATIVE, objIndex, varName,
+                partialDerivativeString, objGradListVariables, objGradListVectors);
     }
 
     /**
@@ -448,18 +589,53 @@ public class OptimizationProblem {
             TooManyDecimalPointsException,
             MisplacedTokensException,
             Throwable {
+        setPartialDerivative(DefinitionStep.Kind.CONSTRAINT_DERIVATIVE, conIndex, varName,
+                partialDerivativeString, conGradListVariables, conGradListVectors);
+    }
+
+    /**
+     * Sets an objective or constraint partial derivative with respect to some
+     * variable or vector element.
+     *
+     * @param kind the kind of the definition step
+     * @param index the index of the objective/constraint
+     * @param varName the name of the variable or vector element with respect
+     * to which we derive
+     * @param partialDerivativeString the partial derivative mathematical
+     * formula
+     * @param variablesTargetList either objectives or constraints gradients
+     * list (variables)
+     * @param vectorsTargetList either objectives or constraints gradients
+     * list (vectors)
+     * @throws TooManyDecimalPointsException if thrown by
+     * MathExpressionParser.parse(...)
+     * @throws MisplacedTokensException if thrown by
+     * MathExpressionParser.parse(...)
+     */
+    private void setPartialDerivative(
+            DefinitionStep.Kind kind,
+            int index,
+            String varName,
+            String partialDerivativeString,
+            List<AbstractNode[]> variablesTargetList,
+            List<AbstractNode[][]> vectorsTargetList) throws
+            TooManyDecimalPointsException,
+            MisplacedTokensException {
+        CompiledFormula formula;
         if (!varName.contains("[")) {
-            setPartialDerivative(conIndex, varName, partialDerivativeString,
-                    conGradListVariables);
+            formula = setPartialDerivative(index, varName,
+                    partialDerivativeString, variablesTargetList);
         } else {
             // Retireve vector name
             String vecName = varName.substring(0, varName.indexOf('['));
             // Retrieve index
             int elementIndex = Integer.parseInt(varName.substring(
                     varName.indexOf('[') + 1, varName.indexOf(']'))) - 1;
-            setPartialDerivative(conIndex, vecName, elementIndex,
-                    partialDerivativeString, conGradListVectors);
+            formula = setPartialDerivative(index, vecName, elementIndex,
+                    partialDerivativeString, vectorsTargetList);
         }
+        addDefinitionStep(new DefinitionStep(kind, varName, index,
+                partialDerivativeString, 0, null, formula));
     }
 
     /**
@@ -474,23 +650,24 @@ public class OptimizationProblem {
      * formula.
      * @param targetList either objectives gradient list or constraints
      * gradients list.
+     * @return the new formula (null if the partial derivative is to be
+     * calculated numerically)
      * @throws TooManyDecimalPointsException if thrown by
      * MathExpressionParser.parse(...)
      * @throws MisplacedTokensException if thrown by
      * MathExpressionParser.parse(...)
-     * @throws Throwable if thrown by MathExpressionParser.parse(...)
      */
-    private void setPartialDerivative(
+    private CompiledFormula setPartialDerivative(
             int index,
             String vectorName,
             int elementIndex,
             String partialDerivativeString,
             List<AbstractNode[][]> targetList) throws
             TooManyDecimalPointsException,
-            MisplacedTokensException,
-            Throwable {
+            MisplacedTokensException {
         Iterator<Map.Entry<String, double[]>> it = vm.vectorsIterator();
         boolean vectorFound = false;
+        CompiledFormula formula = null;
 
         for (int i = 0; it.hasNext(); i++) {
             Map.Entry<String, double[]> vecValPair = it.next();
@@ -517,11 +694,16 @@ public class OptimizationProblem {
                         targetList.add(allVectorsGradients);
                     }
                 }
+                if (targetList.get(index)[i][elementIndex] != null) {
+                    compiledFormulas.remove(targetList.get(index)[i][elementIndex]);
+                }
+                sharedProgram = null;
                 if (partialDerivativeString == null || partialDerivativeString.trim().isEmpty()) {
                     targetList.get(index)[i][elementIndex] = null;
                 } else {
-                    targetList.get(index)[i][elementIndex] = MathExpressionParser.parse(
-                            partialDerivativeString, vm);
+                    AbstractNode parseTree = parse(partialDerivativeString);
+                    targetList.get(index)[i][elementIndex] = parseTree;
+                    formula = compile(parseTree, partialDerivativeString);
                 }
                 // Flag that the variable exists
                 vectorFound = true;
@@ -535,6 +717,7 @@ public class OptimizationProblem {
                     vectorName);
             throw new IllegalArgumentException(message);
         }
+        return formula;
     }
 
     /**
@@ -549,22 +732,23 @@ public class OptimizationProblem {
      * formula.
      * @param targetList either objectives gradient list or constraints
      * gradients list.
+     * @return the new formula (null if the partial derivative is to be
+     * calculated numerically)
      * @throws TooManyDecimalPointsException if thrown by
      * MathExpressionParser.parse(...)
      * @throws MisplacedTokensException if thrown by
      * MathExpressionParser.parse(...)
-     * @throws Throwable if thrown by MathExpressionParser.parse(...)
      */
-    private void setPartialDerivative(
+    private CompiledFormula setPartialDerivative(
             int index,
             String varName,
             String partialDerivativeString,
             List<AbstractNode[]> targetList) throws
             TooManyDecimalPointsException,
-            MisplacedTokensException,
-            Throwable {
+            MisplacedTokensException {
         Iterator<Map.Entry<String, Double>> it = vm.variablesIterator();
         boolean variableFound = false;
+        CompiledFormula formula = null;
         for (int i = 0; it.hasNext(); i++) {
             Map.Entry<String, Double> varValPair = it.next();
             if (varName.equals(varValPair.getKey())) {
@@ -584,11 +768,16 @@ public class OptimizationProblem {
                         targetList.add(new AbstractNode[vm.getVariablesCount()]);
                     }
                 }
+                if (targetList.get(index)[i] != null) {
+                    compiledFormulas.remove(targetList.get(index)[i]);
+                }
+                sharedProgram = null;
                 if (partialDerivativeString == null || partialDerivativeString.trim().isEmpty()) {
                     targetList.get(index)[i] = null;
                 } else {
-                    targetList.get(index)[i] = MathExpressionParser.parse(
-                            partialDerivativeString, vm);
+                    AbstractNode parseTree = parse(partialDerivativeString);
+                    targetList.get(index)[i] = parseTree;
+                    formula = compile(parseTree, partialDerivativeString);
                 }
                 // Flag that the variable exists
                 variableFound = true;
@@ -602,6 +791,7 @@ public class OptimizationProblem {
                     varName);
             throw new IllegalArgumentException(message);
         }
+        return formula;
     }
 
     /**
@@ -707,20 +897,21 @@ public class OptimizationProblem {
                     } else if((gradientsTargetList == conGradListVariables)) {
                         targetList = conList;
                     }
-                    // Get the obj/con value at the current point
-                    double currValue = targetList.get(index).evaluate();
-                    // Move your point ahead with distance delta
-                    setVariable(varName, getVariable(varName) + getDelta());
-                    // Get the value after shifting
-                    double shiftedValue = targetList.get(index).evaluate();
-                    // Calculate the partial derivative using  Newton's difference quotient (also known as a first-order divided difference or forward difference)
-                    partialDerivative = (shiftedValue - currValue) / getDelta();
-                    // Return your point to where it was
-                    setVariable(varName, getVariable(varName) - getDelta());
-                    // Return (only one additional function evaluation is consumed by the forward difference method)
-                    return new Derivative(partialDerivative, 1);
+                    if (gradientMethod == GradientMethod.AUTOMATIC
+                            && differentiateAutomatically(targetList.get(index))) {
+                        return new Derivative(automaticGradient[i], 0);
+                    }
+                    // Get the obj/con value at the current point (only needed
+                    // by forward difference)
+                    double currValue = getFiniteDifferenceMethod() == GradientMethod.FORWARD
+                            ? evaluate(targetList.get(index)) : Double.NaN;
+                    partialDerivative = differentiate(targetList.get(index),
+                            currValue, varValPair, null, -1);
+                    // Return (the value at the current point is not counted)
+                    return new Derivative(partialDerivative,
+                            getFiniteDifferenceMethod().getEvaluationsCount());
                 } else {
-                    return new Derivative(gradientsTargetList.get(index)[i].evaluate(), 0);
+                    return new Derivative(evaluate(gradientsTargetList.get(index)[i]), 0);
                 }
             }
         }
@@ -769,20 +960,22 @@ public class OptimizationProblem {
                     } else if((gradientsTargetList == conGradListVectors)) {
                         targetList = conList;
                     }
-                    // Get the obj/con value at the current point
-                    double currValue = targetList.get(index).evaluate();
-                    // Move your point ahead with distance delta
-                    setVectorElement(vectorName, elementIndex, getVectorElement(vectorName, elementIndex) + getDelta());
-                    // Get the objective value after shifting
-                    double shiftedValue = targetList.get(index).evaluate();
-                    // Calculate the partial derivative using  Newton's difference quotient (also known as a first-order divided difference or forward difference)
-                    partialDerivative = (shiftedValue - currValue) / getDelta();
-                    // Return your point to where it was
-                    setVectorElement(vectorName, elementIndex, getVectorElement(vectorName, elementIndex) - getDelta());
-                    // Return (only one additional function evaluation is consumed by the forward difference method)
-                    return new Derivative(partialDerivative, 1);
+                    if (gradientMethod == GradientMethod.AUTOMATIC
+                            && differentiateAutomatically(targetList.get(index))) {
+                        return new Derivative(automaticGradient[
+                                layout.getFlatIndex(i + 1, elementIndex)], 0);
+                    }
+                    // Get the obj/con value at the current point (only needed
+                    // by forward difference)
+                    double currValue = getFiniteDifferenceMethod() == GradientMethod.FORWARD
+                            ? evaluate(targetList.get(index)) : Double.NaN;
+                    partialDerivative = differentiate(targetList.get(index),
+                            currValue, null, vecValPair.getValue(), elementIndex);
+                    // Return (the value at the current point is not counted)
+                    return new Derivative(partialDerivative,
+                            getFiniteDifferenceMethod().getEvaluationsCount());
                 } else {
-                    return new Derivative(gradientsTargetList.get(index)[i][elementIndex].evaluate(), 0);
+                    return new Derivative(evaluate(gradientsTargetList.get(index)[i][elementIndex]), 0);
                 }
             }
         }
@@ -791,6 +984,730 @@ public class OptimizationProblem {
         throw new IllegalArgumentException(message);
     }
 
+    /**
+     * Gets the gradient of objective <i>objIndex</i> at the current point. The
+     * partial derivatives are stored in the same order used by
+     * setAllVariables(...) (all the variables first, followed by the elements
+     * of all the vectors). Partial derivatives that are not provided as
+     * formulas are calculated using the scheme set by setGradientMethod(...):
+     * forward (the default), central or adaptive central difference, or
+     * automatic differentiation of the compiled function.
+     *
+     * @param objIndex the index of the objective.
+     * @param gradient the array receiving the partial derivatives (its length
+     * must be equal to the total number of variables).
+     * @return the number of additional function evaluations consumed by
+     * numerical partial derivatives.
+     * @throws EvaluationException if the objective or any of its partial
+     * derivatives cannot be evaluated
+     */
+    public int getObjectiveGradient(int objIndex, double[] gradient) throws
+            EvaluationException {
+        return getGradient(objIndex, objList, objGradListVariables,
+                objGradListVectors, gradient, false, Double.NaN);
+    }
+
+    /**
+     * Gets the gradient of constraint <i>conIndex</i> at the current point.
+     * The partial derivatives are stored in the same order used by
+     * setAllVariables(...) (all the variables first, followed by the elements
+     * of all the vectors). Partial derivatives that are not provided as
+     * formulas are calculated using the scheme set by setGradientMethod(...):
+     * forward (the default), central or adaptive central difference, or
+     * automatic differentiation of the compiled function.
+     *
+     * @param conIndex the index of the constraint.
+     * @param gradient the array receiving the partial derivatives (its length
+     * must be equal to the total number of variables).
+     * @return the number of additional function evaluations consumed by
+     * numerical partial derivatives.
+     * @throws EvaluationException if the constraint or any of its partial
+     * derivatives cannot be evaluated
+     */
+    public int getConstraintGradient(int conIndex, double[] gradient) throws
+            EvaluationException {
+        return getGradient(conIndex, conList, conGradListVariables,
+                conGradListVectors, gradient, false, Double.NaN);
+    }
+
+    /**
+     * Gets the sparsity pattern of the gradient of objective <i>objIndex</i>.
+     * A partial derivative is a structural zero if its formula is the
+     * constant zero (either written by hand or generated by
+     * deriveObjectivePartialDerivative(...)). Structural zeros are never
+     * evaluated.
+     *
+     * @param objIndex the index of the objective.
+     * @param pattern receives false for the structural zeros and true for all
+     * the other partial derivatives, in the order used by
+     * getObjectiveGradient(...).
+     * @return the number of partial derivatives that are not structural zeros
+     */
+    public int getObjectiveSparsity(int objIndex, boolean[] pattern) {
+        return getSparsity(objIndex, objGradListVariables,
+                objGradListVectors, pattern);
+    }
+
+    /**
+     * Gets the sparsity pattern of the gradient of constraint
+     * <i>conIndex</i> (see getObjectiveSparsity(...)).
+     *
+     * @param conIndex the index of the constraint.
+     * @param pattern receives false for the structural zeros and true for all
+     * the other partial derivatives, in the order used by
+     * getConstraintGradient(...).
+     * @return the number of partial derivatives that are not structural zeros
+     */
+    public int getConstraintSparsity(int conIndex, boolean[] pattern) {
+        return getSparsity(conIndex, conGradListVariables,
+                conGradListVectors, pattern);
+    }
+
+    /**
+     * Differentiates objective <i>objIndex</i> symbolically with respect to
+     * the variable named <i>varName</i>, and sets the simplified result as
+     * its partial derivative (exactly as if it were set using
+     * setObjectivePartialDerivative(...)). A derivative that simplifies to
+     * zero is recorded as a structural zero.
+     *
+     * @param objIndex the index of the objective.
+     * @param varName the name of the variable with respect to which we derive
+     * (a variable name or a vector element, e.g. x[3]).
+     * @return true if the objective was differentiated, false if its formula
+     * is not supported by the symbolic differentiator (the partial derivative
+     * is left unchanged in that case)
+     * @throws Throwable if thrown by MathExpressionParser.parse(...)
+     */
+    public boolean deriveObjectivePartialDerivative(
+            int objIndex,
+            String varName) throws Throwable {
+        String partialDerivativeString
+                = deriveSymbolically(objList.get(objIndex), varName);
+        if (partialDerivativeString == null) {
+            return false;
+        }
+        setObjectivePartialDerivative(objIndex, varName, partialDerivativeString);
+        return true;
+    }
+
+    /**
+     * Differentiates constraint <i>conIndex</i> symbolically with respect to
+     * the variable named <i>varName</i> (see
+     * deriveObjectivePartialDerivative(...)).
+     *
+     * @param conIndex the index of the constraint.
+     * @param varName the name of the variable with respect to which we derive.
+     * @return true if the constraint was differentiated, false if its formula
+     * is not supported by the symbolic differentiator
+     * @throws Throwable if thrown by MathExpressionParser.parse(...)
+     */
+    public boolean deriveConstraintPartialDerivative(
+            int conIndex,
+            String varName) throws Throwable {
+        String partialDerivativeString
+                = deriveSymbolically(conList.get(conIndex), varName);
+        if (partialDerivativeString == null) {
+            return false;
+        }
+        setConstraintPartialDerivative(conIndex, varName, partialDerivativeString);
+        return true;
+    }
+
+    /**
+     * Evaluates all the objectives, constraints and partial derivatives of the
+     * problem at point <i>x</i> in one pass. The point is set only once (see
+     * setAllVariables(...)) and is kept as the current point afterwards.
+     * Gradients are laid out as in getObjectiveGradient(...).
+     *
+     * @param x the point (variables first, followed by vectors elements).
+     * @param fOut receives the values of the objectives.
+     * @param gOut receives the values of the constraints.
+     * @param jfOut receives the gradients of the objectives (one row per
+     * objective).
+     * @param jgOut receives the gradients of the constraints (one row per
+     * constraint).
+     * @return the number of additional function evaluations consumed by
+     * numerical partial derivatives.
+     * @throws EvaluationException if any of the formulas cannot be evaluated
+     */
+    public int evaluateAll(
+            double[] x,
+            double[] fOut,
+            double[] gOut,
+            double[][] jfOut,
+            double[][] jgOut) throws EvaluationException {
+        if (fOut.length != getObjectivesCount()
+                || jfOut.length != getObjectivesCount()) {
+            String message = String.format("The objectives arrays lengths "
+                    + "(%d, %d) must be equal to the number of objectives (%d).",
+                    fOut.length, jfOut.length, getObjectivesCount());
+            throw new IllegalArgumentException(message);
+        }
+        if (gOut.length != getConstraintsCount()
+                || jgOut.length != getConstraintsCount()) {
+            String message = String.format("The constraints arrays lengths "
+                    + "(%d, %d) must be equal to the number of constraints (%d).",
+                    gOut.length, jgOut.length, getConstraintsCount());
+            throw new IllegalArgumentException(message);
+        }
+        setAllVariables(x);
+        SharedProgram shared = evaluateFunctions(fOut, gOut);
+        double[] values = shared == null ? null : shared.registers;
+        int numericalEvalCount = 0;
+        for (int i = 0; i < jfOut.length; i++) {
+            numericalEvalCount += copyGradient(
+                    shared == null ? null : shared.objectivesGradients[i],
+                    values, jfOut[i])
+                    ? 0 : getGradient(i, objList, objGradListVariables,
+                            objGradListVectors, jfOut[i], true, fOut[i]);
+        }
+        for (int i = 0; i < jgOut.length; i++) {
+            numericalEvalCount += copyGradient(
+                    shared == null ? null : shared.constraintsGradients[i],
+                    values, jgOut[i])
+                    ? 0 : getGradient(i, conList, conGradListVariables,
+                            conGradListVectors, jgOut[i], true, gOut[i]);
+        }
+        return numericalEvalCount;
+    }
+
+    /**
+     * Evaluates all the objectives, constraints and partial derivatives of the
+     * problem at point <i>x</i> in one pass (see evaluateAll(...) above),
+     * storing the Jacobians in sparse format. Only the entries in the sparsity
+     * patterns of <i>jfOut</i> and <i>jgOut</i> are evaluated, so if they were
+     * created using createObjectivesJacobian() and
+     * createConstraintsJacobian(), structural zeros cost nothing. Gradients
+     * that are not completely available as compiled formulas are calculated
+     * densely and then compressed.
+     *
+     * @param x the point (variables first, followed by vectors elements).
+     * @param fOut receives the values of the objectives.
+     * @param gOut receives the values of the constraints.
+     * @param jfOut receives the Jacobian of the objectives.
+     * @param jgOut receives the Jacobian of the constraints.
+     * @return the number of additional function evaluations consumed by
+     * numerical partial derivatives.
+     * @throws EvaluationException if any of the formulas cannot be evaluated
+     */
+    public int evaluateAll(
+            double[] x,
+            double[] fOut,
+            double[] gOut,
+            SparseJacobian jfOut,
+            SparseJacobian jgOut) throws EvaluationException {
+        if (fOut.length != getObjectivesCount()
+                || jfOut.getRowsCount() != getObjectivesCount()) {
+            String message = String.format("The objectives arrays lengths "
+                    + "(%d, %d) must be equal to the number of objectives (%d).",
+                    fOut.length, jfOut.getRowsCount(), getObjectivesCount());
+            throw new IllegalArgumentException(message);
+        }
+        if (gOut.length != getConstraintsCount()
+                || jgOut.getRowsCount() != getConstraintsCount()) {
+            String message = String.format("The constraints arrays lengths "
+                    + "(%d, %d) must be equal to the number of constraints (%d).",
+                    gOut.length, jgOut.getRowsCount(), getConstraintsCount());
+            throw new IllegalArgumentException(message);
+        }
+        if (jfOut.getColumnsCount() != getTotalVariablesCount()
+                || jgOut.getColumnsCount() != getTotalVariablesCount()) {
+            String message = String.format("The Jacobians columns counts "
+                    + "(%d, %d) must be equal to the total number of variables "
+                    + "(%d).", jfOut.getColumnsCount(), jgOut.getColumnsCount(),
+                    getTotalVariablesCount());
+            throw new IllegalArgumentException(message);
+        }
+        setAllVariables(x);
+        SharedProgram shared = evaluateFunctions(fOut, gOut);
+        double[] values = shared == null ? null : shared.registers;
+        int numericalEvalCount = 0;
+        for (int i = 0; i < fOut.length; i++) {
+            numericalEvalCount += getSparseGradient(i, objList,
+                    objGradListVariables, objGradListVectors,
+                    shared == null ? null : shared.objectivesGradients[i],
+                    values, fOut[i], jfOut);
+        }
+        for (int i = 0; i < gOut.length; i++) {
+            numericalEvalCount += getSparseGradient(i, conList,
+                    conGradListVariables, conGradListVectors,
+                    shared == null ? null : shared.constraintsGradients[i],
+                    values, gOut[i], jgOut);
+        }
+        return numericalEvalCount;
+    }
+
+    /**
+     * Creates a sparse Jacobian for the objectives, whose pattern excludes the
+     * structural zeros (see getObjectiveSparsity(...)). The Jacobian can be
+     * evaluated any number of times using evaluateAll(...), as long as no
+     * partial derivatives or variables are added.
+     *
+     * @return a sparse Jacobian having one row per objective
+     */
+    public SparseJacobian createObjectivesJacobian() {
+        return createJacobian(objList.size(),
+                objGradListVariables, objGradListVectors);
+    }
+
+    /**
+     * Creates a sparse Jacobian for the constraints (see
+     * createObjectivesJacobian()).
+     *
+     * @return a sparse Jacobian having one row per constraint
+     */
+    public SparseJacobian createConstraintsJacobian() {
+        return createJacobian(conList.size(),
+                conGradListVariables, conGradListVectors);
+    }
+
+    /**
+     * Calculates a partial derivative numerically (using the current finite
+     * difference method) by shifting either a scalar <i>variable</i> or the element
+     * <i>elementIndex</i> of <i>vector</i>. The point is restored exactly
+     * before returning.
+     *
+     * @param function the obj/con to be derived.
+     * @param currValue the value of the function at the current point (only
+     * used by forward difference).
+     */
+    private double differentiate(
+            AbstractNode function,
+            double currValue,
+            Map.Entry<String, Double> variable,
+            double[] vector,
+            int elementIndex) throws EvaluationException {
+        GradientMethod method = getFiniteDifferenceMethod();
+        double value = variable != null
+                ? variable.getValue() : vector[elementIndex];
+        double step = method == GradientMethod.ADAPTIVE
+                ? ADAPTIVE_STEP * Math.max(1, Math.abs(value)) : getDelta();
+        try {
+            double forward = value + step;
+            shift(variable, vector, elementIndex, forward);
+            double forwardValue = evaluate(function);
+            if (method == GradientMethod.FORWARD) {
+                return (forwardValue - currValue) / step;
+            }
+            double backward = value - step;
+            shift(variable, vector, elementIndex, backward);
+            double backwardValue = evaluate(function);
+            // (forward - backward) is the step actually taken (after rounding)
+            return (forwardValue - backwardValue) / (forward - backward);
+        } finally {
+            shift(variable, vector, elementIndex, value);
+        }
+    }
+
+    private SparseJacobian createJacobian(
+            int functionsCount,
+            List<AbstractNode[]> gradListVariables,
+            List<AbstractNode[][]> gradListVectors) {
+        int n = getTotalVariablesCount();
+        boolean[][] patterns = new boolean[functionsCount][n];
+        int[] rowPointers = new int[functionsCount + 1];
+        for (int i = 0; i < functionsCount; i++) {
+            rowPointers[i + 1] = rowPointers[i] + getSparsity(
+                    i, gradListVariables, gradListVectors, patterns[i]);
+        }
+        int[] columnIndices = new int[rowPointers[functionsCount]];
+        int k = 0;
+        for (boolean[] pattern : patterns) {
+            for (int j = 0; j < n; j++) {
+                if (pattern[j]) {
+                    columnIndices[k++] = j;
+                }
+            }
+        }
+        return new SparseJacobian(n, rowPointers, columnIndices);
+    }
+
+    /**
+     * Evaluates all the objectives and constraints at the current point. If
+     * compilation is enabled, all the compiled formulas (including partial
+     * derivatives) are evaluated at once by the shared program, which is
+     * returned so that the partial derivatives can be read from its registers.
+     *
+     * @return the evaluated shared program, or null if compilation is
+     * disabled
+     */
+    private SharedProgram evaluateFunctions(double[] fOut, double[] gOut)
+            throws EvaluationException {
+        if (!compilationEnabled) {
+            for (int i = 0; i < fOut.length; i++) {
+                fOut[i] = evaluate(objList.get(i));
+            }
+            for (int i = 0; i < gOut.length; i++) {
+                gOut[i] = evaluate(conList.get(i));
+            }
+            return null;
+        }
+        // Evaluate all the compiled formulas at once, then read each of them
+        // from its register (formulas that are not compiled are evaluated
+        // separately).
+        SharedProgram shared = getSharedProgram();
+        double[] values = shared.registers;
+        shared.program.evaluate(inputs, parameters.getValues(), values);
+        for (int i = 0; i < fOut.length; i++) {
+            fOut[i] = shared.objectives[i] != -1
+                    ? values[shared.objectives[i]]
+                    : evaluate(objList.get(i), true);
+        }
+        for (int i = 0; i < gOut.length; i++) {
+            gOut[i] = shared.constraints[i] != -1
+                    ? values[shared.constraints[i]]
+                    : evaluate(conList.get(i), true);
+        }
+        return shared;
+    }
+
+    /**
+     * Fills row <i>index</i> of a sparse Jacobian, either from the registers
+     * of the shared program (if the whole gradient is compiled) or from a
+     * dense gradient.
+     */
+    private int getSparseGradient(
+            int index,
+            List<AbstractNode> targetList,
+            List<AbstractNode[]> gradListVariables,
+            List<AbstractNode[][]> gradListVectors,
+            int[] outputs,
+            double[] values,
+            double value,
+            SparseJacobian jacobian) throws EvaluationException {
+        int[] rowPointers = jacobian.getRowPointers();
+        int[] columnIndices = jacobian.getColumnIndices();
+        double[] jacobianValues = jacobian.getValues();
+        if (outputs != null) {
+            for (int k = rowPointers[index]; k < rowPointers[index + 1]; k++) {
+                jacobianValues[k] = values[outputs[columnIndices[k]]];
+            }
+            return 0;
+        }
+        if (denseGradient.length != getTotalVariablesCount()) {
+            denseGradient = new double[getTotalVariablesCount()];
+        }
+        int numericalEvalCount = getGradient(index, targetList,
+                gradListVariables, gradListVectors, denseGradient, true, value);
+        for (int k = rowPointers[index]; k < rowPointers[index + 1]; k++) {
+            jacobianValues[k] = denseGradient[columnIndices[k]];
+        }
+        return numericalEvalCount;
+    }
+
+    /**
+     * Fills the sparsity pattern of the gradient of a function (see
+     * getObjectiveSparsity(...)).
+     */
+    private int getSparsity(
+            int index,
+            List<AbstractNode[]> gradListVariables,
+            List<AbstractNode[][]> gradListVectors,
+            boolean[] pattern) {
+        if (pattern.length != getTotalVariablesCount()) {
+            String message = String.format("The pattern array length (%d) "
+                    + "must be equal to the total number of variables (%d).",
+                    pattern.length, getTotalVariablesCount());
+            throw new IllegalArgumentException(message);
+        }
+        AbstractNode[] variablesGradients
+                = index < gradListVariables.size()
+                ? gradListVariables.get(index) : null;
+        AbstractNode[][] vectorsGradients
+                = index < gradListVectors.size()
+                ? gradListVectors.get(index) : null;
+        int nonZerosCount = 0;
+        int varIndex = 0;
+        for (int i = 0; i < vm.getVariablesCount(); i++) {
+            AbstractNode partialDerivative
+                    = variablesGradients != null && i < variablesGradients.length
+                    ? variablesGradients[i] : null;
+            pattern[varIndex] = !isStructuralZero(partialDerivative);
+            if (pattern[varIndex++]) {
+                nonZerosCount++;
+            }
+        }
+        Iterator<Map.Entry<String, double[]>> vecIt = vm.vectorsIterator();
+        for (int i = 0; vecIt.hasNext(); i++) {
+            int length = vecIt.next().getValue().length;
+            AbstractNode[] vectorGradients
+                    = vectorsGradients != null && i < vectorsGradients.length
+                    ? vectorsGradients[i] : null;
+            for (int j = 0; j < length; j++) {
+                AbstractNode partialDerivative
+                        = vectorGradients != null && j < vectorGradients.length
+                        ? vectorGradients[j] : null;
+                pattern[varIndex] = !isStructuralZero(partialDerivative);
+                if (pattern[varIndex++]) {
+                    nonZerosCount++;
+                }
+            }
+        }
+        return nonZerosCount;
+    }
+
+    /**
+     * @return true if the formula of a partial derivative is the constant
+     * zero
+     */
+    private boolean isStructuralZero(AbstractNode partialDerivative) {
+        if (partialDerivative == null) {
+            return false;
+        }
+        CompiledFormula formula = compiledFormulas.get(partialDerivative);
+        return formula != null && formula.zero;
+    }
+
+    /**
+     * Differentiates a function symbolically.
+     *
+     * @return the simplified partial derivative formula, or null if the
+     * function cannot be differentiated
+     */
+    private String deriveSymbolically(AbstractNode function, String varName) {
+        CompiledFormula formula = compiledFormulas.get(function);
+        if (formula == null) {
+            return null;
+        }
+        loadInputs();
+        int input;
+        int offset;
+        if (!varName.contains("[")) {
+            input = 0;
+            offset = layout.getVariableIndex(varName);
+        } else {
+            String vectorName = varName.substring(0, varName.indexOf('['));
+            input = layout.getVectorInput(vectorName);
+            offset = Integer.parseInt(varName.substring(
+                    varName.indexOf('[') + 1, varName.indexOf(']'))) - 1;
+            if (input != -1 && offset >= layout.getInputLength(input)) {
+                offset = -1;
+            }
+        }
+        if (input == -1 || offset < 0) {
+            String message = String.format("Variable (%s) does not exist.",
+                    varName);
+            throw new IllegalArgumentException(message);
+        }
+        try {
+            Expression expression = formula.expression;
+            if (expression == null) {
+                // Not compiled (either compilation is disabled or the
+                // formula is not supported by the compiler)
+                expression = new ExpressionParser(
+                        layout, parameters).parse(formula.source);
+                Program program = Program.compile(expression);
+                refreshParameters();
+                checkParameters(expression);
+                if (registers.length < program.size()) {
+                    registers = new double[program.size()];
+                }
+                if (!isEquivalent(function, program)) {
+                    return null;
+                }
+            }
+            return ExpressionPrinter.print(
+                    Differentiator.differentiate(expression, input, offset));
+        } catch (IllegalArgumentException ex) {
+            // Not supported by the symbolic differentiator
+            return null;
+        }
+    }
+
+    /**
+     * @return the finite difference scheme in use (forward difference is
+     * used as a fallback by automatic differentiation)
+     */
+    private GradientMethod getFiniteDifferenceMethod() {
+        return gradientMethod == GradientMethod.AUTOMATIC
+                ? GradientMethod.FORWARD : gradientMethod;
+    }
+
+    /**
+     * Calculates the whole gradient of a function at the current point using
+     * automatic differentiation of its compiled program. The result is stored
+     * in automaticGradient (indexed like the x-vector).
+     *
+     * @return false if the function is not compiled
+     */
+    private boolean differentiateAutomatically(AbstractNode function) {
+        if (!compilationEnabled) {
+            return false;
+        }
+        CompiledFormula formula = compiledFormulas.get(function);
+        if (formula == null) {
+            return false;
+        }
+        double[][] currentInputs = loadInputs();
+        if (formula.program == null) {
+            return false;
+        }
+        if (adjoints.length < formula.program.size()) {
+            adjoints = new double[formula.program.size()];
+        }
+        if (automaticGradient.length != layout.getTotalVariablesCount()) {
+            automaticGradient = new double[layout.getTotalVariablesCount()];
+        }
+        formula.program.evaluateGradient(currentInputs,
+                parameters.getValues(), registers, adjoints, layout,
+                automaticGradient);
+        return true;
+    }
+
+    private static void shift(
+            Map.Entry<String, Double> variable,
+            double[] vector,
+            int elementIndex,
+            double value) {
+        if (variable != null) {
+            variable.setValue(value);
+        } else {
+            vector[elementIndex] = value;
+        }
+    }
+
+    /**
+     * Copies a completely compiled gradient from the registers of the shared
+     * program (returns false if the gradient is not completely compiled).
+     */
+    private static boolean copyGradient(
+            int[] outputs,
+            double[] values,
+            double[] gradient) {
+        if (outputs == null) {
+            return false;
+        }
+        if (gradient.length != outputs.length) {
+            String message = String.format("The gradient array length (%d) "
+                    + "must be equal to the total number of variables (%d).",
+                    gradient.length, outputs.length);
+            throw new IllegalArgumentException(message);
+        }
+        for (int j = 0; j < outputs.length; j++) {
+            gradient[j] = values[outputs[j]];
+        }
+        return true;
+    }
+
+    /**
+     * This utility function walks the variables and the vectors once, in
+     * order, evaluating each partial derivative formula by position (or
+     * calculating the partial derivative numerically if no formula is
+     * available). If the value of the function at the current point is
+     * already known, it is passed in <i>value</i> (and <i>valueKnown</i> is
+     * set to true) so that it is not evaluated again.
+     */
+    private int getGradient(
+            int index,
+            List<AbstractNode> targetList,
+            List<AbstractNode[]> gradListVariables,
+            List<AbstractNode[][]> gradListVectors,
+            double[] gradient,
+            boolean valueKnown,
+            double value) throws EvaluationException {
+        if (gradient.length != getTotalVariablesCount()) {
+            String message = String.format("The gradient array length (%d) "
+                    + "must be equal to the total number of variables (%d).",
+                    gradient.length, getTotalVariablesCount());
+            throw new IllegalArgumentException(message);
+        }
+        AbstractNode function = targetList.get(index);
+        AbstractNode[] variablesGradients
+                = index < gradListVariables.size()
+                ? gradListVariables.get(index) : null;
+        AbstractNode[][] vectorsGradients
+                = index < gradListVectors.size()
+                ? gradListVectors.get(index) : null;
+        int numericalEvalCount = 0;
+        // Load the inputs of the compiled programs once for all the partial
+        // derivatives formulas
+        boolean inputsLoaded = false;
+        if (compilationEnabled) {
+            loadInputs();
+            inputsLoaded = true;
+        }
+        // The obj/con value at the current point (evaluated once, only if
+        // needed by forward difference)
+        double currValue = value;
+        boolean currValueEvaluated = valueKnown
+                || getFiniteDifferenceMethod() != GradientMethod.FORWARD;
+        // The whole gradient by automatic differentiation (calculated once,
+        // only if needed)
+        boolean automaticTried = gradientMethod != GradientMethod.AUTOMATIC;
+        boolean automaticAvailable = false;
+        int varIndex = 0;
+        Iterator<Map.Entry<String, Double>> varIt = vm.variablesIterator();
+        for (int i = 0; varIt.hasNext(); i++) {
+            Map.Entry<String, Double> varValPair = varIt.next();
+            AbstractNode partialDerivative
+                    = variablesGradients != null && i < variablesGradients.length
+                    ? variablesGradients[i] : null;
+            if (partialDerivative != null) {
+                gradient[varIndex++] = isStructuralZero(partialDerivative)
+                        ? 0 : evaluate(partialDerivative, inputsLoaded);
+                continue;
+            }
+            if (!automaticTried) {
+                automaticAvailable = differentiateAutomatically(function);
+                automaticTried = true;
+            }
+            if (automaticAvailable) {
+                gradient[varIndex] = automaticGradient[varIndex];
+                varIndex++;
+            } else {
+                if (!currValueEvaluated) {
+                    currValue = evaluate(function, inputsLoaded);
+                    currValueEvaluated = true;
+                }
+                gradient[varIndex++] = differentiate(
+                        function, currValue, varValPair, null, -1);
+                if (inputsLoaded) {
+                    // Undo the shift in the loaded inputs as well
+                    loadInputs();
+                }
+                numericalEvalCount += getFiniteDifferenceMethod().getEvaluationsCount();
+            }
+        }
+        Iterator<Map.Entry<String, double[]>> vecIt = vm.vectorsIterator();
+        for (int i = 0; vecIt.hasNext(); i++) {
+            double[] vector = vecIt.next().getValue();
+            AbstractNode[] vectorGradients
+                    = vectorsGradients != null && i < vectorsGradients.length
+                    ? vectorsGradients[i] : null;
+            for (int j = 0; j < vector.length; j++) {
+                AbstractNode partialDerivative
+                        = vectorGradients != null && j < vectorGradients.length
+                        ? vectorGradients[j] : null;
+                if (partialDerivative != null) {
+                    gradient[varIndex++] = isStructuralZero(partialDerivative)
+                            ? 0 : evaluate(partialDerivative, inputsLoaded);
+                    continue;
+                }
+                if (!automaticTried) {
+                    automaticAvailable = differentiateAutomatically(function);
+                    automaticTried = true;
+                }
+                if (automaticAvailable) {
+                    gradient[varIndex] = automaticGradient[varIndex];
+                    varIndex++;
+                } else {
+                    if (!currValueEvaluated) {
+                        currValue = evaluate(function, inputsLoaded);
+                        currValueEvaluated = true;
+                    }
+                    gradient[varIndex++] = differentiate(
+                            function, currValue, null, vector, j);
+                    if (inputsLoaded) {
+                        // Undo the shift in the loaded inputs as well
+                        loadInputs();
+                    }
+                    numericalEvalCount += getFiniteDifferenceMethod().getEvaluationsCount();
+                }
+            }
+        }
+        return numericalEvalCount;
+    }
+
     /**
      * Execute the command sent as an argument.
      *
@@ -805,8 +1722,169 @@ public class OptimizationProblem {
             TooManyDecimalPointsException,
             MisplacedTokensException,
             Throwable {
+        runCommand(command);
+    }
+
+    private void runCommand(String command) throws
+            TooManyDecimalPointsException,
+            MisplacedTokensException,
+            EvaluationException {
         AbstractNode parseTree = MathExpressionParser.parse(command, vm);
         parseTree.evaluate();
+        addDefinitionStep(new DefinitionStep(DefinitionStep.Kind.COMMAND,
+                null, -1, command, 0, null, null));
+        refreshParameters();
+    }
+
+    /**
+     * Creates an immutable snapshot of the definition of this problem (its
+     * commands, constants, variables, vectors, objectives, constraints and
+     * partial derivatives). The snapshot can be shared by several threads,
+     * each creating its own independent evaluation context out of it.
+     *
+     * @return the definition of this problem
+     * @see ProblemDefinition#newContext()
+     */
+    public ProblemDefinition getDefinition() {
+        List<String> parameterNames = new ArrayList<>();
+        SharedProgram shared = null;
+        if (compilationEnabled) {
+            // Make sure the compiled forms are up to date
+            shared = getSharedProgram().withoutRegisters();
+            for (int i = 0; i < parameters.size(); i++) {
+                parameterNames.add(parameters.getName(i));
+            }
+        }
+        List<DefinitionStep> steps = new ArrayList<>(definitionSteps.size());
+        for (DefinitionStep step : definitionSteps) {
+            steps.add(step.freeze());
+        }
+        double[] point = new double[getTotalVariablesCount()];
+        int varIndex = 0;
+        Iterator<Map.Entry<String, Double>> varIt = vm.variablesIterator();
+        while (varIt.hasNext()) {
+            point[varIndex++] = varIt.next().getValue();
+        }
+        Iterator<Map.Entry<String, double[]>> vecIt = vm.vectorsIterator();
+        while (vecIt.hasNext()) {
+            for (double element : vecIt.next().getValue()) {
+                point[varIndex++] = element;
+            }
+        }
+        return new ProblemDefinition(
+                steps,
+                point,
+                objList.size(),
+                conList.size(),
+                compilationEnabled ? layout : null,
+                parameterNames,
+                shared,
+                delta,
+                gradientMethod,
+                compilationEnabled,
+                modificationStamp);
+    }
+
+    /**
+     * Gets a number identifying the current definition of this problem. The
+     * stamp changes whenever anything but the values of the variables
+     * changes: commands, constants, new variables or vectors, objectives,
+     * constraints, partial derivatives, delta, the gradient method and
+     * compilation. Stamps are never reused by other problems, except by the
+     * contexts of a definition (see {@link ProblemDefinition#newContext()}),
+     * which keep the stamp of the definition until they are modified.
+     * Results calculated out of a problem can therefore be cached using its
+     * stamp and its current point.
+     *
+     * @return the modification stamp of this problem
+     */
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+
+    private void addDefinitionStep(DefinitionStep step) {
+        definitionSteps.add(step);
+        modified();
+    }
+
+    private void modified() {
+        modificationStamp = lastModificationStamp.incrementAndGet();
+    }
+
+    /**
+     * Replays a definition step (made on another problem) on this problem.
+     */
+    private void replay(DefinitionStep step) throws
+            TooManyDecimalPointsException,
+            MisplacedTokensException,
+            EvaluationException {
+        switch (step.kind) {
+            case COMMAND:
+                runCommand(step.source);
+                break;
+            case CONSTANT:
+                setConstant(step.name, step.value);
+                break;
+            case VARIABLE:
+                setVariable(step.name, step.value);
+                break;
+            case VECTOR:
+                setVector(step.name, step.values.clone());
+                break;
+            case OBJECTIVE:
+                addFormula(objList, step.kind, step.source);
+                break;
+            case CONSTRAINT:
+                addFormula(conList, step.kind, step.source);
+                break;
+            case OBJECTIVE_DERIVATIVE:
+                setPartialDerivative(step.kind, step.index, step.name,
+                        step.source, objGradListVariables, objGradListVectors);
+                break;
+            case CONSTRAINT_DERIVATIVE:
+                setPartialDerivative(step.kind, step.index, step.name,
+                        step.source, conGradListVariables, conGradListVectors);
+                break;
+            default:
+                throw new IllegalStateException(
+                        "Unexpected definition step: " + step.kind);
+        }
+    }
+
+    /**
+     * Makes the formulas of this problem (replayed out of a definition) use
+     * the compiled programs of the definition. Only the mutable evaluation
+     * state (inputs, parameter values and registers) is allocated.
+     */
+    private void adoptCompiledForms(ProblemDefinition definition) {
+        layout = definition.getLayout();
+        inputs = new double[layout.getInputsCount()][];
+        inputs[0] = new double[layout.getVariablesCount()];
+        for (String name : definition.getParameterNames()) {
+            parameters.getSlot(name);
+        }
+        refreshParameters();
+        // The steps of this problem match those of the definition
+        List<DefinitionStep> steps = definition.getSteps();
+        int size = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            CompiledFormula shared = steps.get(i).formula;
+            CompiledFormula formula = definitionSteps.get(i).formula;
+            if (shared != null && formula != null) {
+                formula.zero = shared.zero;
+                formula.expression = shared.expression;
+                formula.program = shared.program;
+                if (shared.program != null) {
+                    size = Math.max(size, shared.program.size());
+                }
+            }
+        }
+        registers = new double[size];
+        SharedProgram shared = definition.getSharedProgram();
+        if (shared != null) {
+            sharedProgram = shared.withoutRegisters();
+            sharedProgram.registers = new double[shared.program.size()];
+        }
     }
 
     @Override
@@ -993,5 +2071,646 @@ public class OptimizationProblem {
      */
     public void setDelta(double delta) {
         this.delta = delta;
+        modified();
+    }
+
+    /**
+     * @return the scheme used to calculate the partial derivatives that are
+     * not provided as formulas
+     */
+    public GradientMethod getGradientMethod() {
+        return gradientMethod;
+    }
+
+    /**
+     * @param gradientMethod the scheme used to calculate the partial
+     * derivatives that are not provided as formulas (forward difference by
+     * default)
+     */
+    public void setGradientMethod(GradientMethod gradientMethod) {
+        this.gradientMethod = gradientMethod;
+        modified();
+    }
+
+    /**
+     * @return true if formulas are evaluated using compiled programs
+     */
+    public boolean isCompilationEnabled() {
+        return compilationEnabled;
+    }
+
+    /**
+     * Enables or disables the compilation of formulas (enabled by default).
+     * When enabled, each objective, constraint and partial derivative is
+     * compiled, once added, into a flat program (see
+     * {@link compilation.Program}) that reads the variables directly from
+     * their positions instead of walking the tx2ex parse tree. A formula that
+     * cannot be compiled (see {@link ExpressionParser}), refers to constants
+     * that cannot be evaluated, or whose compiled program does not give the
+     * same results as its parse tree at a few test points, is evaluated using
+     * its parse tree as usual (the reason is logged, and such formulas are
+     * not counted by {@link #getCompiledFormulasCount()}).
+     *
+     * @param compilationEnabled true to evaluate formulas using compiled
+     * programs, false to always use the tx2ex parse trees
+     */
+    public void setCompilationEnabled(boolean compilationEnabled) {
+        this.compilationEnabled = compilationEnabled;
+        recompileAll();
+        modified();
+    }
+
+    /**
+     * @return the number of formulas (objectives, constraints and partial
+     * derivatives) currently evaluated using compiled programs
+     */
+    public int getCompiledFormulasCount() {
+        int count = 0;
+        for (CompiledFormula formula : compiledFormulas.values()) {
+            if (formula.program != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses a newly added formula (the parse tree is built on first use
+     * while the formulas of a context are added).
+     */
+    private AbstractNode parse(String source) throws
+            TooManyDecimalPointsException,
+            MisplacedTokensException {
+        return parsingDeferred
+                ? new DeferredParseTree(source)
+                : MathExpressionParser.parse(source, vm);
+    }
+
+    /**
+     * Compiles a newly added formula (if compilation is enabled).
+     *
+     * @param parseTree the tx2ex parse tree of the formula
+     * @param source the text of the formula
+     * @return the new formula
+     */
+    private CompiledFormula compile(AbstractNode parseTree, String source) {
+        if (compilationEnabled) {
+            // Make sure the layout is up to date before compiling
+            loadInputs();
+        }
+        CompiledFormula formula = new CompiledFormula(source);
+        compiledFormulas.put(parseTree, formula);
+        sharedProgram = null;
+        if (compilationEnabled) {
+            compileFormula(parseTree, formula);
+        }
+        // Deferred formulas take the flag of the definition (see
+        // adoptCompiledForms(...))
+        formula.zero = !parsingDeferred && isZero(parseTree, formula);
+        return formula;
+    }
+
+    private void compileFormula(AbstractNode parseTree, CompiledFormula formula) {
+        formula.expression = null;
+        formula.program = null;
+        try {
+            Expression expression = new ExpressionParser(
+                    layout, parameters).parse(formula.source);
+            Program program = Program.compile(expression);
+            // The formula may have introduced new named constants
+            refreshParameters();
+            checkParameters(expression);
+            if (registers.length < program.size()) {
+                registers = new double[program.size()];
+            }
+            if (isEquivalent(parseTree, program)) {
+                formula.expression = expression;
+                formula.program = program;
+            } else {
+                LOGGER.log(Level.INFO, "Formula ({0}) is not compiled: its "
+                        + "compiled program does not match its parse tree.",
+                        formula.source);
+            }
+        } catch (IllegalArgumentException ex) {
+            // Not supported by the compiler (the parse tree will be used)
+            LOGGER.log(Level.INFO, "Formula ({0}) is not compiled: {1}",
+                    new Object[]{formula.source, ex.getMessage()});
+        }
+    }
+
+    /**
+     * Decides whether a formula is a structural zero, i.e. whether its
+     * simplified expression (see Differentiator.simplify(...)) is the
+     * constant zero (e.g. 0, -0, (0) or 0 * x). Formulas that are not
+     * supported by the compiler are never structural zeros.
+     */
+    private boolean isZero(AbstractNode parseTree, CompiledFormula formula) {
+        if (formula.expression == null && compilationEnabled) {
+            return false;
+        }
+        try {
+            Expression expression = formula.expression;
+            if (expression == null) {
+                // Compilation is disabled
+                loadInputs();
+                expression = new ExpressionParser(
+                        layout, parameters).parse(formula.source);
+            }
+            Expression simplified = Differentiator.simplify(expression);
+            if (!simplified.isConstant() || simplified.getValue() != 0) {
+                return false;
+            }
+            if (formula.expression != null) {
+                return true;
+            }
+            Program program = Program.compile(expression);
+            refreshParameters();
+            checkParameters(expression);
+            if (registers.length < program.size()) {
+                registers = new double[program.size()];
+            }
+            return isEquivalent(parseTree, program);
+        } catch (IllegalArgumentException ex) {
+            // Not supported by the compiler
+            return false;
+        }
+    }
+
+    /**
+     * Checks that all the named constants used by an expression can be
+     * evaluated (see refreshParameters()).
+     *
+     * @throws IllegalArgumentException if any of them cannot be evaluated
+     */
+    private void checkParameters(Expression expression) {
+        if (undefinedParameters.isEmpty()) {
+            return;
+        }
+        // Not recursive (unrolled summations result in very deep trees)
+        Deque<Expression> nodes = new ArrayDeque<>();
+        nodes.push(expression);
+        while (!nodes.isEmpty()) {
+            Expression node = nodes.pop();
+            if (node.getOperation() == Operation.PARAMETER
+                    && undefinedParameters.get(node.getInput())) {
+                throw new IllegalArgumentException(String.format(
+                        "Constant (%s) cannot be evaluated.", node.getName()));
+            }
+            if (node.getLeft() != null) {
+                nodes.push(node.getLeft());
+            }
+            if (node.getRight() != null) {
+                nodes.push(node.getRight());
+            }
+        }
+    }
+
+    private void recompileAll() {
+        sharedProgram = null;
+        for (Map.Entry<AbstractNode, CompiledFormula> entry
+                : compiledFormulas.entrySet()) {
+            CompiledFormula formula = entry.getValue();
+            formula.expression = null;
+            formula.program = null;
+            if (compilationEnabled) {
+                loadInputs();
+                compileFormula(entry.getKey(), formula);
+                formula.zero = isZero(entry.getKey(), formula);
+            }
+        }
+    }
+
+    /**
+     * Gets the program evaluating all the compiled objectives, constraints
+     * and partial derivatives at once. Subexpressions shared by several
+     * formulas (e.g. the g(x) term of DTLZ problems, repeated in every
+     * objective and partial derivative) are evaluated only once. The program
+     * is built on demand and is discarded whenever formulas are added or
+     * recompiled.
+     */
+    private SharedProgram getSharedProgram() {
+        loadInputs();
+        if (sharedProgram == null) {
+            ProgramBuilder builder = new ProgramBuilder();
+            SharedProgram shared = new SharedProgram();
+            shared.objectives = addFormulas(builder, objList);
+            shared.constraints = addFormulas(builder, conList);
+            shared.objectivesGradients = addGradients(builder, objList.size(),
+                    objGradListVariables, objGradListVectors);
+            shared.constraintsGradients = addGradients(builder, conList.size(),
+                    conGradListVariables, conGradListVectors);
+            shared.program = builder.build();
+            shared.registers = new double[shared.program.size()];
+            sharedProgram = shared;
+        }
+        return sharedProgram;
+    }
+
+    /**
+     * Adds a formula to a shared program.
+     *
+     * @return the register of the formula, or -1 if it is not compiled
+     */
+    private int addFormula(ProgramBuilder builder, AbstractNode parseTree) {
+        CompiledFormula formula = parseTree == null
+                ? null : compiledFormulas.get(parseTree);
+        if (formula == null || formula.expression == null) {
+            return -1;
+        }
+        return builder.add(formula.expression);
+    }
+
+    private int[] addFormulas(ProgramBuilder builder, List<AbstractNode> list) {
+        int[] outputs = new int[list.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = addFormula(builder, list.get(i));
+        }
+        return outputs;
+    }
+
+    /**
+     * Adds the partial derivatives of each function to a shared program. A
+     * row is null if any of its partial derivatives is not compiled (or is to
+     * be calculated numerically).
+     */
+    private int[][] addGradients(
+            ProgramBuilder builder,
+            int functionsCount,
+            List<AbstractNode[]> gradListVariables,
+            List<AbstractNode[][]> gradListVectors) {
+        int[][] outputs = new int[functionsCount][];
+        for (int i = 0; i < functionsCount; i++) {
+            int[] row = new int[layout.getTotalVariablesCount()];
+            int varIndex = 0;
+            for (int k = 0; k < layout.getInputsCount(); k++) {
+                for (int j = 0; j < layout.getInputLength(k); j++) {
+                    AbstractNode partialDerivative = null;
+                    if (k == 0) {
+                        if (i < gradListVariables.size()
+                                && j < gradListVariables.get(i).length) {
+                            partialDerivative = gradListVariables.get(i)[j];
+                        }
+                    } else if (i < gradListVectors.size()
+                            && k - 1 < gradListVectors.get(i).length
+                            && j < gradListVectors.get(i)[k - 1].length) {
+                        partialDerivative = gradListVectors.get(i)[k - 1][j];
+                    }
+                    row[varIndex] = addFormula(builder, partialDerivative);
+                    if (row[varIndex] == -1) {
+                        row = null;
+                        break;
+                    }
+                    varIndex++;
+                }
+                if (row == null) {
+                    break;
+                }
+            }
+            outputs[i] = row;
+        }
+        return outputs;
+    }
+
+    /**
+     * Checks that a compiled program gives the same results as the parse tree
+     * it was compiled from at a few pseudo-random points. The first points lie
+     * in [0.05, 0.95] (within the domain of most functions). The others are
+     * signed, over a wider range, some of them integers: this is where the
+     * two may disagree on abs, floor, ceil or powers of negative numbers (the
+     * constructs whose meaning depends on precedence rules are rejected by
+     * the compiler). No point is skipped: at a signed point the parse tree
+     * cannot be evaluated at, the program must give NaN or an infinite value
+     * (the formula is undefined there). The current point is restored before
+     * returning.
+     */
+    private boolean isEquivalent(AbstractNode parseTree, Program program) {
+        double[] currentPoint = new double[getTotalVariablesCount()];
+        int varIndex = 0;
+        Iterator<Map.Entry<String, Double>> varIt = getVariablesIterator();
+        while (varIt.hasNext()) {
+            currentPoint[varIndex++] = varIt.next().getValue();
+        }
+        Iterator<Map.Entry<String, double[]>> vecIt = getVectorsIterator();
+        while (vecIt.hasNext()) {
+            for (double element : vecIt.next().getValue()) {
+                currentPoint[varIndex++] = element;
+            }
+        }
+        Random random = new Random(currentPoint.length);
+        double[] testPoint = new double[currentPoint.length];
+        try {
+            for (int t = 0; t < EQUIVALENCE_POINTS_COUNT; t++) {
+                boolean signed = t >= POSITIVE_EQUIVALENCE_POINTS_COUNT;
+                for (int i = 0; i < testPoint.length; i++) {
+                    double r = random.nextDouble();
+                    if (!signed) {
+                        testPoint[i] = 0.05 + 0.9 * r;
+                    } else if (t % 2 == 0) {
+                        testPoint[i] = 20 * (r - 0.5);
+                    } else {
+                        testPoint[i] = Math.round(10 * (r - 0.5));
+                    }
+                }
+                setAllVariables(testPoint);
+                double actual = program.evaluate(
+                        loadInputs(), parameters.getValues(), registers);
+                double expected;
+                try {
+                    expected = parseTree.evaluate();
+                } catch (EvaluationException ex) {
+                    if (signed && (Double.isNaN(actual)
+                            || Double.isInfinite(actual))) {
+                        // Outside of the domain of the formula
+                        continue;
+                    }
+                    throw ex;
+                }
+                if (!(expected == actual
+                        || Double.isNaN(expected) && Double.isNaN(actual)
+                        || !Double.isInfinite(expected)
+                        && !Double.isInfinite(actual)
+                        && Math.abs(expected - actual) <= 1e-9 * Math.max(1,
+                                Math.max(Math.abs(expected), Math.abs(actual))))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (EvaluationException | RuntimeException ex) {
+            // Cannot be verified
+            return false;
+        } finally {
+            setAllVariables(currentPoint);
+        }
+    }
+
+    /**
+     * Evaluates a formula, using its compiled program if available.
+     *
+     * @param parseTree the tx2ex parse tree of the formula
+     * @return the value of the formula at the current point
+     * @throws EvaluationException if the parse tree cannot be evaluated
+     */
+    private double evaluate(AbstractNode parseTree) throws EvaluationException {
+        return evaluate(parseTree, false);
+    }
+
+    /**
+     * Evaluates a formula, using its compiled program if available.
+     *
+     * @param parseTree the tx2ex parse tree of the formula
+     * @param inputsLoaded true if the inputs of the compiled programs are
+     * known to hold the current point already (see loadInputs())
+     * @return the value of the formula at the current point
+     * @throws EvaluationException if the parse tree cannot be evaluated
+     */
+    private double evaluate(AbstractNode parseTree, boolean inputsLoaded)
+            throws EvaluationException {
+        if (compilationEnabled) {
+            CompiledFormula formula = compiledFormulas.get(parseTree);
+            if (formula != null) {
+                double[][] currentInputs = inputsLoaded ? inputs : loadInputs();
+                if (formula.program != null) {
+                    return formula.program.evaluate(
+                            currentInputs, parameters.getValues(), registers);
+                }
+            }
+        }
+        return parseTree.evaluate();
+    }
+
+    /**
+     * Copies the current values of the variables to the inputs of the
+     * compiled programs. If variables or vectors were added (or vectors were
+     * resized) since the last call, the layout is updated and all the formulas
+     * are recompiled.
+     *
+     * @return the inputs of the compiled programs
+     */
+    private double[][] loadInputs() {
+        if (layout == null
+                || layout.getVariablesCount() != vm.getVariablesCount()
+                || layout.getVectorsCount() != vm.getVectorsCount()) {
+            updateLayout();
+        }
+        double[] variables = inputs[0];
+        Iterator<Map.Entry<String, Double>> varIt = vm.variablesIterator();
+        for (int i = 0; varIt.hasNext(); i++) {
+            variables[i] = varIt.next().getValue();
+        }
+        Iterator<Map.Entry<String, double[]>> vecIt = vm.vectorsIterator();
+        for (int i = 1; vecIt.hasNext(); i++) {
+            double[] vector = vecIt.next().getValue();
+            if (vector.length != layout.getInputLength(i)) {
+                updateLayout();
+                return loadInputs();
+            }
+            inputs[i] = vector;
+        }
+        return inputs;
+    }
+
+    private void updateLayout() {
+        layout = new VariablesLayout(vm.variablesIterator(), vm.vectorsIterator());
+        inputs = new double[layout.getInputsCount()][];
+        inputs[0] = new double[layout.getVariablesCount()];
+        recompileAll();
+    }
+
+    /**
+     * Re-evaluates all the named constants used by compiled programs (called
+     * whenever a constant may have changed). Each name is parsed once, when
+     * it is first used. The constants that cannot be evaluated are set to NaN
+     * and prevent the formulas using them from being compiled (see
+     * checkParameters(...)); if any of them becomes defined, all the formulas
+     * are recompiled.
+     */
+    private void refreshParameters() {
+        boolean defined = false;
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i == parameterNodes.size()) {
+                parameterNodes.add(parseParameter(parameters.getName(i)));
+            }
+            AbstractNode node = parameterNodes.get(i);
+            double value = Double.NaN;
+            if (node != null) {
+                try {
+                    value = node.evaluate();
+                    defined |= undefinedParameters.get(i);
+                    undefinedParameters.clear(i);
+                } catch (EvaluationException | RuntimeException ex) {
+                    undefinedParameters.set(i);
+                }
+            } else {
+                undefinedParameters.set(i);
+            }
+            parameters.setValue(i, value);
+        }
+        if (defined && compilationEnabled) {
+            recompileAll();
+        }
+    }
+
+    /**
+     * @return the tx2ex parse tree of a named constant, or null if the name
+     * cannot be parsed
+     */
+    private AbstractNode parseParameter(String name) {
+        try {
+            return MathExpressionParser.parse(name, vm);
+        } catch (TooManyDecimalPointsException | MisplacedTokensException ex) {
+            LOGGER.log(Level.INFO, "Constant ({0}) cannot be parsed: {1}",
+                    new Object[]{name, ex.getMessage()});
+            return null;
+        }
+    }
+
+    /**
+     * The tx2ex parse tree of a formula of a context, built the first time
+     * the formula is evaluated using its parse tree (see
+     * OptimizationProblem(ProblemDefinition)).
+     */
+    private final class DeferredParseTree extends AbstractNode {
+
+        private final String source;
+        private AbstractNode parseTree;
+
+        DeferredParseTree(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public double evaluate() throws EvaluationException {
+            return getParseTree().evaluate();
+        }
+
+        @Override
+        public String toString() {
+            return getParseTree().toString();
+        }
+
+        private AbstractNode getParseTree() {
+            if (parseTree == null) {
+                try {
+                    parseTree = MathExpressionParser.parse(source, vm);
+                } catch (TooManyDecimalPointsException
+                        | MisplacedTokensException ex) {
+                    // The formula was successfully parsed by the definition
+                    throw new IllegalStateException(String.format(
+                            "Formula (%s) could not be parsed again.", source),
+                            ex);
+                }
+            }
+            return parseTree;
+        }
+    }
+
+    /**
+     * The source text of a formula and its compiled program (null if the
+     * formula is not compiled). Whether the formula is a structural zero is
+     * decided on its simplified expression (see isZero(...)).
+     */
+    static final class CompiledFormula {
+
+        final String source;
+        boolean zero;
+        Expression expression;
+        Program program;
+
+        CompiledFormula(String source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * A program evaluating all the compiled formulas of the problem, with the
+     * registers holding the value of each formula (-1 for the formulas that
+     * are not compiled, and a null row for the gradients that are not
+     * completely compiled).
+     */
+    static final class SharedProgram {
+
+        Program program;
+        double[] registers;
+        int[] objectives;
+        int[] constraints;
+        int[][] objectivesGradients;
+        int[][] constraintsGradients;
+
+        /**
+         * @return a copy sharing the (immutable) program and outputs, without
+         * registers
+         */
+        SharedProgram withoutRegisters() {
+            SharedProgram copy = new SharedProgram();
+            copy.program = program;
+            copy.objectives = objectives;
+            copy.constraints = constraints;
+            copy.objectivesGradients = objectivesGradients;
+            copy.constraintsGradients = constraintsGradients;
+            return copy;
+        }
+    }
+
+    /**
+     * A definition made on a problem (a command, a constant, a new or resized
+     * variable or vector, an objective, a constraint or a partial derivative).
+     * The steps are recorded in the order the definitions were made, so that
+     * replaying them gives the same problem even if a definition refers to
+     * constants or commands defined in between. The step of a formula also
+     * holds the formula itself.
+     */
+    static final class DefinitionStep {
+
+        enum Kind {
+            COMMAND, CONSTANT, VARIABLE, VECTOR, OBJECTIVE, CONSTRAINT,
+            OBJECTIVE_DERIVATIVE, CONSTRAINT_DERIVATIVE
+        }
+
+        final Kind kind;
+        // The name of the constant, variable or vector, or the variable a
+        // partial derivative is defined with respect to
+        final String name;
+        // The objective or constraint a partial derivative belongs to
+        final int index;
+        // The text of the command or formula (null for a partial derivative
+        // to be calculated numerically)
+        final String source;
+        // The value of the constant or variable, or the values of the vector
+        final double value;
+        final double[] values;
+        final CompiledFormula formula;
+
+        DefinitionStep(
+                Kind kind,
+                String name,
+                int index,
+                String source,
+                double value,
+                double[] values,
+                CompiledFormula formula) {
+            this.kind = kind;
+            this.name = name;
+            this.index = index;
+            this.source = source;
+            this.value = value;
+            this.values = values;
+            this.formula = formula;
+        }
+
+        /**
+         * @return a copy holding the current compiled form of the formula
+         * (which is never modified afterwards)
+         */
+        DefinitionStep freeze() {
+            if (formula == null) {
+                return this;
+            }
+            CompiledFormula copy = new CompiledFormula(formula.source);
+            copy.zero = formula.zero;
+            copy.expression = formula.expression;
+            copy.program = formula.program;
+            return new DefinitionStep(
+                    kind, name, index, source, value, values, copy);
+        }
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parsing;
+
+import compilation.VariablesLayout;
+import exceptions.EvaluationException;
+import exceptions.MisplacedTokensException;
+import exceptions.TooManyDecimalPointsException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable definition of an optimization problem. A definition holds
+ * every command, constant, variable, vector, objective, constraint and partial
+ * derivative of a problem in the order they were defined (with the values the
+ * variables had when the definition was created), together with the compiled
+ * programs of its formulas.
+ * <p>
+ * An {@link OptimizationProblem} keeps its current point inside the parse
+ * trees of its formulas, so a single problem object cannot be evaluated by
+ * several threads at the same time. A definition on the other hand never
+ * changes, so it can be freely shared between threads. Each thread then calls
+ * {@link #newContext()} once to get its own evaluation context and uses it
+ * without any synchronization. Contexts share the compiled programs (which
+ * are immutable) and the layout of the variables, so creating a context only
+ * copies the variables and constants, executes the commands again and
+ * allocates its evaluation buffers. The tx2ex parse trees of a context are
+ * built when first needed (only for the formulas that are not compiled).
+ * <pre>
+ * ProblemDefinition definition = XMLParser.readXML(file).getDefinition();
+ * // In each worker thread
+ * OptimizationProblem context = definition.newContext();
+ * context.setAllVariables(x);
+ * double f0 = context.getObjective(0);
+ * </pre>
+ */
+public final class ProblemDefinition {
+
+    private final List<OptimizationProblem.DefinitionStep> steps;
+    private final double[] point;
+    private final int objectivesCount;
+    private final int constraintsCount;
+    // The compiled forms shared by all the contexts (null layout if
+    // compilation is disabled)
+    private final VariablesLayout layout;
+    private final List<String> parameterNames;
+    private final OptimizationProblem.SharedProgram sharedProgram;
+    private final double delta;
+    private final GradientMethod gradientMethod;
+    private final boolean compilationEnabled;
+    private final long modificationStamp;
+
+    ProblemDefinition(
+            List<OptimizationProblem.DefinitionStep> steps,
+            double[] point,
+            int objectivesCount,
+            int constraintsCount,
+            VariablesLayout layout,
+            List<String> parameterNames,
+            OptimizationProblem.SharedProgram sharedProgram,
+            double delta,
+            GradientMethod gradientMethod,
+            boolean compilationEnabled,
+            long modificationStamp) {
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+        this.point = point;
+        this.objectivesCount = objectivesCount;
+        this.constraintsCount = constraintsCount;
+        this.layout = layout;
+        this.parameterNames = Collections.unmodifiableList(
+                new ArrayList<>(parameterNames));
+        this.sharedProgram = sharedProgram;
+        this.delta = delta;
+        this.gradientMethod = gradientMethod;
+        this.compilationEnabled = compilationEnabled;
+        this.modificationStamp = modificationStamp;
+    }
+
+    /**
+     * Creates a new evaluation context out of this definition. The returned
+     * problem object shares nothing mutable with this definition or with any
+     * other context, so each thread can evaluate its own context without any
+     * locking. The returned context starts at the point that was current when
+     * the definition was created.
+     *
+     * @return a new, independent problem object
+     */
+    public OptimizationProblem newContext() {
+        try {
+            return new OptimizationProblem(this);
+        } catch (TooManyDecimalPointsException | MisplacedTokensException
+                | EvaluationException ex) {
+            // All the commands were successfully executed before, so this
+            // should never happen.
+            throw new IllegalStateException(
+                    "The commands of the problem could not be executed again.",
+                    ex);
+        }
+    }
+
+    /**
+     * @return the total number of variables (variables + vectors elements)
+     */
+    public int getTotalVariablesCount() {
+        return point.length;
+    }
+
+    /**
+     * @return the number of objectives
+     */
+    public int getObjectivesCount() {
+        return objectivesCount;
+    }
+
+    /**
+     * @return the number of constraints
+     */
+    public int getConstraintsCount() {
+        return constraintsCount;
+    }
+
+    List<OptimizationProblem.DefinitionStep> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the point that was current when the definition was created
+     * (not copied, must not be modified)
+     */
+    double[] getPoint() {
+        return point;
+    }
+
+    VariablesLayout getLayout() {
+        return layout;
+    }
+
+    List<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    OptimizationProblem.SharedProgram getSharedProgram() {
+        return sharedProgram;
+    }
+
+    double getDelta() {
+        return delta;
+    }
+
+    GradientMethod getGradientMethod() {
+        return gradientMethod;
+    }
+
+    boolean isCompilationEnabled() {
+        return compilationEnabled;
+    }
+
+    /**
+     * @return the modification stamp of the problem this definition was
+     * created out of, which is also the stamp of its contexts until they are
+     * modified (see {@link OptimizationProblem#getModificationStamp()})
+     */
+    public long getModificationStamp() {
+        return modificationStamp;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parsing;
+
+/**
+ * A Jacobian matrix stored in compressed sparse row (CSR) format. Only the
+ * entries that are not structural zeros are stored: the entries of row (i)
+ * are values[rowPointers[i]] to values[rowPointers[i + 1] - 1], and their
+ * columns are given by the same positions of columnIndices (in ascending
+ * order).
+ * <p>
+ * The sparsity pattern is fixed when the Jacobian is created (see
+ * {@link OptimizationProblem#createObjectivesJacobian()}), while the values
+ * are overwritten every time the Jacobian is evaluated, so the same instance
+ * can be reused for any number of points.
+ */
+public class SparseJacobian {
+
+    private final int rowsCount;
+    private final int columnsCount;
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final double[] values;
+
+    /**
+     * Creates a Jacobian having the specified sparsity pattern (all the
+     * values are initially zeros).
+     *
+     * @param columnsCount the number of columns (variables)
+     * @param rowPointers the start of each row in columnIndices, followed by
+     * the total number of non-zeros (rowsCount + 1 elements)
+     * @param columnIndices the column of each non-zero
+     */
+    public SparseJacobian(
+            int columnsCount,
+            int[] rowPointers,
+            int[] columnIndices) {
+        if (rowPointers.length == 0 || rowPointers[0] != 0
+                || rowPointers[rowPointers.length - 1] != columnIndices.length) {
+            throw new IllegalArgumentException(
+                    "Invalid row pointers of a sparse Jacobian.");
+        }
+        for (int i = 0; i < rowPointers.length - 1; i++) {
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                if (columnIndices[k] < 0 || columnIndices[k] >= columnsCount
+                        || k > rowPointers[i]
+                        && columnIndices[k] <= columnIndices[k - 1]) {
+                    throw new IllegalArgumentException(String.format(
+                            "Invalid column indices in row %d of a sparse "
+                            + "Jacobian.", i));
+                }
+            }
+        }
+        this.rowsCount = rowPointers.length - 1;
+        this.columnsCount = columnsCount;
+        this.rowPointers = rowPointers;
+        this.columnIndices = columnIndices;
+        this.values = new double[columnIndices.length];
+    }
+
+    /**
+     * Creates a sparse copy of a dense Jacobian, keeping only its non-zero
+     * entries.
+     *
+     * @param dense the dense Jacobian (one row per function)
+     * @param columnsCount the number of columns (needed if there are no rows)
+     * @return the sparse Jacobian
+     */
+    public static SparseJacobian fromDense(double[][] dense, int columnsCount) {
+        int[] rowPointers = new int[dense.length + 1];
+        for (int i = 0; i < dense.length; i++) {
+            int count = 0;
+            for (double value : dense[i]) {
+                if (value != 0) {
+                    count++;
+                }
+            }
+            rowPointers[i + 1] = rowPointers[i] + count;
+        }
+        int[] columnIndices = new int[rowPointers[dense.length]];
+        int k = 0;
+        for (double[] row : dense) {
+            for (int j = 0; j < row.length; j++) {
+                if (row[j] != 0) {
+                    columnIndices[k++] = j;
+                }
+            }
+        }
+        SparseJacobian jacobian = new SparseJacobian(
+                columnsCount, rowPointers, columnIndices);
+        k = 0;
+        for (double[] row : dense) {
+            for (double value : row) {
+                if (value != 0) {
+                    jacobian.values[k++] = value;
+                }
+            }
+        }
+        return jacobian;
+    }
+
+    /**
+     * @return a dense copy of this Jacobian (one row per function)
+     */
+    public double[][] toDense() {
+        double[][] dense = new double[rowsCount][columnsCount];
+        for (int i = 0; i < rowsCount; i++) {
+            for (int k = rowPointers[i]; k < rowPointers[i + 1]; k++) {
+                dense[i][columnIndices[k]] = values[k];
+            }
+        }
+        return dense;
+    }
+
+    /**
+     * @return the number of rows (functions)
+     */
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    /**
+     * @return the number of columns (variables)
+     */
+    public int getColumnsCount() {
+        return columnsCount;
+    }
+
+    /**
+     * @return the number of stored entries
+     */
+    public int getNonZerosCount() {
+        return columnIndices.length;
+    }
+
+    /**
+     * @return the start of each row in getColumnIndices() and getValues(),
+     * followed by the number of non-zeros (the array is not copied and must
+     * not be modified)
+     */
+    public int[] getRowPointers() {
+        return rowPointers;
+    }
+
+    /**
+     * @return the column of each non-zero (the array is not copied and must
+     * not be modified)
+     */
+    public int[] getColumnIndices() {
+        return columnIndices;
+    }
+
+    /**
+     * @return the value of each non-zero (the array is not copied, it is
+     * overwritten whenever the Jacobian is evaluated)
+     */
+    public double[] getValues() {
+        return values;
+    }
+}
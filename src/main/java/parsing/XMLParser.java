@@ -47,6 +47,34 @@ public class XMLParser {
             TooManyDecimalPointsException,
             MisplacedTokensException,
             Throwable {
+        return readXML(file, false);
+    }
+
+    /**
+     * Parses the provided XML file into an OptimizationProblem object (see
+     * readXML(File)). If <i>deriveMissingDerivatives</i> is true, each empty
+     * derivative tag is replaced by the symbolic derivative of its function
+     * (simplified, and recorded as a structural zero if it is identically
+     * zero). Derivatives of functions that cannot be differentiated
+     * symbolically are left to be calculated numerically.
+     *
+     * @param file The XML file to be parsed
+     * @param deriveMissingDerivatives true to differentiate the functions
+     * whose derivatives are not provided
+     * @return An OptimizationProblem object containing all the parsed
+     * information.
+     * @throws IllegalArgumentException
+     * @throws TooManyDecimalPointsException
+     * @throws MisplacedTokensException
+     * @throws Throwable
+     */
+    public static OptimizationProblem readXML(
+            File file,
+            boolean deriveMissingDerivatives) throws
+            IllegalArgumentException,
+            TooManyDecimalPointsException,
+            MisplacedTokensException,
+            Throwable {
         // Read from the specified XML file
         XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
         xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
@@ -101,12 +129,18 @@ public class XMLParser {
                     if (status.equals("objective")) {
                         if (xmlEvent.isEndElement()) {
                             // This means that the derivative is not provided.
-                            // Set the current objective derivative with respect
-                            // to the current variable to null.
-                            problem.setObjectivePartialDerivative(
-                                    problem.getObjectivesCount() - 1,
-                                    varName,
-                                    null);
+                            // Either derive it symbolically or set the current
+                            // objective derivative with respect to the current
+                            // variable to null.
+                            if (!deriveMissingDerivatives
+                                    || !problem.deriveObjectivePartialDerivative(
+                                            problem.getObjectivesCount() - 1,
+                                            varName)) {
+                                problem.setObjectivePartialDerivative(
+                                        problem.getObjectivesCount() - 1,
+                                        varName,
+                                        null);
+                            }
                         } else {
                             // Set the current objective derivative with respect to 
                             // the current variable.
@@ -118,12 +152,18 @@ public class XMLParser {
                     } else if (status.equals("constraint")) {
                         if (xmlEvent.isEndElement()) {
                             // This means that the derivative is not provided.
-                            // Set the current constraint derivative with respect
-                            // to the current variable to null.
-                            problem.setConstraintPartialDerivative(
-                                    problem.getConstraintsCount() - 1,
-                                    varName,
-                                    null);
+                            // Either derive it symbolically or set the current
+                            // constraint derivative with respect to the current
+                            // variable to null.
+                            if (!deriveMissingDerivatives
+                                    || !problem.deriveConstraintPartialDerivative(
+                                            problem.getConstraintsCount() - 1,
+                                            varName)) {
+                                problem.setConstraintPartialDerivative(
+                                        problem.getConstraintsCount() - 1,
+                                        varName,
+                                        null);
+                            }
                         } else {
                             // Set the current contraint derivative with respect to 
                             // the current variable.
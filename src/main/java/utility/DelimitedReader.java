@@ -0,0 +1,298 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utility;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Reads delimited text (CSV, TSV...) one line at a time. Lines are read into
+ * a reusable character buffer and split in place, so no strings are created
+ * for the lines or their fields: numeric fields are parsed straight from the
+ * buffer. The buffer grows only if a line is longer than its current
+ * capacity, so the memory used is independent of the number of lines.
+ * <p>
+ * Fields are separated by a single delimiter character. Quoting is not
+ * supported (the reader is meant for numeric data), and white spaces around
+ * numbers are ignored. Empty lines are skipped.
+ */
+public class DelimitedReader implements Closeable {
+
+    // Exact powers of ten (as doubles)
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final Reader reader;
+    private final char delimiter;
+    private char[] buffer = new char[1 << 16];
+    // The characters read but not consumed yet are buffer[position, limit)
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    // The current line is buffer[lineStart, lineEnd)
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+    // The fields of the current line
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldsCount;
+
+    /**
+     * @param reader the source of the text
+     * @param delimiter the character separating the fields of a line
+     */
+    public DelimitedReader(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Moves to the next non-empty line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException if the text cannot be read
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int newLine = -1;
+            int searchFrom = position;
+            while (true) {
+                for (int i = searchFrom; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        newLine = i;
+                        break;
+                    }
+                }
+                if (newLine != -1 || endOfInput) {
+                    break;
+                }
+                searchFrom = limit - position;
+                fill();
+                searchFrom += position;
+            }
+            if (newLine == -1 && position == limit) {
+                return false;
+            }
+            lineStart = position;
+            lineEnd = newLine == -1 ? limit : newLine;
+            position = newLine == -1 ? limit : newLine + 1;
+            if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            lineNumber++;
+            if (!isBlank(lineStart, lineEnd)) {
+                split();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return the number of the current line (starting at 1, and counting
+     * empty lines)
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the number of fields of the current line
+     */
+    public int getFieldsCount() {
+        return fieldsCount;
+    }
+
+    /**
+     * Parses a field of the current line as a number.
+     *
+     * @param field the index of the field
+     * @return the value of the field
+     * @throws NumberFormatException if the field is not a number
+     */
+    public double getDouble(int field) {
+        checkField(field);
+        return parseDouble(buffer, fieldStarts[field], fieldEnds[field]);
+    }
+
+    /**
+     * @param field the index of the field
+     * @return a field of the current line (as a new string)
+     */
+    public String getString(int field) {
+        checkField(field);
+        return new String(
+                buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+    }
+
+    /**
+     * Writes the current line (without its line separator).
+     *
+     * @param writer the destination
+     * @throws IOException if the line cannot be written
+     */
+    public void writeLine(Writer writer) throws IOException {
+        writer.write(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Parses a number (in the format accepted by Double.parseDouble) from a
+     * range of characters, ignoring the white spaces around it. Decimal
+     * numbers having up to 18 significant digits and a small exponent (the
+     * vast majority of the numbers written by programs) are converted
+     * directly and exactly; all the others are passed to Double.parseDouble.
+     *
+     * @param chars the characters
+     * @param from the index of the first character
+     * @param to the index after the last character
+     * @return the number
+     * @throws NumberFormatException if the characters are not a number
+     */
+    public static double parseDouble(char[] chars, int from, int to) {
+        while (from < to && Character.isWhitespace(chars[from])) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(chars[to - 1])) {
+            to--;
+        }
+        int i = from;
+        boolean negative = false;
+        if (i < to && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        boolean exact = true;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                anyDigits = true;
+                if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else {
+                    // Too many digits for the fast path
+                    exact = false;
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (anyDigits && i < to && (chars[i] == 'e' || chars[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            boolean anyExponentDigits = false;
+            for (; i < to && chars[i] >= '0' && chars[i] <= '9'; i++) {
+                anyExponentDigits = true;
+                if (explicitExponent < 10000) {
+                    explicitExponent = explicitExponent * 10 + (chars[i] - '0');
+                }
+            }
+            if (!anyExponentDigits) {
+                exact = false;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (!anyDigits || i != to || !exact
+                || mantissa > (1L << 53)
+                || exponent < -22 || exponent > 22) {
+            // NaN, Infinity, hexadecimal, malformed or beyond the fast path
+            return Double.parseDouble(new String(chars, from, to - from));
+        }
+        // Both the mantissa and the power of ten are exact doubles, so a
+        // single (correctly rounded) operation gives the correctly rounded
+        // result
+        double value = exponent >= 0
+                ? mantissa * POWERS_OF_TEN[exponent]
+                : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fieldsCount) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Line %d has %d fields (field %d requested).",
+                    lineNumber, fieldsCount, field));
+        }
+    }
+
+    /**
+     * Reads more characters, moving the unconsumed ones to the start of the
+     * buffer (and growing the buffer if it is full).
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (remaining == buffer.length) {
+            char[] larger = new char[buffer.length * 2];
+            System.arraycopy(buffer, position, larger, 0, remaining);
+            buffer = larger;
+        } else {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+        int count = reader.read(buffer, limit, buffer.length - limit);
+        if (count == -1) {
+            endOfInput = true;
+        } else {
+            limit += count;
+        }
+    }
+
+    private boolean isBlank(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(buffer[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void split() {
+        fieldsCount = 0;
+        int fieldStart = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || buffer[i] == delimiter) {
+                if (fieldsCount == fieldStarts.length) {
+                    int[] largerStarts = new int[fieldsCount * 2];
+                    int[] largerEnds = new int[fieldsCount * 2];
+                    System.arraycopy(fieldStarts, 0, largerStarts, 0, fieldsCount);
+                    System.arraycopy(fieldEnds, 0, largerEnds, 0, fieldsCount);
+                    fieldStarts = largerStarts;
+                    fieldEnds = largerEnds;
+                }
+                fieldStarts[fieldsCount] = fieldStart;
+                fieldEnds[fieldsCount] = i;
+                fieldsCount++;
+                fieldStart = i + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package kktpm;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Java 17 version of the dense KKTPM loops (see the Java 8 version in
+ * src/main/java), packed under META-INF/versions/17 of the multi-release jar.
+ * <p>
+ * The Vector API is still an incubator module, so it is used only when it is
+ * explicitly enabled: the JVM must be started with
+ * --add-modules jdk.incubator.vector and -Dkktpm.vectorKernel=true.
+ * Otherwise the plain loops are used. The vectorized dot products add the
+ * products in a different order (one partial sum per lane), so the results
+ * may differ from those of the plain loops in the last bits. The scaled row
+ * additions are element-wise and give exactly the same results.
+ */
+final class DenseKernels {
+
+    private static final boolean VECTORIZED
+            = Boolean.getBoolean("kktpm.vectorKernel")
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private DenseKernels() {
+    }
+
+    /**
+     * @return true if the Vector API is used
+     */
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    /**
+     * @return the dot product of the first (length) elements of a and b
+     */
+    static double dot(double[] a, double[] b, int length) {
+        if (VECTORIZED) {
+            return Vectorized.dot(a, b, length);
+        }
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds alpha*x to y (the first (length) elements).
+     */
+    static void addScaled(double alpha, double[] x, double[] y, int length) {
+        if (VECTORIZED) {
+            Vectorized.addScaled(alpha, x, y, length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            y[i] += x[i] * alpha;
+        }
+    }
+
+    /**
+     * The vectorized loops (in a separate class, so that the incubator module
+     * is not needed unless they are used).
+     */
+    private static final class Vectorized {
+
+        private static final VectorSpecies<Double> SPECIES
+                = DoubleVector.SPECIES_PREFERRED;
+
+        static double dot(double[] a, double[] b, int length) {
+            DoubleVector sums = DoubleVector.zero(SPECIES);
+            int upperBound = SPECIES.loopBound(length);
+            int i = 0;
+            for (; i < upperBound; i += SPECIES.length()) {
+                DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+                DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+                sums = va.fma(vb, sums);
+            }
+            double sum = sums.reduceLanes(VectorOperators.ADD);
+            // The remaining elements
+            for (; i < length; i++) {
+                sum += a[i] * b[i];
+            }
+            return sum;
+        }
+
+        static void addScaled(double alpha, double[] x, double[] y, int length) {
+            DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+            int upperBound = SPECIES.loopBound(length);
+            int i = 0;
+            for (; i < upperBound; i += SPECIES.length()) {
+                DoubleVector vx = DoubleVector.fromArray(SPECIES, x, i);
+                DoubleVector vy = DoubleVector.fromArray(SPECIES, y, i);
+                // Multiply then add (not fma), to round like the plain loop
+                vy.add(vx.mul(scale)).intoArray(y, i);
+            }
+            for (; i < length; i++) {
+                y[i] += x[i] * alpha;
+            }
+        }
+    }
+}
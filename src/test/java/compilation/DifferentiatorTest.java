@@ -0,0 +1,118 @@
+package compilation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DifferentiatorTest {
+
+    private final VariablesLayout layout;
+    private final ParametersTable parameters;
+
+    public DifferentiatorTest() {
+        Map<String, Double> variables = new LinkedHashMap<>();
+        variables.put("y", 0.0);
+        variables.put("z", 0.0);
+        Map<String, double[]> vectors = new LinkedHashMap<>();
+        vectors.put("x", new double[3]);
+        layout = new VariablesLayout(
+                variables.entrySet().iterator(), vectors.entrySet().iterator());
+        parameters = new ParametersTable();
+        parameters.setValue(parameters.getSlot("pi"), Math.PI);
+    }
+
+    @Test
+    public void testDerivativesMatchAutomaticDifferentiation() {
+        String[] formulas = {
+            "y^2*sin(x[1]) - z/x[2] + sqrt(x[3])",
+            "exp(-y*z)*cos(pi*x[1])^3 + ln(x[2]+1)",
+            "x[1]^x[2] + 2^y + tan(z) + atan(x[3]) + asin(z/2) - acos(y/3)",
+            "sinh(y)*cosh(z) + tanh(x[1]) + log10(x[2]) + abs(y-1)",
+            "sum{i,1,3,(x[i]-0.5)^2} * prod{i,1,3,x[i]}",
+            "-(1+y)/(2*z) + floor(y) + min(2, 3) * z"
+        };
+        double[][] inputs = {{0.3, 0.7}, {0.2, 0.4, 0.9}};
+        ExpressionParser parser = new ExpressionParser(layout, parameters);
+        for (String formula : formulas) {
+            Expression expression = parser.parse(formula);
+            Program program = Program.compile(expression);
+            double[] expected = new double[layout.getTotalVariablesCount()];
+            program.evaluateGradient(inputs, parameters.getValues(),
+                    new double[program.size()], new double[program.size()],
+                    layout, expected);
+            for (int k = 0; k < layout.getInputsCount(); k++) {
+                for (int j = 0; j < layout.getInputLength(k); j++) {
+                    // The printed derivative is parsed back as a formula
+                    String derivative = ExpressionPrinter.print(
+                            Differentiator.differentiate(expression, k, j));
+                    Program derivativeProgram = Program.compile(parser.parse(derivative));
+                    double actual = derivativeProgram.evaluate(inputs,
+                            parameters.getValues(), new double[derivativeProgram.size()]);
+                    Assert.assertEquals(formula + " / " + derivative,
+                            expected[layout.getFlatIndex(k, j)], actual,
+                            1e-12 * Math.max(1, Math.abs(actual)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSimplification() {
+        ExpressionParser parser = new ExpressionParser(layout, parameters);
+        Expression expression = parser.parse("3*x[1]^2 + y*z - sum{i,2,3,x[i]}");
+        Assert.assertEquals("(6 * x[1])", ExpressionPrinter.print(
+                Differentiator.differentiate(expression, 1, 0)));
+        Assert.assertEquals("(-1)", ExpressionPrinter.print(
+                Differentiator.differentiate(expression, 1, 2)));
+        Assert.assertEquals("z", ExpressionPrinter.print(
+                Differentiator.differentiate(expression, 0, 0)));
+        // Structural zero
+        Expression zero = Differentiator.differentiate(
+                parser.parse("sin(y) + pi*z"), 1, 1);
+        Assert.assertTrue(zero.isConstant());
+        Assert.assertEquals(0, zero.getValue(), 0);
+    }
+
+    @Test
+    public void testSimplify() {
+        ExpressionParser parser = new ExpressionParser(layout, parameters);
+        for (String formula : new String[]{"0", "(0)", "-0", "0*y", "y*(z-x[1])*0", "0/y", "sin(0)*y"}) {
+            Expression simplified = Differentiator.simplify(parser.parse(formula));
+            Assert.assertTrue(formula, simplified.isConstant());
+            Assert.assertEquals(formula, 0, simplified.getValue(), 0);
+        }
+        for (String formula : new String[]{"y-y", "0^y", "pi*0+1"}) {
+            Assert.assertNotEquals(formula, "0", ExpressionPrinter.print(
+                    Differentiator.simplify(parser.parse(formula))));
+        }
+        Assert.assertEquals("(2 * y)", ExpressionPrinter.print(
+                Differentiator.simplify(parser.parse("1*(y+0)*2^1"))));
+    }
+
+    @Test
+    public void testAbsDerivativeIsSignum() {
+        ExpressionParser parser = new ExpressionParser(layout, parameters);
+        Expression expression = parser.parse("abs(y)");
+        Program program = Program.compile(expression);
+        Program derivative = Program.compile(parser.parse(ExpressionPrinter.print(
+                Differentiator.differentiate(expression, 0, 0))));
+        double[] gradient = new double[layout.getTotalVariablesCount()];
+        for (double y : new double[]{-1e300, -2, -Double.MIN_VALUE, 0, Double.MIN_VALUE, 0.3, 1e300}) {
+            double[][] inputs = {{y, 0}, new double[3]};
+            program.evaluateGradient(inputs, parameters.getValues(),
+                    new double[program.size()], new double[program.size()],
+                    layout, gradient);
+            Assert.assertEquals(Math.signum(y), gradient[0], 0);
+            Assert.assertEquals(Math.signum(y), derivative.evaluate(inputs,
+                    parameters.getValues(), new double[derivative.size()]), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonDifferentiableFunction() {
+        ExpressionParser parser = new ExpressionParser(layout, parameters);
+        Differentiator.differentiate(parser.parse("max(y, z)"), 0, 0);
+    }
+}
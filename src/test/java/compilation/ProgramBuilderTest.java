@@ -0,0 +1,58 @@
+package compilation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ProgramBuilderTest {
+
+    @Test
+    public void testSharedSubexpressions() {
+        Map<String, Double> variables = new LinkedHashMap<>();
+        variables.put("y", 0.0);
+        Map<String, double[]> vectors = new LinkedHashMap<>();
+        vectors.put("x", new double[3]);
+        VariablesLayout layout = new VariablesLayout(
+                variables.entrySet().iterator(), vectors.entrySet().iterator());
+        ParametersTable parameters = new ParametersTable();
+        parameters.setValue(parameters.getSlot("pi"), Math.PI);
+        ExpressionParser parser = new ExpressionParser(layout, parameters);
+        String g = "sum{i,2,3,(x[i]-0.5)^2}";
+        Expression f1 = parser.parse("(1+" + g + ")*cos(x[1]*pi/2)");
+        Expression f2 = parser.parse("(1+" + g + ")*sin(x[1]*pi/2)");
+        Expression f3 = parser.parse("(" + g + "+1)*y");
+        ProgramBuilder builder = new ProgramBuilder();
+        int r1 = builder.add(f1);
+        int size1 = builder.size();
+        int r2 = builder.add(f2);
+        int r3 = builder.add(f3);
+        // Only sin(...), its product, y and the last product are new (g+1 is
+        // the same as 1+g)
+        Assert.assertEquals(size1 + 4, builder.size());
+        Program program = builder.build();
+        double[][] inputs = {{2}, {0.3, 0.6, 0.9}};
+        double[] registers = new double[program.size()];
+        program.evaluate(inputs, parameters.getValues(), registers);
+        double expectedG = (0.6 - 0.5) * (0.6 - 0.5) + (0.9 - 0.5) * (0.9 - 0.5);
+        Assert.assertEquals((1 + expectedG) * Math.cos(0.3 * Math.PI / 2), registers[r1], 1e-15);
+        Assert.assertEquals((1 + expectedG) * Math.sin(0.3 * Math.PI / 2), registers[r2], 1e-15);
+        Assert.assertEquals((expectedG + 1) * 2, registers[r3], 1e-15);
+        // The same values are obtained from separate programs
+        for (Expression f : new Expression[]{f1, f2, f3}) {
+            Program single = Program.compile(f);
+            double value = single.evaluate(inputs, parameters.getValues(), new double[single.size()]);
+            Assert.assertEquals(registers[builder.add(f)], value, 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedSyntax() {
+        VariablesLayout layout = new VariablesLayout(
+                Collections.<String, Double>emptyMap().entrySet().iterator(),
+                Collections.<String, double[]>emptyMap().entrySet().iterator());
+        new ExpressionParser(layout, new ParametersTable()).parse("unknown(2)");
+    }
+}
@@ -0,0 +1,168 @@
+package kktpm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import parsing.OptimizationProblem;
+import parsing.XMLParser;
+import utility.DelimitedReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+public class DelimitedKKTPMTest {
+
+    @Test
+    public void testRawRowsMatchBatch() throws IOException {
+        int popSize = 300;
+        int varCount = 5;
+        int objCount = 2;
+        int conCount = 3;
+        Random random = new Random(41);
+        double[][] x = new double[popSize][varCount];
+        double[][] f = new double[popSize][objCount];
+        double[][] g = new double[popSize][conCount];
+        double[][][] jacobianF = new double[popSize][objCount][varCount];
+        double[][][] jacobianG = new double[popSize][conCount][varCount];
+        StringBuilder csv = new StringBuilder("x1,x2,x3,x4,x5,f1,f2,...\r\n");
+        for (int p = 0; p < popSize; p++) {
+            fill(random, x[p]);
+            fill(random, f[p]);
+            for (int j = 0; j < conCount; j++) {
+                g[p][j] = random.nextDouble() - 0.7;
+                fill(random, jacobianG[p][j]);
+            }
+            for (int i = 0; i < objCount; i++) {
+                fill(random, jacobianF[p][i]);
+            }
+            StringBuilder line = new StringBuilder();
+            append(line, x[p]);
+            append(line, f[p]);
+            append(line, g[p]);
+            for (double[] row : jacobianF[p]) {
+                append(line, row);
+            }
+            for (double[] row : jacobianG[p]) {
+                append(line, row);
+            }
+            csv.append(line, 0, line.length() - 1).append("\r\n");
+            if (p % 100 == 0) {
+                csv.append('\n');
+            }
+        }
+        double[] z = {-0.01, -0.01};
+        StringWriter output = new StringWriter();
+        long count = DelimitedKKTPM.getKKTPM(new StringReader(csv.toString()), output,
+                ',', true, varCount, objCount, conCount, z, 0.001);
+        Assert.assertEquals(popSize, count);
+        double[] expected = KKTPMCalculator.getKKTPMBatch(x, f, g, jacobianF, jacobianG, z, 0.001);
+        BufferedReader lines = new BufferedReader(new StringReader(output.toString()));
+        Assert.assertTrue(lines.readLine().endsWith(",..." + "," + DelimitedKKTPM.KKTPM_HEADER));
+        for (int p = 0; p < popSize; p++) {
+            String[] fields = lines.readLine().split(",");
+            Assert.assertEquals(PointRecords.getLength(varCount, objCount, conCount) + 1, fields.length);
+            Assert.assertEquals(x[p][0], Double.parseDouble(fields[0]), 0.0);
+            Assert.assertEquals(expected[p], Double.parseDouble(fields[fields.length - 1]), 0.0);
+        }
+        Assert.assertNull(lines.readLine());
+    }
+
+    @Test
+    public void testProblemRowsMatchProblemCalculation() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/bnh.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file);
+        double[] z = {-0.01, -0.01};
+        Random random = new Random(43);
+        int popSize = 50;
+        double[][] x = new double[popSize][2];
+        StringBuilder tsv = new StringBuilder();
+        for (int p = 0; p < popSize; p++) {
+            x[p][0] = 5 * random.nextDouble();
+            x[p][1] = 3 * random.nextDouble();
+            tsv.append(x[p][0]).append('\t').append(x[p][1]).append("\tgeneration-7\n");
+        }
+        StringWriter output = new StringWriter();
+        Assert.assertEquals(popSize, DelimitedKKTPM.getKKTPM(
+                new StringReader(tsv.toString()), output, '\t', false, problem, z, 0.001));
+        String[] lines = output.toString().split("\n");
+        Assert.assertEquals(popSize, lines.length);
+        for (int p = 0; p < popSize; p++) {
+            String[] fields = lines[p].split("\t");
+            Assert.assertEquals("generation-7", fields[2]);
+            problem.setAllVariables(x[p]);
+            double expected = KKTPMCalculator.getKKTPM(problem, z, 0.001).getKktpm();
+            Assert.assertEquals(expected, Double.parseDouble(fields[3]), 1e-12 * Math.max(1, expected));
+        }
+    }
+
+    @Test
+    public void testInvalidRows() {
+        String[] invalid = {"1,2,3,4\n", "1,2,x,4,5,6,7\n"};
+        for (String text : invalid) {
+            try {
+                DelimitedKKTPM.getKKTPM(new StringReader(text), new StringWriter(),
+                        ',', false, 1, 1, 1, null, 0);
+                Assert.fail();
+            } catch (IOException ex) {
+                Assert.assertTrue(ex.getMessage().startsWith("Line 1 "));
+            }
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        Random random = new Random(47);
+        for (int i = 0; i < 100000; i++) {
+            double value;
+            switch (i % 4) {
+                case 0:
+                    value = random.nextDouble();
+                    break;
+                case 1:
+                    value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+                    break;
+                case 2:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+                default:
+                    value = Math.round(random.nextGaussian() * 1e6) / 1e3;
+            }
+            String text = Double.toString(value);
+            Assert.assertEquals(text, Double.parseDouble(text), parse(text), 0.0);
+        }
+        String[] texts = {"0", "-0", "+1.5", " 2.5e3 ", "1E-5", "123456789012345678901234",
+            "0.000000000000000000000001", ".5", "5.", "NaN", "-Infinity", "1e400", "1e-400"};
+        for (String text : texts) {
+            Assert.assertEquals(text, Double.parseDouble(text), parse(text), 0.0);
+        }
+        Assert.assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(parse("-0.0")));
+        for (String text : new String[]{"", "-", "1e", "1.2.3", "e5", "1,5"}) {
+            try {
+                parse(text);
+                Assert.fail(text);
+            } catch (NumberFormatException ex) {
+                // Expected
+            }
+        }
+    }
+
+    private static double parse(String text) {
+        char[] chars = ("#" + text + "#").toCharArray();
+        return DelimitedReader.parseDouble(chars, 1, chars.length - 1);
+    }
+
+    private static void fill(Random random, double[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble() * 2 - 1;
+        }
+    }
+
+    private static void append(StringBuilder line, double[] values) {
+        for (double value : values) {
+            line.append(value).append(',');
+        }
+    }
+}
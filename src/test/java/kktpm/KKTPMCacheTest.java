@@ -0,0 +1,149 @@
+package kktpm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import parsing.GradientMethod;
+import parsing.KKTPM;
+import parsing.OptimizationProblem;
+import parsing.ProblemDefinition;
+import parsing.XMLParser;
+
+import java.io.File;
+
+public class KKTPMCacheTest {
+
+    @Test
+    public void testCachedKKTPMMatchesCalculator() throws Throwable {
+        OptimizationProblem problem = readProblem("bnh.xml");
+        double[][] points = {{1, 1}, {2, 1}, {3, 2}, {1, 1}, {3, 2}};
+        double[] z = {-0.01, -0.01};
+        KKTPMCache cache = new KKTPMCache(10);
+        for (double[] x : points) {
+            problem.setAllVariables(x);
+            double expected = KKTPMCalculator.getKKTPM(problem, z, 0.001).getKktpm();
+            Assert.assertEquals(expected, cache.getKKTPM(problem, z, 0.001).getKktpm(), 0.0);
+        }
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(0.4, cache.getHitRate(), 1e-12);
+        // Hits do not evaluate the problem
+        problem.setAllVariables(points[0]);
+        Assert.assertEquals(0, cache.getKKTPM(problem, z, 0.001).getFunEvalCount());
+        // z, rho and w are part of the key
+        cache.getKKTPM(problem, new double[]{-0.02, -0.01}, 0.001);
+        cache.getKKTPM(problem, z, 0.0);
+        double[] w = {0.6, 0.8};
+        KKTPM withW = cache.getKKTPM2(problem, z, 0.001, w);
+        Assert.assertEquals(KKTPMCalculator.getKKTPM2(problem, z, 0.001, w).getKktpm(), withW.getKktpm(), 0.0);
+        Assert.assertEquals(3, cache.getHitCount());
+        Assert.assertEquals(6, cache.getMissCount());
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Throwable {
+        OptimizationProblem problem = readProblem("bnh.xml");
+        double[] z = {-0.01, -0.01};
+        KKTPMCache cache = new KKTPMCache(2);
+        problem.setAllVariables(new double[]{1, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        problem.setAllVariables(new double[]{2, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        // (1, 1) becomes the most recently used
+        problem.setAllVariables(new double[]{1, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        // (2, 1) is evicted
+        problem.setAllVariables(new double[]{3, 2});
+        cache.getKKTPM(problem, z, 0.001);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        problem.setAllVariables(new double[]{1, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        problem.setAllVariables(new double[]{2, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testTolerance() throws Throwable {
+        OptimizationProblem problem = readProblem("bnh.xml");
+        double[] z = {-0.01, -0.01};
+        KKTPMCache exact = new KKTPMCache(10);
+        KKTPMCache tolerant = new KKTPMCache(10, 1e-6);
+        for (double[] x : new double[][]{{1, 1}, {1 + 1e-9, 1 - 1e-9}, {1.001, 1}}) {
+            problem.setAllVariables(x);
+            exact.getKKTPM(problem, z, 0.001);
+            tolerant.getKKTPM(problem, z, 0.001);
+        }
+        Assert.assertEquals(0, exact.getHitCount());
+        Assert.assertEquals(1, tolerant.getHitCount());
+        Assert.assertEquals(2, tolerant.size());
+    }
+
+    @Test
+    public void testContextsShareResults() throws Throwable {
+        ProblemDefinition definition = readProblem("bnh.xml").getDefinition();
+        double[] z = {-0.01, -0.01};
+        KKTPMCache cache = new KKTPMCache(10);
+        OptimizationProblem first = definition.newContext();
+        OptimizationProblem second = definition.newContext();
+        first.setAllVariables(new double[]{1, 1});
+        second.setAllVariables(new double[]{1, 1});
+        double expected = cache.getKKTPM(first, z, 0.001).getKktpm();
+        Assert.assertEquals(expected, cache.getKKTPM(second, z, 0.001).getKktpm(), 0.0);
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testModifiedProblemIsNotCached() throws Throwable {
+        OptimizationProblem problem = readProblem("bnh.xml");
+        double[] z = {-0.01, -0.01};
+        KKTPMCache cache = new KKTPMCache(10);
+        problem.setAllVariables(new double[]{1, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        problem.setGradientMethod(GradientMethod.CENTRAL);
+        cache.getKKTPM(problem, z, 0.001);
+        problem.setConstant("c", 2);
+        cache.getKKTPM(problem, z, 0.001);
+        // Changing the point only is not a modification
+        problem.setAllVariables(new double[]{2, 1});
+        problem.setAllVariables(new double[]{1, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        Assert.assertEquals(1, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testNonFinitePointsAreNotCached() throws Throwable {
+        OptimizationProblem problem = readProblem("bnh.xml");
+        double[] z = {-0.01, -0.01};
+        KKTPMCache cache = new KKTPMCache(10, 1e-6);
+        problem.setAllVariables(new double[]{0, 1});
+        cache.getKKTPM(problem, z, 0.001);
+        for (double value : new double[]{Double.NaN, Double.POSITIVE_INFINITY, 1e300}) {
+            problem.setAllVariables(new double[]{value, 1});
+            try {
+                cache.getKKTPM(problem, z, 0.001);
+            } catch (RuntimeException ex) {
+                // The calculation itself may fail at such points
+            }
+        }
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(4, cache.getMissCount());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new KKTPMCache(0);
+    }
+
+    private OptimizationProblem readProblem(String name) throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/" + name).toURI());
+        return XMLParser.readXML(file);
+    }
+}
@@ -5,10 +5,19 @@ import exceptions.MisplacedTokensException;
 import exceptions.TooManyDecimalPointsException;
 import org.junit.Assert;
 import org.junit.Test;
+import parsing.KKTPM;
+import parsing.KKTPMComponents;
+import parsing.KKTPMResult;
 import parsing.OptimizationProblem;
 import parsing.XMLParser;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import static kktpm.KKTPMCalculator.*;
 import static kktpm.KKTPMCalculator.getKKTPM;
@@ -118,4 +127,591 @@ public class KKTPMCalculatorTest {
         Assert.assertEquals(0.4049382716049383, kktpmProjected, 1e-10);
         Assert.assertEquals(0.3654320987654321, kktpm, 1e-10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSparseKKTPMMatchesDenseKKTPM() throws Throwable {
+        String[] names = {"zdt1.xml", "bnh.xml", "osy.xml", "zdt6_no_gradients.xml"};
+        for (String name : names) {
+            File file = new File(getClass().getClassLoader().getResource("problems/" + name).toURI());
+            OptimizationProblem problem = XMLParser.readXML(file);
+            int n = problem.getTotalVariablesCount();
+            double[] x = new double[n];
+            Random random = new Random(5);
+            for (int i = 0; i < n; i++) {
+                x[i] = random.nextDouble();
+            }
+            problem.setAllVariables(x);
+            double[] ideal = {-0.01, -0.01};
+            KKTPM dense = KKTPMCalculator.getKKTPM(problem, ideal, 0.001);
+            KKTPM sparse = KKTPMCalculator.getSparseKKTPM(problem, ideal, 0.001);
+            Assert.assertEquals(dense.getKktpm(), sparse.getKktpm(), 1e-12);
+            Assert.assertEquals(dense.getFunEvalCount(), sparse.getFunEvalCount());
+            // The workspace of the thread is shared by both paths
+            Assert.assertEquals(dense.getKktpm(), KKTPMCalculator.getKKTPM(problem, ideal, 0.001).getKktpm(), 0.0);
+            Assert.assertEquals(sparse.getKktpm(), KKTPMCalculator.getSparseKKTPM(problem, ideal, 0.001).getKktpm(), 0.0);
+        }
+    }
+
+    @Test
+    public void testCholeskyMatchesLU() {
+        Population pop = randomPopulation(new Random(13), 200, 8, 2, 12);
+        double[] z = {-0.01, -0.01};
+        KKTPMWorkspace lu = new KKTPMWorkspace(8, 2, 12);
+        KKTPMWorkspace cholesky = new KKTPMWorkspace(8, 2, 12);
+        cholesky.setMultiplierSolver(MultiplierSolver.CHOLESKY);
+        double[] u1 = new double[14];
+        double[] u2 = new double[14];
+        int removedCount = 0;
+        for (int p = 0; p < pop.size(); p++) {
+            double expected = lu.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            double actual = cholesky.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            Assert.assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)));
+            Assert.assertEquals(lu.getActiveSetIterations(), cholesky.getActiveSetIterations());
+            Assert.assertArrayEquals(lu.getLagrangeMultipliers(u1), cholesky.getLagrangeMultipliers(u2), 1e-9);
+            Assert.assertArrayEquals(u1, getLagrangeMultipliers(pop.x[p], pop.f[p], z, pop.g[p],
+                    pop.jacobianF[p], pop.jacobianG[p], 0.001, getWeight(pop.f[p], z), MultiplierSolver.CHOLESKY), 1e-9);
+            removedCount += lu.getActiveSetIterations();
+        }
+        // Multipliers were actually removed
+        Assert.assertTrue(removedCount > pop.size());
+    }
+
+    @Test
+    public void testActiveSetHint() {
+        Random random = new Random(23);
+        Population pop = randomPopulation(random, 200, 8, 2, 12);
+        double[] z = {-0.01, -0.01};
+        KKTPMWorkspace cold = new KKTPMWorkspace(8, 2, 12);
+        KKTPMWorkspace warm = new KKTPMWorkspace(8, 2, 12);
+        boolean[][] activeSets = new boolean[pop.size()][14];
+        for (int p = 0; p < pop.size(); p++) {
+            warm.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            warm.getActiveSet(activeSets[p]);
+        }
+        // The next generation: slightly moved points, starting from the
+        // active sets of the previous one
+        int coldIterations = 0;
+        int warmIterations = 0;
+        int sameCount = 0;
+        double[] u1 = new double[14];
+        double[] u2 = new double[14];
+        for (int p = 0; p < pop.size(); p++) {
+            for (double[] row : pop.jacobianG[p]) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] += 0.01 * (random.nextDouble() - 0.5);
+                }
+            }
+            double expected = cold.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            warm.setActiveSetHint(activeSets[p]);
+            double actual = warm.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            cold.getLagrangeMultipliers(u1);
+            warm.getLagrangeMultipliers(u2);
+            for (double u : u2) {
+                Assert.assertTrue(u >= 0);
+            }
+            // Never worse than without a hint
+            double[] w = getWeight(pop.f[p], z);
+            double coldObjective = getMultipliersObjective(w, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], u1);
+            double warmObjective = getMultipliersObjective(w, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], u2);
+            Assert.assertTrue(warmObjective <= coldObjective + 1e-9 * Math.max(1, coldObjective));
+            if (Math.abs(expected - actual) <= 1e-9 * Math.max(1, Math.abs(expected))) {
+                sameCount++;
+            }
+            Assert.assertArrayEquals(u2, getLagrangeMultipliers(pop.x[p], pop.f[p], z, pop.g[p],
+                    pop.jacobianF[p], pop.jacobianG[p], 0.001, activeSets[p]), 1e-9);
+            coldIterations += cold.getActiveSetIterations();
+            warmIterations += warm.getActiveSetIterations();
+        }
+        Assert.assertTrue(sameCount > pop.size() * 9 / 10);
+        Assert.assertTrue(warmIterations < coldIterations / 2);
+        // A wrong hint falls back to the calculation without a hint (the hint
+        // is used once)
+        boolean[] allActive = new boolean[14];
+        Arrays.fill(allActive, true);
+        double expected = cold.getKKTPM(pop.x[0], pop.f[0], z, pop.g[0], pop.jacobianF[0], pop.jacobianG[0], 0.001);
+        warm.setActiveSetHint(allActive);
+        Assert.assertEquals(expected, warm.getKKTPM(
+                pop.x[0], pop.f[0], z, pop.g[0], pop.jacobianF[0], pop.jacobianG[0], 0.001), 0.0);
+        Assert.assertEquals(cold.getActiveSetIterations() + 1, warm.getActiveSetIterations());
+        warm.getKKTPM(pop.x[0], pop.f[0], z, pop.g[0], pop.jacobianF[0], pop.jacobianG[0], 0.001);
+        Assert.assertEquals(cold.getActiveSetIterations(), warm.getActiveSetIterations());
+        Assert.assertArrayEquals(getActiveSet(cold.getLagrangeMultipliers(u1)), warm.getActiveSet(new boolean[14]));
+    }
+
+    @Test
+    public void testWrongActiveSetHint() {
+        Population pop = randomPopulation(new Random(29), 100, 8, 2, 12);
+        double[] z = {-0.01, -0.01};
+        KKTPMWorkspace cold = new KKTPMWorkspace(8, 2, 12);
+        KKTPMWorkspace warm = new KKTPMWorkspace(8, 2, 12);
+        double[] u1 = new double[14];
+        double[] u2 = new double[14];
+        boolean[] activeSet = new boolean[14];
+        int extraPeelCount = 0;
+        for (int p = 0; p < pop.size(); p++) {
+            double expected = cold.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            cold.getActiveSet(activeSet);
+            // Remove the multipliers that are positive instead of those that
+            // are zero
+            boolean[] hint = new boolean[14];
+            for (int i = 0; i < 14; i++) {
+                hint[i] = !activeSet[i];
+            }
+            warm.setActiveSetHint(hint);
+            double actual = warm.getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            cold.getLagrangeMultipliers(u1);
+            warm.getLagrangeMultipliers(u2);
+            if (actual != expected) {
+                // The result without a hint was not optimal, and the (verified)
+                // hinted one is better
+                double[] w = getWeight(pop.f[p], z);
+                Assert.assertTrue(getMultipliersObjective(w, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], u2)
+                        < getMultipliersObjective(w, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], u1));
+                continue;
+            }
+            // The whole system is solved again, with the same results
+            Assert.assertArrayEquals(u1, u2, 0.0);
+            Assert.assertArrayEquals(u1, getLagrangeMultipliers(pop.x[p], pop.f[p], z, pop.g[p],
+                    pop.jacobianF[p], pop.jacobianG[p], 0.001, hint), 1e-9);
+            // The hinted attempt, its verification and the whole system
+            int extraIterations = warm.getActiveSetIterations() - cold.getActiveSetIterations();
+            Assert.assertTrue(extraIterations >= 1);
+            if (extraIterations > 1) {
+                extraPeelCount++;
+            }
+        }
+        // The hinted attempts usually removed negative multipliers of their own
+        Assert.assertTrue(extraPeelCount > pop.size() / 2);
+    }
+
+    @Test
+    public void testNonNegativeSolverOnBundledProblems() throws Throwable {
+        String[] names = {"bnh.xml", "osy.xml", "tnk.xml", "srn.xml", "zdt1.xml", "dtlz2_3obj.xml"};
+        int sameCount = 0;
+        int betterCount = 0;
+        for (String name : names) {
+            File file = new File(getClass().getClassLoader().getResource("problems/" + name).toURI());
+            OptimizationProblem problem = XMLParser.readXML(file);
+            int n = problem.getTotalVariablesCount();
+            int m = problem.getObjectivesCount();
+            int k = problem.getConstraintsCount();
+            double[] x = new double[n];
+            double[] f = new double[m];
+            double[] g = new double[k];
+            double[][] jacobianF = new double[m][n];
+            double[][] jacobianG = new double[k][n];
+            double[] z = new double[m];
+            Random random = new Random(17);
+            for (int p = 0; p < 50; p++) {
+                fill(random, x);
+                problem.evaluateAll(x, f, g, jacobianF, jacobianG);
+                for (int i = 0; i < m; i++) {
+                    z[i] = f[i] - 0.01 - random.nextDouble();
+                }
+                double[] w = getWeight(f, z);
+                double[] lu = getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, 0.0, w, MultiplierSolver.LU);
+                double[] nnls = getLagrangeMultipliers(x, f, z, g, jacobianF, jacobianG, 0.0, w, MultiplierSolver.NNLS);
+                for (double u : nnls) {
+                    Assert.assertTrue(u >= 0);
+                }
+                double expected = getMultipliersObjective(w, g, jacobianF, jacobianG, lu);
+                double actual = getMultipliersObjective(w, g, jacobianF, jacobianG, nnls);
+                double tolerance = 1e-9 * Math.max(1, Math.abs(expected));
+                // Never worse than removing negative multipliers one by one
+                Assert.assertTrue(name, actual <= expected + tolerance);
+                if (actual < expected - tolerance) {
+                    betterCount++;
+                } else {
+                    sameCount++;
+                }
+            }
+        }
+        // Usually the same multipliers, but sometimes strictly better ones
+        Assert.assertTrue(sameCount > betterCount);
+        Assert.assertTrue(betterCount > 0);
+    }
+
+    @Test
+    public void testNonNegativeSolverWarmStart() {
+        // The unconstrained solution is (0.9, 0.2, -0.5, 0): the warm start
+        // keeps (0.9, 0.2) as the passive set, the solution of which,
+        // (16/15, -2/15), is feasible only 60% of the way. The last (zero)
+        // multiplier is decoupled from the others.
+        double[][] a = {
+            {1, 0.5, 0, 0},
+            {0.5, 1, 0.5, 0},
+            {0, 0.5, 1, 0},
+            {0, 0, 0, 1}};
+        double[] b = {1, 0.4, -0.4, 0};
+        double[] u = new double[4];
+        NonNegativeSolver solver = new NonNegativeSolver(4);
+        Assert.assertTrue(solver.solve(a, b, u));
+        Assert.assertArrayEquals(new double[]{1, 0, 0, 0}, u, 1e-12);
+        Assert.assertTrue(NonNegativeSolver.isOptimal(a, b, u));
+        // One step to the boundary, and the solution of the remaining passive
+        // set (a cold start would need a third system to free the first one)
+        Assert.assertEquals(2, solver.getIterations());
+    }
+
+    @Test
+    public void testKKTPMComponentsMatchSeparateCalculations() {
+        Population pop = randomPopulation(new Random(19), 100, 5, 3, 6);
+        double[] z = {-0.01, -0.01, -0.01};
+        KKTPMWorkspace workspace = new KKTPMWorkspace(5, 3, 6);
+        for (int p = 0; p < pop.size(); p++) {
+            KKTPMComponents components = getKKTPMComponents(
+                    pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            double[] u = getLagrangeMultipliers(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            double direct = getDirectKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], u, 0.001);
+            Assert.assertEquals(direct, components.getDirect(), 0.0);
+            Assert.assertEquals(getAdjustedKKTPM(pop.f[p], pop.g[p], u), components.getAdjusted(), 0.0);
+            Assert.assertEquals(getProjectedKKTPM(pop.f[p], pop.g[p], u, direct), components.getProjected(), 0.0);
+            // The single-value getters share the same pass
+            Assert.assertEquals(components.getDirect(),
+                    getDirectKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001), 0.0);
+            Assert.assertEquals(components.getAdjusted(),
+                    getAdjustedKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001), 0.0);
+            Assert.assertEquals(components.getProjected(),
+                    getProjectedKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001), 0.0);
+            Assert.assertEquals(workspace.getKKTPM(
+                    pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001),
+                    components.getKktpm(), 0.0);
+        }
+    }
+
+    @Test
+    public void testKKTPMResultMatchesSeparateCalculations() throws Throwable {
+        String[] names = {"bnh.xml", "osy_no_gradients.xml", "tnk.xml", "zdt1.xml"};
+        int approximationsCount = 0;
+        int activeSetsCount = 0;
+        for (String name : names) {
+            File file = new File(getClass().getClassLoader().getResource("problems/" + name).toURI());
+            OptimizationProblem problem = XMLParser.readXML(file);
+            int n = problem.getTotalVariablesCount();
+            double[] x = new double[n];
+            double[] ideal = {-300, -0.05};
+            Random random = new Random(59);
+            for (int p = 0; p < 20; p++) {
+                fill(random, x);
+                problem.setAllVariables(x);
+                KKTPMResult result = getKKTPMResult(problem, ideal, 0.001);
+                KKTPM kktpm = getKKTPM(problem, ideal, 0.001);
+                Assert.assertEquals(kktpm.getKktpm(), result.getKktpm(), 0.0);
+                Assert.assertEquals(kktpm.getFunEvalCount(), result.getFunEvalCount());
+                Assert.assertEquals(kktpm.getKktpm(), result.toKKTPM().getKktpm(), 0.0);
+                Assert.assertEquals(getDirectKKTPM(problem, ideal, 0.001).getKktpm(), result.getDirect(), 1e-12);
+                Assert.assertEquals(getAdjustedKKTPM(problem, ideal, 0.001).getKktpm(), result.getAdjusted(), 1e-12);
+                Assert.assertEquals(getProjectedKKTPM(problem, ideal, 0.001).getKktpm(), result.getProjected(), 1e-12);
+                double[] u = getLagrangeMultipliers(problem, ideal, 0.001).getLagrangeMultipliers();
+                Assert.assertArrayEquals(u, result.getLagrangeMultipliers(), 0.0);
+                Assert.assertEquals(result.isApproximation(), result.getKktpm() != result.getDirect());
+                Assert.assertEquals(problem.getObjectivesCount(), result.getWeight().length);
+                int zeros = 0;
+                for (double value : u) {
+                    Assert.assertTrue(value >= 0);
+                    zeros += value == 0 ? 1 : 0;
+                }
+                Assert.assertEquals(zeros, result.getActiveSetSize());
+                approximationsCount += result.isApproximation() ? 1 : 0;
+                activeSetsCount += result.getActiveSetSize() > 0 ? 1 : 0;
+            }
+        }
+        Assert.assertTrue(approximationsCount > 0);
+        Assert.assertTrue(activeSetsCount > 0);
+    }
+
+    @Test
+    public void testSmallSystemKernelMatchesMatrixCalculation() {
+        // Below, at and above the size threshold (the dimensions change
+        // between consecutive calls)
+        int[][] dimensions = {{4, 2, 3}, {7, 3, 8}, {4, 2, 30}, {6, 4, 29}};
+        for (int[] dimension : dimensions) {
+            Population pop = randomPopulation(new Random(23), 20, dimension[0], dimension[1], dimension[2]);
+            double[] z = new double[dimension[1]];
+            for (int p = 0; p < pop.size(); p++) {
+                double expected = getKKTPMComponents(
+                        pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001).getKktpm();
+                double actual = getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+                Assert.assertEquals(expected, actual, 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchMatchesSinglePointCalculation() {
+        Population pop = randomPopulation(new Random(7), 50, 6, 3, 4);
+        double[] z = {-0.01, -0.01, -0.01};
+        double[] kktpm = KKTPMCalculator.getKKTPMBatch(
+                pop.x, pop.f, pop.g, pop.jacobianF, pop.jacobianG, z, 0.001);
+        Assert.assertEquals(pop.size(), kktpm.length);
+        for (int p = 0; p < pop.size(); p++) {
+            double expected = KKTPMCalculator.getKKTPM(
+                    pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+            Assert.assertEquals(expected, kktpm[p], 0.0);
+        }
+    }
+
+    @Test
+    public void testColumnarBatchMatchesBatch() {
+        // Several blocks (the last one partial), and a single objective
+        int[][] dimensions = {{6, 3, 4, 75}, {9, 1, 5, 40}};
+        for (int[] dimension : dimensions) {
+            Population pop = randomPopulation(new Random(29), dimension[3], dimension[0], dimension[1], dimension[2]);
+            ColumnarPopulation population = new ColumnarPopulation(pop.size(), dimension[0], dimension[1], dimension[2]);
+            for (int p = 0; p < pop.size(); p++) {
+                population.setPoint(p, pop.x[p], pop.f[p], pop.g[p], pop.jacobianF[p], pop.jacobianG[p]);
+            }
+            double[] z = dimension[1] == 1 ? null : new double[]{-0.01, -0.01, -0.01};
+            double[] expected = KKTPMCalculator.getKKTPMBatch(pop.x, pop.f, pop.g, pop.jacobianF, pop.jacobianG, z, 0.001);
+            double[] actual = KKTPMCalculator.getKKTPMBatch(population, z, 0.001);
+            Assert.assertArrayEquals(expected, actual, 0.0);
+        }
+    }
+
+    @Test
+    public void testOffHeapBatchMatchesBatch() {
+        Population pop = randomPopulation(new Random(31), 60, 7, 2, 5);
+        int recordLength = PointRecords.getLength(7, 2, 5);
+        DoubleBuffer points = ByteBuffer.allocateDirect(pop.size() * recordLength * 8)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        for (int p = 0; p < pop.size(); p++) {
+            PointRecords.put(points, pop.x[p], pop.f[p], pop.g[p], pop.jacobianF[p], pop.jacobianG[p]);
+        }
+        points.flip();
+        DoubleBuffer kktpm = ByteBuffer.allocateDirect(pop.size() * 8)
+                .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        double[] z = {-0.01, -0.01};
+        Assert.assertEquals(pop.size(), KKTPMCalculator.getKKTPMBatch(points, 7, 2, 5, z, 0.001, kktpm));
+        Assert.assertEquals(0, points.remaining());
+        double[] actual = new double[pop.size()];
+        kktpm.flip();
+        kktpm.get(actual);
+        double[] expected = KKTPMCalculator.getKKTPMBatch(pop.x, pop.f, pop.g, pop.jacobianF, pop.jacobianG, z, 0.001);
+        Assert.assertArrayEquals(expected, actual, 0.0);
+        // A partial record
+        points.limit(recordLength + 3).position(0);
+        try {
+            KKTPMCalculator.getKKTPMBatch(points, 7, 2, 5, z, 0.001, kktpm);
+            Assert.fail();
+        } catch (IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testParallelBatchMatchesSequentialBatch() {
+        Population pop = randomPopulation(new Random(11), 1000, 10, 2, 6);
+        double[] z = {-0.01, -0.01};
+        double[] sequential = KKTPMCalculator.getKKTPMBatch(
+                pop.x, pop.f, pop.g, pop.jacobianF, pop.jacobianG, z, 0.0);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            double[] parallel = KKTPMCalculator.getKKTPMBatch(
+                    pop.x, pop.f, pop.g, pop.jacobianF, pop.jacobianG, z, 0.0, pool);
+            Assert.assertArrayEquals(sequential, parallel, 0.0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Throwable {
+        AccumulatingMetrics metrics = new AccumulatingMetrics();
+        Assert.assertSame(KKTPMMetrics.NONE, getMetrics());
+        try {
+            // Problem-based calculations (with numerical derivatives)
+            File file = new File(getClass().getClassLoader().getResource("problems/osy_no_gradients.xml").toURI());
+            OptimizationProblem problem = XMLParser.readXML(file);
+            double[] ideal = {-300, -0.05};
+            problem.setAllVariables(new double[]{0.1, 0.0, 1, 0.5, 5, 0.5});
+            setMetrics(metrics);
+            KKTPM kktpm = getKKTPM(problem, ideal, 0.001);
+            setMetrics(null);
+            Assert.assertSame(KKTPMMetrics.NONE, getMetrics());
+            Assert.assertEquals(1, metrics.getExecutionsCount(KKTPMMetrics.Phase.PROBLEM_EVALUATION));
+            Assert.assertTrue(kktpm.getFunEvalCount() > 0);
+            Assert.assertEquals(kktpm.getFunEvalCount(), metrics.getCount(KKTPMMetrics.Counter.NUMERICAL_EVALUATIONS));
+            // Raw data, using both the primitive kernel (small systems) and
+            // the matrix-based methods
+            for (int conCount : new int[]{6, 2 * SMALL_SYSTEM_SIZE}) {
+                metrics.reset();
+                Population pop = randomPopulation(new Random(53), 30, 2, 2, conCount);
+                // Gradients pointing in all directions (for the approximation
+                // to be required at some points)
+                for (int p = 0; p < pop.size(); p++) {
+                    for (double[][] jacobian : new double[][][]{pop.jacobianF[p], pop.jacobianG[p]}) {
+                        for (double[] row : jacobian) {
+                            for (int j = 0; j < row.length; j++) {
+                                row[j] = 2 * row[j] - 1;
+                            }
+                        }
+                    }
+                }
+                double[] z = {-0.01, -0.01};
+                setMetrics(metrics);
+                // Only the calculations returning KKTPM itself count the
+                // approximations
+                long approximations = 0;
+                for (int p = 0; p < pop.size(); p++) {
+                    KKTPMComponents components = getKKTPMComponents(
+                            pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+                    if (components.getKktpm() != components.getDirect()) {
+                        approximations++;
+                    }
+                    getDirectKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+                    getAdjustedKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+                    getProjectedKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+                }
+                Assert.assertEquals(0, metrics.getCount(KKTPMMetrics.Counter.APPROXIMATIONS));
+                KKTPMWorkspace workspace = new KKTPMWorkspace(2, 2, conCount);
+                double[] expected = new double[pop.size()];
+                long iterations = 0;
+                for (int p = 0; p < pop.size(); p++) {
+                    expected[p] = workspace.getKKTPM(
+                            pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001);
+                    iterations += workspace.getActiveSetIterations();
+                }
+                Assert.assertEquals(approximations, metrics.getCount(KKTPMMetrics.Counter.APPROXIMATIONS));
+                metrics.reset();
+                for (int p = 0; p < pop.size(); p++) {
+                    Assert.assertEquals(expected[p], getKKTPM(
+                            pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001), 0.0);
+                }
+                Assert.assertTrue(iterations > 0);
+                Assert.assertTrue(approximations > 0);
+                Assert.assertEquals(iterations, metrics.getCount(KKTPMMetrics.Counter.ACTIVE_SET_ITERATIONS));
+                Assert.assertEquals(approximations, metrics.getCount(KKTPMMetrics.Counter.APPROXIMATIONS));
+                Assert.assertEquals(0, metrics.getExecutionsCount(KKTPMMetrics.Phase.PROBLEM_EVALUATION));
+                Assert.assertEquals(pop.size(), metrics.getExecutionsCount(KKTPMMetrics.Phase.JACOBIAN_EXTRACTION));
+                Assert.assertEquals(pop.size(), metrics.getExecutionsCount(KKTPMMetrics.Phase.GRAM_ASSEMBLY));
+                Assert.assertEquals(pop.size(), metrics.getExecutionsCount(KKTPMMetrics.Phase.ACTIVE_SET));
+                Assert.assertEquals(pop.size() + iterations, metrics.getExecutionsCount(KKTPMMetrics.Phase.LINEAR_SOLVE));
+                Assert.assertTrue(metrics.getTotalTime(KKTPMMetrics.Phase.ACTIVE_SET)
+                        >= metrics.getTotalTime(KKTPMMetrics.Phase.LINEAR_SOLVE));
+            }
+        } finally {
+            setMetrics(null);
+        }
+    }
+
+    @Test
+    public void testSmallSystemRouting() {
+        Assert.assertTrue(isSmallSystem(SMALL_SYSTEM_VARIABLES_COUNT, 2, SMALL_SYSTEM_SIZE - 2));
+        Assert.assertFalse(isSmallSystem(SMALL_SYSTEM_VARIABLES_COUNT, 2, SMALL_SYSTEM_SIZE - 1));
+        // Many variables but few equations
+        Assert.assertFalse(isSmallSystem(SMALL_SYSTEM_VARIABLES_COUNT + 1, 2, 2));
+        Population pop = randomPopulation(new Random(59), 5, 2 * SMALL_SYSTEM_VARIABLES_COUNT, 2, 3);
+        double[] z = {-0.01, -0.01};
+        KKTPMWorkspace workspace = new KKTPMWorkspace(pop.x[0].length, 2, 3);
+        for (int p = 0; p < pop.size(); p++) {
+            Assert.assertEquals(workspace.getKKTPM(
+                    pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001),
+                    getKKTPM(pop.x[p], pop.f[p], z, pop.g[p], pop.jacobianF[p], pop.jacobianG[p], 0.001), 0.0);
+        }
+    }
+
+    private static Population randomPopulation(
+            Random random,
+            int popSize,
+            int varCount,
+            int objCount,
+            int conCount) {
+        Population population = new Population(popSize);
+        for (int p = 0; p < popSize; p++) {
+            population.x[p] = new double[varCount];
+            population.f[p] = new double[objCount];
+            population.g[p] = new double[conCount];
+            population.jacobianF[p] = new double[objCount][varCount];
+            population.jacobianG[p] = new double[conCount][varCount];
+            fill(random, population.x[p]);
+            fill(random, population.f[p]);
+            for (int i = 0; i < conCount; i++) {
+                // Mix satisfied and violated constraints
+                population.g[p][i] = random.nextDouble() - 0.7;
+            }
+            for (int i = 0; i < objCount; i++) {
+                fill(random, population.jacobianF[p][i]);
+            }
+            for (int i = 0; i < conCount; i++) {
+                fill(random, population.jacobianG[p][i]);
+            }
+        }
+        return population;
+    }
+
+    private static void fill(Random random, double[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = random.nextDouble();
+        }
+    }
+
+    /**
+     * The function minimized by the Lagrange multipliers (rho = 0), i.e.
+     * (1 - sum(um))^2 + ||[am;aj]'*u||^2 + sum((uj*gj)^2).
+     */
+    private static double getMultipliersObjective(
+            double[] w,
+            double[] g,
+            double[][] jacobianF,
+            double[][] jacobianG,
+            double[] u) {
+        int m = w.length;
+        int n = jacobianF[0].length;
+        double sum = 1;
+        double[] gradient = new double[n];
+        for (int i = 0; i < m; i++) {
+            sum -= u[i];
+            for (int j = 0; j < n; j++) {
+                gradient[j] += u[i] * jacobianF[i][j] / w[i];
+            }
+        }
+        double objective = sum * sum;
+        for (int i = 0; i < g.length; i++) {
+            for (int j = 0; j < n; j++) {
+                gradient[j] += u[m + i] * jacobianG[i][j];
+            }
+            objective += u[m + i] * g[i] * u[m + i] * g[i];
+        }
+        for (double value : gradient) {
+            objective += value * value;
+        }
+        return objective;
+    }
+
+    private static double[] getWeight(double[] f, double[] z) {
+        double norm = 0;
+        for (int i = 0; i < f.length; i++) {
+            norm += (f[i] - z[i]) * (f[i] - z[i]);
+        }
+        double[] w = new double[f.length];
+        for (int i = 0; i < f.length; i++) {
+            w[i] = (f[i] - z[i]) / Math.sqrt(norm);
+        }
+        return w;
+    }
+
+    /**
+     * The points (one row per point), values and gradients of a random
+     * population.
+     */
+    private static final class Population {
+
+        final double[][] x;
+        final double[][] f;
+        final double[][] g;
+        final double[][][] jacobianF;
+        final double[][][] jacobianG;
+
+        Population(int popSize) {
+            x = new double[popSize][];
+            f = new double[popSize][];
+            g = new double[popSize][];
+            jacobianF = new double[popSize][][];
+            jacobianG = new double[popSize][][];
+        }
+
+        int size() {
+            return x.length;
+        }
+    }
+}
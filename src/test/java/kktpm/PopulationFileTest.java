@@ -0,0 +1,99 @@
+package kktpm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class PopulationFileTest {
+
+    @Test
+    public void testKKTPMMatchesBatch() throws IOException {
+        int popSize = 500;
+        int varCount = 6;
+        int objCount = 3;
+        int conCount = 4;
+        Random random = new Random(37);
+        double[][] x = new double[popSize][varCount];
+        double[][] f = new double[popSize][objCount];
+        double[][] g = new double[popSize][conCount];
+        double[][][] jacobianF = new double[popSize][objCount][varCount];
+        double[][][] jacobianG = new double[popSize][conCount][varCount];
+        File populationFile = File.createTempFile("population", ".bin");
+        File kktpmFile = File.createTempFile("kktpm", ".bin");
+        populationFile.deleteOnExit();
+        kktpmFile.deleteOnExit();
+        try (PopulationFileWriter writer = new PopulationFileWriter(
+                populationFile, varCount, objCount, conCount)) {
+            for (int p = 0; p < popSize; p++) {
+                fill(random, x[p]);
+                fill(random, f[p]);
+                for (int j = 0; j < conCount; j++) {
+                    g[p][j] = random.nextDouble() - 0.7;
+                    fill(random, jacobianG[p][j]);
+                }
+                for (int i = 0; i < objCount; i++) {
+                    fill(random, jacobianF[p][i]);
+                }
+                writer.append(x[p], f[p], g[p], jacobianF[p], jacobianG[p]);
+            }
+        }
+        PopulationFile population = new PopulationFile(populationFile);
+        Assert.assertEquals(varCount, population.getVarCount());
+        Assert.assertEquals(objCount, population.getObjCount());
+        Assert.assertEquals(conCount, population.getConCount());
+        Assert.assertEquals(popSize, population.getPopSize());
+        double[] z = {-0.01, -0.01, -0.01};
+        Assert.assertEquals(popSize, population.getKKTPM(kktpmFile, z, 0.001));
+        double[] expected = KKTPMCalculator.getKKTPMBatch(x, f, g, jacobianF, jacobianG, z, 0.001);
+        double[] actual = new double[popSize];
+        try (RandomAccessFile results = new RandomAccessFile(kktpmFile, "r")) {
+            Assert.assertEquals(popSize * 8, results.length());
+            ByteBuffer buffer = ByteBuffer.allocate(popSize * 8).order(ByteOrder.LITTLE_ENDIAN);
+            results.getChannel().read(buffer);
+            buffer.flip();
+            buffer.asDoubleBuffer().get(actual);
+        }
+        Assert.assertArrayEquals(expected, actual, 0.0);
+    }
+
+    @Test
+    public void testInvalidFiles() throws IOException {
+        File file = File.createTempFile("population", ".bin");
+        file.deleteOnExit();
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[64]);
+        }
+        try {
+            new PopulationFile(file);
+            Assert.fail();
+        } catch (IOException ex) {
+            // Expected (not a population file)
+        }
+        try (PopulationFileWriter writer = new PopulationFileWriter(file, 2, 2, 1)) {
+            writer.append(new double[2], new double[2], new double[1],
+                    new double[2][2], new double[1][2]);
+        }
+        try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+            truncated.setLength(truncated.length() - 8);
+        }
+        try {
+            new PopulationFile(file);
+            Assert.fail();
+        } catch (IOException ex) {
+            // Expected (truncated)
+        }
+    }
+
+    private static void fill(Random random, double[] array) {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = random.nextDouble();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package parsing;
+
+import exceptions.EvaluationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class CompilationTest {
+
+    @Test
+    public void testCompiledFormulasMatchParseTrees() throws Throwable {
+        File[] files = new File(getClass().getClassLoader().getResource("problems").toURI()).listFiles();
+        Assert.assertTrue(files.length > 0);
+        for (File file : files) {
+            OptimizationProblem compiled = XMLParser.readXML(file);
+            OptimizationProblem interpreted = XMLParser.readXML(file);
+            interpreted.setCompilationEnabled(false);
+            Assert.assertEquals(0, interpreted.getCompiledFormulasCount());
+            Random random = new Random(1);
+            double[] x = new double[compiled.getTotalVariablesCount()];
+            for (int p = 0; p < 20; p++) {
+                for (int i = 0; i < x.length; i++) {
+                    x[i] = random.nextDouble();
+                }
+                compiled.setAllVariables(x);
+                interpreted.setAllVariables(x);
+                List<Double> expected = evaluateAll(interpreted);
+                List<Double> actual = evaluateAll(compiled);
+                Assert.assertEquals(file.getName(), expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    if (expected.get(i) == null || Double.isNaN(expected.get(i))) {
+                        Assert.assertEquals(file.getName(), expected.get(i), actual.get(i));
+                    } else {
+                        Assert.assertEquals(file.getName(), expected.get(i), actual.get(i),
+                                1e-9 * Math.max(1, Math.abs(expected.get(i))));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSharedEvaluationMatchesParseTrees() throws Throwable {
+        File[] files = new File(getClass().getClassLoader().getResource("problems").toURI()).listFiles();
+        for (File file : files) {
+            OptimizationProblem compiled = XMLParser.readXML(file);
+            OptimizationProblem interpreted = XMLParser.readXML(file);
+            interpreted.setCompilationEnabled(false);
+            int n = compiled.getTotalVariablesCount();
+            int m = compiled.getObjectivesCount();
+            int j = compiled.getConstraintsCount();
+            double[] x = new double[n];
+            Random random = new Random(4);
+            for (int i = 0; i < n; i++) {
+                x[i] = random.nextDouble();
+            }
+            double[] f1 = new double[m], f2 = new double[m], g1 = new double[j], g2 = new double[j];
+            double[][] jf1 = new double[m][n], jf2 = new double[m][n], jg1 = new double[j][n], jg2 = new double[j][n];
+            int count2;
+            try {
+                count2 = interpreted.evaluateAll(x, f2, g2, jf2, jg2);
+            } catch (EvaluationException ex) {
+                // Problems referring to undefined constants
+                try {
+                    compiled.evaluateAll(x, f1, g1, jf1, jg1);
+                    Assert.fail(file.getName());
+                } catch (EvaluationException expected) {
+                }
+                continue;
+            }
+            Assert.assertEquals(file.getName(), count2, compiled.evaluateAll(x, f1, g1, jf1, jg1));
+            Assert.assertArrayEquals(file.getName(), f2, f1, 1e-9);
+            Assert.assertArrayEquals(file.getName(), g2, g1, 1e-9);
+            for (int i = 0; i < m; i++) {
+                Assert.assertArrayEquals(file.getName(), jf2[i], jf1[i], 1e-6);
+            }
+            for (int i = 0; i < j; i++) {
+                Assert.assertArrayEquals(file.getName(), jg2[i], jg1[i], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testNumericalGradientsOfCompiledFormulas() throws Throwable {
+        for (String name : new String[]{"osy_no_gradients.xml", "zdt6_no_gradients.xml"}) {
+            File file = new File(getClass().getClassLoader().getResource("problems/" + name).toURI());
+            OptimizationProblem compiled = XMLParser.readXML(file);
+            OptimizationProblem interpreted = XMLParser.readXML(file);
+            interpreted.setCompilationEnabled(false);
+            int n = compiled.getTotalVariablesCount();
+            int m = compiled.getObjectivesCount();
+            int j = compiled.getConstraintsCount();
+            double[] x = new double[n];
+            Random random = new Random(2);
+            for (int i = 0; i < n; i++) {
+                x[i] = random.nextDouble();
+            }
+            double[] f1 = new double[m], f2 = new double[m], g1 = new double[j], g2 = new double[j];
+            double[][] jf1 = new double[m][n], jf2 = new double[m][n], jg1 = new double[j][n], jg2 = new double[j][n];
+            int count1 = compiled.evaluateAll(x, f1, g1, jf1, jg1);
+            int count2 = interpreted.evaluateAll(x, f2, g2, jf2, jg2);
+            Assert.assertTrue(count1 > 0);
+            Assert.assertEquals(count2, count1);
+            Assert.assertArrayEquals(f2, f1, 1e-9);
+            Assert.assertArrayEquals(g2, g1, 1e-9);
+            for (int i = 0; i < m; i++) {
+                Assert.assertArrayEquals(jf2[i], jf1[i], 1e-6);
+            }
+            for (int i = 0; i < j; i++) {
+                Assert.assertArrayEquals(jg2[i], jg1[i], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testAutomaticDifferentiation() throws Throwable {
+        String[][] pairs = {{"osy_no_gradients.xml", "osy.xml"}, {"zdt6_no_gradients.xml", "zdt6.xml"}};
+        for (String[] pair : pairs) {
+            File file = new File(getClass().getClassLoader().getResource("problems/" + pair[0]).toURI());
+            OptimizationProblem problem = XMLParser.readXML(file);
+            problem.setGradientMethod(GradientMethod.AUTOMATIC);
+            file = new File(getClass().getClassLoader().getResource("problems/" + pair[1]).toURI());
+            OptimizationProblem exact = XMLParser.readXML(file);
+            int n = problem.getTotalVariablesCount();
+            int m = problem.getObjectivesCount();
+            int j = problem.getConstraintsCount();
+            double[] x = new double[n];
+            Random random = new Random(3);
+            for (int i = 0; i < n; i++) {
+                x[i] = 0.05 + 0.9 * random.nextDouble();
+            }
+            double[] f1 = new double[m], f2 = new double[m], g1 = new double[j], g2 = new double[j];
+            double[][] jf1 = new double[m][n], jf2 = new double[m][n], jg1 = new double[j][n], jg2 = new double[j][n];
+            // No numerical evaluations at all
+            Assert.assertEquals(0, problem.evaluateAll(x, f1, g1, jf1, jg1));
+            exact.evaluateAll(x, f2, g2, jf2, jg2);
+            for (int i = 0; i < m; i++) {
+                Assert.assertArrayEquals(jf2[i], jf1[i], 1e-9);
+            }
+            for (int i = 0; i < j; i++) {
+                Assert.assertArrayEquals(jg2[i], jg1[i], 1e-9);
+            }
+            // The name-based API gives the same derivatives
+            String[] names = getVariablesNames(problem);
+            for (int i = 0; i < n; i++) {
+                Derivative derivative = problem.getObjectivePartialDerivative(0, names[i]);
+                Assert.assertEquals(0, derivative.getFunEvalCount());
+                Assert.assertEquals(jf1[0][i], derivative.getDerivative(), 0);
+            }
+            // Without compilation, forward difference is used instead
+            problem.setCompilationEnabled(false);
+            Assert.assertEquals(n, problem.getObjectiveGradient(0, new double[n]));
+        }
+    }
+
+    @Test
+    public void testCompiledFormulasMatchParseTreesAtSignedPoints() throws Throwable {
+        String[] formulas = {"-x1^2", "abs(x1) - x2", "floor(x1) * ceil(x2)",
+            "x1^x2^x3", "x1^3 - 2^x2", "min(x1, x2) + max(x2, x3)", "-(x1^2)", "x1^(x2^x3)"};
+        OptimizationProblem compiled = new OptimizationProblem();
+        OptimizationProblem interpreted = new OptimizationProblem();
+        interpreted.setCompilationEnabled(false);
+        List<LogRecord> records = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(OptimizationProblem.class.getName());
+        logger.addHandler(handler);
+        try {
+            for (OptimizationProblem problem : new OptimizationProblem[]{compiled, interpreted}) {
+                for (int i = 1; i <= 3; i++) {
+                    problem.setVariable("x" + i, 0.5);
+                }
+                for (String formula : formulas) {
+                    problem.addObjective(formula);
+                }
+            }
+        } finally {
+            logger.removeHandler(handler);
+        }
+        // The precedence of unary minus and the associativity of powers must
+        // be explicit (the fallbacks are logged)
+        Assert.assertEquals(formulas.length - 2, compiled.getCompiledFormulasCount());
+        Assert.assertEquals(2, records.size());
+        Random random = new Random(5);
+        double[] x = new double[3];
+        for (int p = 0; p < 100; p++) {
+            for (int i = 0; i < x.length; i++) {
+                // Integers half of the time
+                x[i] = 10 * (random.nextDouble() - 0.5);
+                if (p % 2 == 0) {
+                    x[i] = Math.round(x[i]);
+                }
+            }
+            compiled.setAllVariables(x);
+            interpreted.setAllVariables(x);
+            for (int i = 0; i < formulas.length; i++) {
+                double expected;
+                try {
+                    expected = interpreted.getObjective(i);
+                } catch (EvaluationException ex) {
+                    continue;
+                }
+                Assert.assertEquals(formulas[i], expected, compiled.getObjective(i),
+                        1e-9 * Math.max(1, Math.abs(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void testSummationsAreCompiled() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/zdt1.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file);
+        // 2 objectives and 60 bound constraints, each having 30 partial
+        // derivatives
+        Assert.assertEquals(62 + 62 * 30, problem.getCompiledFormulasCount());
+    }
+
+    @Test
+    public void testUndefinedConstantsAreNotCompiled() throws Throwable {
+        OptimizationProblem problem = new OptimizationProblem();
+        problem.setVariable("x1", 2);
+        problem.addObjective("c * x1");
+        // Like the parse tree, never evaluated using a NaN constant
+        Assert.assertEquals(0, problem.getCompiledFormulasCount());
+        try {
+            problem.getObjective(0);
+            Assert.fail();
+        } catch (EvaluationException ex) {
+            // Expected
+        }
+        problem.setConstant("c", 3);
+        Assert.assertEquals(1, problem.getCompiledFormulasCount());
+        Assert.assertEquals(6, problem.getObjective(0), 0);
+    }
+
+    @Test
+    public void testRecompilationAfterAddingVariables() throws Throwable {
+        OptimizationProblem problem = new OptimizationProblem();
+        problem.setVariable("x1", 2);
+        problem.setConstant("c", 3);
+        problem.addObjective("c * x1 ^ 2");
+        Assert.assertEquals(1, problem.getCompiledFormulasCount());
+        Assert.assertEquals(12, problem.getObjective(0), 0);
+        problem.setConstant("c", 4);
+        Assert.assertEquals(16, problem.getObjective(0), 0);
+        problem.setVector("y", new double[]{1, 2});
+        problem.addObjective("x1 + y[2]");
+        Assert.assertEquals(4, problem.getObjective(1), 0);
+        problem.setVector("y", new double[]{1, 2, 5});
+        Assert.assertEquals(16, problem.getObjective(0), 0);
+        Assert.assertEquals(4, problem.getObjective(1), 0);
+        Assert.assertEquals(2, problem.getCompiledFormulasCount());
+    }
+
+    /**
+     * Evaluates all the objectives, constraints and partial derivatives of a
+     * problem at its current point (null for the ones that cannot be
+     * evaluated).
+     */
+    private static List<Double> evaluateAll(OptimizationProblem problem) throws Throwable {
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < problem.getObjectivesCount(); i++) {
+            try {
+                values.add(problem.getObjective(i));
+                for (String varName : getVariablesNames(problem)) {
+                    values.add(problem.getObjectivePartialDerivative(i, varName).getDerivative());
+                }
+            } catch (EvaluationException ex) {
+                values.add(null);
+            }
+        }
+        for (int i = 0; i < problem.getConstraintsCount(); i++) {
+            try {
+                values.add(problem.getConstraint(i));
+                for (String varName : getVariablesNames(problem)) {
+                    values.add(problem.getConstraintPartialDerivative(i, varName).getDerivative());
+                }
+            } catch (EvaluationException ex) {
+                values.add(null);
+            }
+        }
+        return values;
+    }
+
+    private static String[] getVariablesNames(OptimizationProblem problem) {
+        String[] names = new String[problem.getTotalVariablesCount()];
+        int index = 0;
+        Iterator<Map.Entry<String, Double>> varIt = problem.getVariablesIterator();
+        while (varIt.hasNext()) {
+            names[index++] = varIt.next().getKey();
+        }
+        Iterator<Map.Entry<String, double[]>> vecIt = problem.getVectorsIterator();
+        while (vecIt.hasNext()) {
+            Map.Entry<String, double[]> entry = vecIt.next();
+            for (int i = 0; i < entry.getValue().length; i++) {
+                names[index++] = String.format("%s[%d]", entry.getKey(), i + 1);
+            }
+        }
+        return names;
+    }
+}
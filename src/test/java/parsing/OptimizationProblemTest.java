@@ -98,6 +98,93 @@ public class OptimizationProblemTest {
         Assert.assertEquals(96, problem.getObjective(1), 10e-10);
     }
 
+    @Test
+    public void testGradientByIndex() throws Throwable {
+        OptimizationProblem problem = getOptimizationProblem();
+        double[] gradient = new double[4];
+        Assert.assertEquals(0, problem.getObjectiveGradient(0, gradient));
+        Assert.assertArrayEquals(new double[]{2, 0, 3, -14}, gradient, 10e-10);
+        Assert.assertEquals(0, problem.getConstraintGradient(0, gradient));
+        Assert.assertArrayEquals(new double[]{0, 12, 0, -1}, gradient, 10e-10);
+        // Numerical partial derivatives (with respect to a vector element)
+        problem.setVector("z", new double[]{1, 2});
+        problem.addObjective("x1*z[2]^2");
+        gradient = new double[6];
+        Assert.assertEquals(6, problem.getObjectiveGradient(2, gradient));
+        Assert.assertArrayEquals(new double[]{4, 0, 0, 0, 0, 10 * (4 + 0.001)}, gradient, 10e-8);
+        // The point is left unchanged
+        Assert.assertEquals(10, problem.getVariable("x1"), 0);
+        Assert.assertEquals(2, problem.getVectorElement("z", 1), 0);
+    }
+
+    @Test
+    public void testEvaluateAll() throws Throwable {
+        OptimizationProblem problem = getOptimizationProblem();
+        double[] f = new double[2];
+        double[] g = new double[2];
+        double[][] jacobianF = new double[2][4];
+        double[][] jacobianG = new double[2][4];
+        int numericalEvalCount = problem.evaluateAll(
+                new double[]{-1, -2, -3, -4}, f, g, jacobianF, jacobianG);
+        Assert.assertEquals(0, numericalEvalCount);
+        Assert.assertArrayEquals(new double[]{-27, -7}, f, 10e-10);
+        Assert.assertArrayEquals(new double[]{-4, -4}, g, 10e-10);
+        Assert.assertArrayEquals(new double[]{2, 0, 3, 8}, jacobianF[0], 10e-10);
+        Assert.assertArrayEquals(new double[]{2, 1, 1, 0}, jacobianF[1], 10e-10);
+        Assert.assertArrayEquals(new double[]{0, 12, 0, -1}, jacobianG[0], 10e-10);
+        Assert.assertArrayEquals(new double[]{1, 0, 1, 0}, jacobianG[1], 10e-10);
+        // The point is kept
+        Assert.assertEquals(-4, problem.getVariable("y3"), 0);
+    }
+
+    @Test
+    public void testEvaluateAllSparse() throws Throwable {
+        OptimizationProblem problem = getOptimizationProblem();
+        SparseJacobian jacobianF = problem.createObjectivesJacobian();
+        SparseJacobian jacobianG = problem.createConstraintsJacobian();
+        // The zero partial derivatives are not stored
+        Assert.assertEquals(6, jacobianF.getNonZerosCount());
+        Assert.assertArrayEquals(new int[]{0, 3, 6}, jacobianF.getRowPointers());
+        Assert.assertArrayEquals(new int[]{0, 2, 3, 0, 1, 2}, jacobianF.getColumnIndices());
+        Assert.assertEquals(4, jacobianG.getNonZerosCount());
+        for (boolean compilationEnabled : new boolean[]{true, false}) {
+            problem.setCompilationEnabled(compilationEnabled);
+            double[] f = new double[2];
+            double[] g = new double[2];
+            Assert.assertEquals(0, problem.evaluateAll(
+                    new double[]{-1, -2, -3, -4}, f, g, jacobianF, jacobianG));
+            Assert.assertArrayEquals(new double[]{-27, -7}, f, 10e-10);
+            Assert.assertArrayEquals(new double[]{-4, -4}, g, 10e-10);
+            double[][] denseF = jacobianF.toDense();
+            double[][] denseG = jacobianG.toDense();
+            Assert.assertArrayEquals(new double[]{2, 0, 3, 8}, denseF[0], 10e-10);
+            Assert.assertArrayEquals(new double[]{2, 1, 1, 0}, denseF[1], 10e-10);
+            Assert.assertArrayEquals(new double[]{0, 12, 0, -1}, denseG[0], 10e-10);
+            Assert.assertArrayEquals(new double[]{1, 0, 1, 0}, denseG[1], 10e-10);
+        }
+        // Numerical partial derivatives are compressed as well
+        problem.setConstraintPartialDerivative(0, "x2", null);
+        jacobianG = problem.createConstraintsJacobian();
+        Assert.assertEquals(4, jacobianG.getNonZerosCount());
+        Assert.assertEquals(1, problem.evaluateAll(new double[]{-1, -2, -3, -4},
+                new double[2], new double[2], jacobianF, jacobianG));
+        Assert.assertEquals(12, jacobianG.toDense()[0][1], 0.1);
+    }
+
+    @Test
+    public void testSparseJacobianFromDense() {
+        double[][] dense = {{0, 1.5, 0}, {0, 0, 0}, {-2, 0, 3}};
+        SparseJacobian jacobian = SparseJacobian.fromDense(dense, 3);
+        Assert.assertEquals(3, jacobian.getRowsCount());
+        Assert.assertEquals(3, jacobian.getNonZerosCount());
+        Assert.assertArrayEquals(new int[]{0, 1, 1, 3}, jacobian.getRowPointers());
+        Assert.assertArrayEquals(new int[]{1, 0, 2}, jacobian.getColumnIndices());
+        Assert.assertArrayEquals(new double[]{1.5, -2, 3}, jacobian.getValues(), 0);
+        for (int i = 0; i < dense.length; i++) {
+            Assert.assertArrayEquals(dense[i], jacobian.toDense()[i], 0);
+        }
+    }
+
     private OptimizationProblem getOptimizationProblem() throws Throwable {
         // Create an optimization problem object
         OptimizationProblem problem = new OptimizationProblem();
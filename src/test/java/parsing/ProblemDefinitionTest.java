@@ -0,0 +1,161 @@
+package parsing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ProblemDefinitionTest {
+
+    @Test
+    public void testContextsAreIndependent() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/bnh.xml").toURI());
+        ProblemDefinition definition = XMLParser.readXML(file).getDefinition();
+        Assert.assertEquals(2, definition.getTotalVariablesCount());
+        Assert.assertEquals(2, definition.getObjectivesCount());
+        Assert.assertEquals(6, definition.getConstraintsCount());
+        OptimizationProblem context1 = definition.newContext();
+        OptimizationProblem context2 = definition.newContext();
+        context1.setAllVariables(new double[]{1, 2});
+        context2.setAllVariables(new double[]{3, 0.5});
+        Assert.assertEquals(4 + 16, context1.getObjective(0), 1e-10);
+        Assert.assertEquals(36 + 1, context2.getObjective(0), 1e-10);
+        Assert.assertEquals(16, context1.getObjectivePartialDerivative(0, "x2").getDerivative(), 1e-10);
+        Assert.assertEquals(4, context2.getObjectivePartialDerivative(0, "x2").getDerivative(), 1e-10);
+    }
+
+    @Test
+    public void testDefinitionsAreReplayedInOrder() throws Throwable {
+        OptimizationProblem problem = new OptimizationProblem();
+        problem.setConstant("c", 3);
+        // Refers to the constant defined before
+        problem.executeCommand("c = c + 2");
+        problem.executeCommand("a = 10");
+        // Overrides the command
+        problem.setConstant("a", 1);
+        problem.setVariable("x1", 2);
+        problem.addObjective("c * x1 + a");
+        problem.setObjectivePartialDerivative(0, "x1", "c");
+        Assert.assertEquals(11, problem.getObjective(0), 0);
+        OptimizationProblem context = problem.getDefinition().newContext();
+        Assert.assertEquals(11, context.getObjective(0), 0);
+        Assert.assertEquals(5, context.getObjectivePartialDerivative(0, "x1").getDerivative(), 0);
+    }
+
+    @Test
+    public void testContextsShareCompiledForms() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/osy.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file);
+        ProblemDefinition definition = problem.getDefinition();
+        OptimizationProblem context1 = definition.newContext();
+        OptimizationProblem context2 = definition.newContext();
+        Assert.assertEquals(problem.getCompiledFormulasCount(), context1.getCompiledFormulasCount());
+        int n = definition.getTotalVariablesCount();
+        int m = definition.getObjectivesCount();
+        int k = definition.getConstraintsCount();
+        double[] x = new double[n];
+        Random random = new Random(7);
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextDouble();
+        }
+        double[] f1 = new double[m], f2 = new double[m], g1 = new double[k], g2 = new double[k];
+        double[][] jf1 = new double[m][n], jf2 = new double[m][n], jg1 = new double[k][n], jg2 = new double[k][n];
+        problem.evaluateAll(x, f1, g1, jf1, jg1);
+        context1.evaluateAll(x, f2, g2, jf2, jg2);
+        Assert.assertArrayEquals(f1, f2, 0);
+        Assert.assertArrayEquals(g1, g2, 0);
+        for (int i = 0; i < k; i++) {
+            Assert.assertArrayEquals(jg1[i], jg2[i], 0);
+        }
+        // Changing a context (and recompiling its formulas) does not affect
+        // the others
+        context1.setVariable("extra", 1);
+        context1.addObjective("extra * 2");
+        Assert.assertEquals(problem.getCompiledFormulasCount() + 1, context1.getCompiledFormulasCount());
+        context1.setAllVariables(Arrays.copyOf(x, n + 1));
+        Assert.assertEquals(f1[0], context1.getObjective(0), 0);
+        context2.setAllVariables(x);
+        Assert.assertEquals(m, context2.getObjectivesCount());
+        Assert.assertEquals(f1[0], context2.getObjective(0), 0);
+    }
+
+    @Test
+    public void testUncompiledFormulasOfContexts() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/tnk.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file);
+        problem.setCompilationEnabled(false);
+        problem.setAllVariables(new double[]{0.7, 0.4});
+        // The parse trees of the context are built when first evaluated
+        OptimizationProblem context = problem.getDefinition().newContext();
+        Assert.assertEquals(0, context.getCompiledFormulasCount());
+        for (int i = 0; i < problem.getConstraintsCount(); i++) {
+            Assert.assertEquals(problem.getConstraint(i), context.getConstraint(i), 0);
+            Assert.assertEquals(problem.getConstraintPartialDerivative(i, "x1").getDerivative(),
+                    context.getConstraintPartialDerivative(i, "x1").getDerivative(), 0);
+        }
+        Assert.assertEquals(problem.toString(), context.toString());
+    }
+
+    @Test
+    public void testParallelEvaluation() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/dtlz2_10-obj.xml").toURI());
+        final ProblemDefinition definition = XMLParser.readXML(file).getDefinition();
+        final int varCount = definition.getTotalVariablesCount();
+        final int objCount = definition.getObjectivesCount();
+        final double[][] x = new double[200][varCount];
+        Random random = new Random(3);
+        for (double[] point : x) {
+            for (int i = 0; i < varCount; i++) {
+                point[i] = random.nextDouble();
+            }
+        }
+        // Sequential evaluation
+        OptimizationProblem problem = definition.newContext();
+        double[][] expected = new double[x.length][objCount];
+        for (int p = 0; p < x.length; p++) {
+            problem.setAllVariables(x[p]);
+            for (int i = 0; i < objCount; i++) {
+                expected[p][i] = problem.getObjective(i);
+            }
+        }
+        // Parallel evaluation (one context per thread)
+        final int threadsCount = 4;
+        final double[][] actual = new double[x.length][objCount];
+        ExecutorService executor = Executors.newFixedThreadPool(threadsCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threadsCount; t++) {
+                final int firstPoint = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        OptimizationProblem context = definition.newContext();
+                        for (int p = firstPoint; p < x.length; p += threadsCount) {
+                            context.setAllVariables(x[p]);
+                            for (int i = 0; i < objCount; i++) {
+                                actual[p][i] = context.getObjective(i);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int p = 0; p < x.length; p++) {
+            Assert.assertArrayEquals(expected[p], actual[p], 0.0);
+        }
+    }
+}
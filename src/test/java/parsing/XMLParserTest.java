@@ -61,4 +61,113 @@ public class XMLParserTest {
                 problem.getConstraintPartialDerivative(1, "x2").getDerivative(),
                 10e-10);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNumericalGradientMethods() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/zdt6.xml").toURI());
+        OptimizationProblem exact = XMLParser.readXML(file);
+        file = new File(getClass().getClassLoader().getResource("problems/zdt6_no_gradients.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file);
+        int n = problem.getTotalVariablesCount();
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = 0.1 + 0.8 * i / n;
+        }
+        exact.setAllVariables(x);
+        problem.setAllVariables(x);
+        double[] expected = new double[n];
+        exact.getObjectiveGradient(1, expected);
+        double[] gradient = new double[n];
+        double[] errors = new double[GradientMethod.values().length];
+        for (GradientMethod method : GradientMethod.values()) {
+            problem.setGradientMethod(method);
+            Assert.assertEquals(method.getEvaluationsCount() * n, problem.getObjectiveGradient(1, gradient));
+            Assert.assertEquals(method.getEvaluationsCount(),
+                    problem.getObjectivePartialDerivative(1, "x[2]").getFunEvalCount());
+            Assert.assertEquals(gradient[1], problem.getObjectivePartialDerivative(1, "x[2]").getDerivative(), 0);
+            for (int i = 0; i < n; i++) {
+                errors[method.ordinal()] = Math.max(errors[method.ordinal()], Math.abs(gradient[i] - expected[i]));
+            }
+            // The point is left unchanged
+            Assert.assertArrayEquals(x, problem.getVector("x"), 0);
+        }
+        Assert.assertTrue(errors[GradientMethod.CENTRAL.ordinal()] < errors[GradientMethod.FORWARD.ordinal()] / 10);
+        Assert.assertTrue(errors[GradientMethod.ADAPTIVE.ordinal()] < errors[GradientMethod.CENTRAL.ordinal()]);
+        Assert.assertTrue(errors[GradientMethod.ADAPTIVE.ordinal()] < 1e-6);
+        Assert.assertTrue(errors[GradientMethod.AUTOMATIC.ordinal()] < 1e-12);
+    }
+
+    @Test
+    public void testDerivedPartialDerivatives() throws Throwable {
+        String[][] pairs = {{"osy_no_gradients.xml", "osy.xml"}, {"zdt6_no_gradients.xml", "zdt6.xml"}};
+        for (String[] pair : pairs) {
+            File file = new File(getClass().getClassLoader().getResource("problems/" + pair[0]).toURI());
+            OptimizationProblem problem = XMLParser.readXML(file, true);
+            file = new File(getClass().getClassLoader().getResource("problems/" + pair[1]).toURI());
+            OptimizationProblem exact = XMLParser.readXML(file);
+            int n = problem.getTotalVariablesCount();
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = 0.1 + 0.8 * i / n;
+            }
+            problem.setAllVariables(x);
+            exact.setAllVariables(x);
+            double[] expected = new double[n];
+            double[] gradient = new double[n];
+            for (int i = 0; i < problem.getObjectivesCount(); i++) {
+                exact.getObjectiveGradient(i, expected);
+                // No numerical partial derivatives are left
+                Assert.assertEquals(0, problem.getObjectiveGradient(i, gradient));
+                Assert.assertArrayEquals(expected, gradient, 1e-9);
+            }
+            for (int i = 0; i < problem.getConstraintsCount(); i++) {
+                exact.getConstraintGradient(i, expected);
+                Assert.assertEquals(0, problem.getConstraintGradient(i, gradient));
+                Assert.assertArrayEquals(expected, gradient, 1e-9);
+            }
+        }
+        // f1 of ZDT6 depends on x[1] only (the other derivatives are
+        // structural zeros)
+        File file = new File(getClass().getClassLoader().getResource("problems/zdt6_no_gradients.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file, true);
+        boolean[] pattern = new boolean[problem.getTotalVariablesCount()];
+        Assert.assertEquals(1, problem.getObjectiveSparsity(0, pattern));
+        Assert.assertTrue(pattern[0]);
+        Assert.assertEquals(pattern.length, problem.getObjectiveSparsity(1, pattern));
+        // Without derivation, nothing is known to be zero
+        problem = XMLParser.readXML(file);
+        Assert.assertEquals(pattern.length, problem.getObjectiveSparsity(0, pattern));
+    }
+
+    @Test
+    public void testHandWrittenStructuralZeros() throws Throwable {
+        File file = new File(getClass().getClassLoader().getResource("problems/zdt1.xml").toURI());
+        OptimizationProblem problem = XMLParser.readXML(file);
+        boolean[] pattern = new boolean[problem.getTotalVariablesCount()];
+        Assert.assertEquals(1, problem.getObjectiveSparsity(0, pattern));
+        Assert.assertEquals(30, problem.getObjectiveSparsity(1, pattern));
+        // Decided on the simplified expression of the formula
+        String[] zeros = {"0", " 0.0 ", "(0)", "-0", "0*x1", "x2*(x1-x1)*0", "0/x1"};
+        String[] others = {"1", "x1-x1", "0+x1", "x1^0", "c*0"};
+        for (boolean compilationEnabled : new boolean[]{true, false}) {
+            problem = new OptimizationProblem();
+            problem.setCompilationEnabled(compilationEnabled);
+            problem.setVariable("x1", 2);
+            problem.setVariable("x2", 3);
+            for (String formula : zeros) {
+                problem.addObjective(formula);
+                problem.setObjectivePartialDerivative(problem.getObjectivesCount() - 1, "x1", formula);
+            }
+            for (String formula : others) {
+                problem.addObjective(formula);
+                problem.setObjectivePartialDerivative(problem.getObjectivesCount() - 1, "x1", formula);
+            }
+            pattern = new boolean[problem.getTotalVariablesCount()];
+            for (int i = 0; i < problem.getObjectivesCount(); i++) {
+                String formula = i < zeros.length ? zeros[i] : others[i - zeros.length];
+                problem.getObjectiveSparsity(i, pattern);
+                Assert.assertEquals(formula, i >= zeros.length, pattern[0]);
+            }
+        }
+    }
+}
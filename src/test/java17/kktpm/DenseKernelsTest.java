@@ -0,0 +1,91 @@
+package kktpm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Runs the vectorized kernels (see the vectorKernelTest task) against the
+ * plain Java 8 loops.
+ */
+public class DenseKernelsTest {
+
+    @Test
+    public void testVectorizedKernelsMatchPlainLoops() {
+        Assert.assertTrue(DenseKernels.isVectorized());
+        Random random = new Random(61);
+        for (int length : new int[]{1, 3, 8, 30, 257, 1000}) {
+            double[] a = new double[length];
+            double[] b = new double[length];
+            double[] y = new double[length];
+            for (int i = 0; i < length; i++) {
+                a[i] = 2 * random.nextDouble() - 1;
+                b[i] = 2 * random.nextDouble() - 1;
+                y[i] = 2 * random.nextDouble() - 1;
+            }
+            double expected = 0;
+            double magnitude = 0;
+            for (int i = 0; i < length; i++) {
+                expected += a[i] * b[i];
+                magnitude += Math.abs(a[i] * b[i]);
+            }
+            // Both sums are within length*eps*sum(|a*b|) of the exact one
+            Assert.assertEquals(expected, DenseKernels.dot(a, b, length),
+                    2 * length * Math.ulp(1.0) * magnitude);
+            double[] expectedY = y.clone();
+            for (int i = 0; i < length; i++) {
+                expectedY[i] += a[i] * 0.37;
+            }
+            DenseKernels.addScaled(0.37, a, y, length);
+            Assert.assertArrayEquals(expectedY, y, 0.0);
+        }
+    }
+
+    @Test
+    public void testVectorizedWorkspaceMatchesMatrixMethods() {
+        Random random = new Random(67);
+        int varCount = 500;
+        int objCount = 3;
+        int conCount = 10;
+        KKTPMWorkspace workspace = new KKTPMWorkspace(varCount, objCount, conCount);
+        double[] z = {-0.01, -0.01, -0.01};
+        for (int p = 0; p < 20; p++) {
+            double[] x = random(random, varCount);
+            double[] f = random(random, objCount);
+            double[] g = new double[conCount];
+            for (int i = 0; i < conCount; i++) {
+                g[i] = -random.nextDouble();
+            }
+            double[][] jacobianF = new double[objCount][];
+            for (int i = 0; i < objCount; i++) {
+                jacobianF[i] = random(random, varCount);
+            }
+            double[][] jacobianG = new double[conCount][];
+            for (int i = 0; i < conCount; i++) {
+                jacobianG[i] = random(random, varCount);
+            }
+            // The matrix-based methods do not use DenseKernels
+            double expected = KKTPMCalculator.getKKTPMComponents(
+                    x, f, z, g, jacobianF, jacobianG, 0.001).getKktpm();
+            double actual = workspace.getKKTPM(x, f, z, g, jacobianF, jacobianG, 0.001);
+            Assert.assertEquals(expected, actual, 1e-9 * Math.max(1, Math.abs(expected)));
+        }
+    }
+
+    @Test
+    public void testVectorizedSmallSystemRouting() {
+        Assert.assertTrue(KKTPMCalculator.isSmallSystem(
+                KKTPMCalculator.VECTORIZED_SYSTEM_VARIABLES_COUNT, 2, 3));
+        Assert.assertFalse(KKTPMCalculator.isSmallSystem(
+                KKTPMCalculator.VECTORIZED_SYSTEM_VARIABLES_COUNT + 1, 2, 3));
+    }
+
+    private static double[] random(Random random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble();
+        }
+        return values;
+    }
+}
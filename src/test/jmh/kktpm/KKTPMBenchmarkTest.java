@@ -0,0 +1,52 @@
+package kktpm;
+
+import org.junit.Assert;
+import org.junit.Test;
+import parsing.OptimizationProblem;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class KKTPMBenchmarkTest {
+
+    private static final File PROBLEMS_DIRECTORY = new File("src/test/resources/problems");
+
+    @Test
+    public void testProblemFilesAreDiscovered() throws Throwable {
+        String[] args = {"-prof", "gc"};
+        String[] result = KKTPMBenchmark.withProblemFiles(args, PROBLEMS_DIRECTORY);
+        Assert.assertEquals(4, result.length);
+        Assert.assertEquals("-p", result[2]);
+        List<String> files = Arrays.asList(result[3].substring("problemFile=".length()).split(","));
+        Assert.assertEquals(ProblemSamples.listProblemFiles(PROBLEMS_DIRECTORY), files);
+        Assert.assertTrue(files.contains("zdt1.xml"));
+        Assert.assertTrue(files.contains("osy_no_gradients.xml"));
+    }
+
+    @Test
+    public void testProblemFilesOnCommandLine() throws Throwable {
+        String[] args = {"KKTPMBenchmark.getKKTPM", "-p", "problemFile=zdt1.xml,osy.xml"};
+        Assert.assertArrayEquals(args, KKTPMBenchmark.withProblemFiles(args, PROBLEMS_DIRECTORY));
+    }
+
+    @Test
+    public void testNaNValuesAreSkipped() throws Throwable {
+        OptimizationProblem problem = new OptimizationProblem();
+        problem.setVariable("x1", 1);
+        problem.addObjective("sqrt(x1)");
+        problem.addObjective("x1^2");
+        double[][] candidates = {{-1}, {0.25}, {-4}, {4}};
+        // The NaN values of the first objective are ignored
+        Assert.assertArrayEquals(new double[]{0.49, 0.0525},
+                KKTPMBenchmark.getIdealPoint(problem, candidates), 1e-15);
+        double[] z = {0, 0};
+        double[][] points = KKTPMBenchmark.getValidPoints(problem, candidates, z, 10);
+        Assert.assertEquals(2, points.length);
+        Assert.assertSame(candidates[1], points[0]);
+        Assert.assertSame(candidates[3], points[1]);
+        points = KKTPMBenchmark.getValidPoints(problem, candidates, z, 1);
+        Assert.assertEquals(1, points.length);
+        Assert.assertSame(candidates[1], points[0]);
+    }
+}
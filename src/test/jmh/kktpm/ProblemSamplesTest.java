@@ -0,0 +1,67 @@
+package kktpm;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class ProblemSamplesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeProblem(String variables) throws IOException {
+        File file = folder.newFile("problem.xml");
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<problem>" + variables + "</problem>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testLimits() throws Throwable {
+        File file = writeProblem("<variable min=\"3\" max=\"3\">y</variable>"
+                + "<vector size=\"3\" mins=\"1, ,-2\" maxs=\"1,,-2\">x</vector>"
+                + "<variable>z</variable>");
+        ProblemSamples samples = new ProblemSamples(file, 1);
+        for (int p = 0; p < 10; p++) {
+            double[] point = samples.next();
+            Assert.assertEquals(5, point.length);
+            // Variables first, followed by vectors elements
+            Assert.assertEquals(3, point[0], 0);
+            Assert.assertTrue(point[1] >= 0 && point[1] <= 1);
+            Assert.assertEquals(1, point[2], 0);
+            Assert.assertTrue(point[3] >= 0 && point[3] <= 1);
+            Assert.assertEquals(-2, point[4], 0);
+        }
+        // The same seed always gives the same points
+        Assert.assertArrayEquals(new ProblemSamples(file, 7).next(),
+                new ProblemSamples(file, 7).next(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVectorLimitsCount() throws Throwable {
+        new ProblemSamples(writeProblem(
+                "<vector size=\"3\" mins=\"0,0\" maxs=\"1,1,1\">x</vector>"), 1);
+    }
+
+    @Test
+    public void testListProblemFiles() throws Throwable {
+        folder.newFile("b.xml");
+        folder.newFile("a.xml");
+        folder.newFile("notes.txt");
+        Assert.assertEquals(Arrays.asList("a.xml", "b.xml"),
+                ProblemSamples.listProblemFiles(folder.getRoot()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testListMissingDirectory() throws Throwable {
+        ProblemSamples.listProblemFiles(new File(folder.getRoot(), "missing"));
+    }
+}